@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Processor;
+
+import org.datanucleus.ide.idea.benchmark.FileVirtualFile;
+import org.datanucleus.ide.idea.benchmark.SyntheticProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Metadata file discovery in a generated module output tree: one walk per extension vs. a single
+ * walk matching all extensions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdeaProjectUtilsBenchmark {
+
+    private static final Set<String> EXTENSIONS = new LinkedHashSet<String>(Arrays.asList("jdo", "orm", "xml"));
+
+    @Param({"10", "100"})
+    private int packageCount;
+
+    @Param({"10", "100"})
+    private int classesPerPackage;
+
+    private File root;
+
+    private VirtualFile rootDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = File.createTempFile("dne-benchmark", "");
+        if (!this.root.delete()) {
+            throw new IOException("Could not delete " + this.root);
+        }
+        SyntheticProject.createOutputTree(this.root, this.packageCount, this.classesPerPackage);
+        this.rootDir = new FileVirtualFile(this.root);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticProject.delete(this.root);
+    }
+
+    @Benchmark
+    public List<VirtualFile> walkPerExtension() {
+        final List<VirtualFile> found = new ArrayList<VirtualFile>();
+        for (final String extension : EXTENSIONS) {
+            this.findFiles(Collections.singleton(extension), found);
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<VirtualFile> singleWalk() {
+        final List<VirtualFile> found = new ArrayList<VirtualFile>();
+        this.findFiles(EXTENSIONS, found);
+        return found;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private void findFiles(final Set<String> extensions, final List<VirtualFile> found) {
+        IdeaProjectUtils.findFilesByExtension(this.rootDir, extensions, null, new Processor<VirtualFile>() {
+            public boolean process(final VirtualFile file) {
+                return found.add(file);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * The DOM/XPath based metadata parser {@link MetadataParser} replaced, kept as benchmark baseline.<br/>
+ * <br/>
+ * Differences to the original: external DTDs are not loaded (benchmarks must not hit the network)
+ * and the class loop iterates the class nodes instead of the package nodes.
+ */
+final class LegacyDomMetadataParser {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] JDO_METADATA_ROOT_NODES = {"jdo", "orm"};
+
+    private static final String[] JPA_METADATA_ROOT_NODES = {"entity", "mapped-superclass", "embeddable"};
+
+    private LegacyDomMetadataParser() {
+        // no instantiation allowed
+    }
+
+    static Set<String> parseQualifiedClassNames(final byte[] content)
+            throws ParserConfigurationException, IOException, SAXException, XPathExpressionException {
+
+        // the original loaded the file content into a String first
+        final String fileContent = new String(content, UTF8);
+        final Document doc = createDocumentBuilderFactory().newDocumentBuilder().parse(new InputSource(new StringReader(fileContent)));
+
+        final Set<String> qualifiedClassNames = new LinkedHashSet<String>();
+
+        final Set<String> qualifiedClassNamesJdo = parseQualifiedClassNamesJdo(doc);
+        if (qualifiedClassNamesJdo.isEmpty()) {
+            qualifiedClassNames.addAll(parseQualifiedClassNamesJpa(doc));
+        } else {
+            qualifiedClassNames.addAll(qualifiedClassNamesJdo);
+        }
+
+        return qualifiedClassNames;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static Set<String> parseQualifiedClassNamesJdo(final Document doc) throws XPathExpressionException {
+        final Set<String> classNames = new LinkedHashSet<String>();
+        for (final String jdoMetadataRootNode : JDO_METADATA_ROOT_NODES) {
+            classNames.addAll(parseQualifiedClassNamesJdoInternal(doc, jdoMetadataRootNode));
+        }
+        return classNames;
+    }
+
+    private static Set<String> parseQualifiedClassNamesJdoInternal(final Document doc, final String rootNodeName)
+            throws XPathExpressionException {
+
+        final XPathFactory factory = XPathFactory.newInstance();
+        final XPath xpath = factory.newXPath();
+        final XPathExpression expr1 = xpath.compile("//" + rootNodeName + "/package/@name");
+
+        final NodeList packageNodes = (NodeList) expr1.evaluate(doc, XPathConstants.NODESET);
+
+        final Set<String> packageAndClasses = new LinkedHashSet<String>();
+        for (int i = 0; i < packageNodes.getLength(); ++i) {
+            final String packageName = packageNodes.item(i).getNodeValue();
+
+            final XPathExpression expr2 = xpath.compile("//" + rootNodeName + "/package[@name=\"" + packageName + "\"]/class/@name");
+            final NodeList classNodes = (NodeList) expr2.evaluate(doc, XPathConstants.NODESET);
+
+            for (int j = 0; j < classNodes.getLength(); ++j) {
+                final String className = classNodes.item(j).getNodeValue();
+                if (className != null) {
+                    packageAndClasses.add(packageName + '.' + className);
+                }
+            }
+        }
+
+        return packageAndClasses;
+    }
+
+    private static Set<String> parseQualifiedClassNamesJpa(final Document doc) throws XPathExpressionException {
+        final Set<String> classNames = new LinkedHashSet<String>();
+        for (final String jpaMetadataRootNode : JPA_METADATA_ROOT_NODES) {
+            final XPathFactory factory = XPathFactory.newInstance();
+            final XPath xpath = factory.newXPath();
+            final XPathExpression expr = xpath.compile("/entity-mappings/" + jpaMetadataRootNode + "/@class");
+
+            final NodeList classNodes = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+            for (int i = 0; i < classNodes.getLength(); ++i) {
+                final String className = classNodes.item(i).getNodeValue();
+                if (className != null) {
+                    classNames.add(className);
+                }
+            }
+        }
+        return classNames;
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() throws ParserConfigurationException {
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        return dbf;
+    }
+
+}
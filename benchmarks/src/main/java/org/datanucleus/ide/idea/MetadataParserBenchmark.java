@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.io.ByteArrayInputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.ide.idea.benchmark.SyntheticProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Metadata parsing: streaming {@link MetadataParser} vs. the former DOM/XPath implementation on
+ * generated JDO and JPA mapping files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataParserBenchmark {
+
+    @Param({"JDO", "JPA"})
+    private String format;
+
+    @Param({"100", "1000", "10000"})
+    private int classCount;
+
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        this.content = "JDO".equals(this.format)
+                ? SyntheticProject.createJdoMapping(this.classCount)
+                : SyntheticProject.createJpaMapping(this.classCount);
+    }
+
+    @Benchmark
+    public Set<String> stax() throws Exception {
+        return MetadataParser.parseQualifiedClassNames(new ByteArrayInputStream(this.content));
+    }
+
+    @Benchmark
+    public Set<String> domXPath() throws Exception {
+        return LegacyDomMetadataParser.parseQualifiedClassNames(this.content);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileSystem;
+
+import org.datanucleus.ide.idea.util.FakeVirtualFileSystem;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * {@link VirtualFile} backed by a plain {@link File}, to run VFS based code without an IDEA instance.<br/>
+ * <br/>
+ * Children are read from the file system on every call (as an uncached VFS would).
+ */
+public final class FileVirtualFile extends VirtualFile {
+
+    private static final VirtualFile[] EMPTY_VIRTUAL_FILES_ARRAY = new VirtualFile[0];
+
+    private final File file;
+
+    private final FileVirtualFile parent;
+
+    public FileVirtualFile(final File file) {
+        this(file, null);
+    }
+
+    private FileVirtualFile(final File file, final FileVirtualFile parent) {
+        this.file = file;
+        this.parent = parent;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return this.file.getName();
+    }
+
+    @NotNull
+    @Override
+    public VirtualFileSystem getFileSystem() {
+        return new FakeVirtualFileSystem();
+    }
+
+    @Override
+    public String getPath() {
+        return FileUtil.toSystemIndependentName(this.file.getPath());
+    }
+
+    @Override
+    public boolean isWritable() {
+        return this.file.canWrite();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return this.file.isDirectory();
+    }
+
+    @Override
+    public boolean isValid() {
+        return this.file.exists();
+    }
+
+    @Override
+    public VirtualFile getParent() {
+        return this.parent;
+    }
+
+    @Override
+    public VirtualFile[] getChildren() {
+        final File[] files = this.file.listFiles();
+        if (files == null) {
+            return EMPTY_VIRTUAL_FILES_ARRAY;
+        }
+        final VirtualFile[] children = new VirtualFile[files.length];
+        for (int i = 0; i < files.length; ++i) {
+            children[i] = new FileVirtualFile(files[i], this);
+        }
+        return children;
+    }
+
+    @NotNull
+    @Override
+    public OutputStream getOutputStream(final Object requestor, final long newModificationStamp, final long newTimeStamp) throws IOException {
+        return new FileOutputStream(this.file);
+    }
+
+    @NotNull
+    @Override
+    public byte[] contentsToByteArray() throws IOException {
+        return FileUtil.loadFileBytes(this.file);
+    }
+
+    @Override
+    public long getTimeStamp() {
+        return this.file.lastModified();
+    }
+
+    @Override
+    public long getLength() {
+        return this.file.length();
+    }
+
+    @Override
+    public void refresh(final boolean asynchronous, final boolean recursive, @Nullable final Runnable postRunnable) {
+        if (postRunnable != null) {
+            postRunnable.run();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FileInputStream(this.file);
+    }
+
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generators for synthetic benchmark input: module output trees, JDO/JPA mapping files and
+ * classpath (jar path) lists.
+ */
+public final class SyntheticProject {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] JAR_NAMES = {
+            "datanucleus-core-%d.%d.%d-release",
+            "datanucleus-api-jdo-%d.%d.%d",
+            "jdo-api-%d.%d",
+            "commons-lang-%d.%d",
+            "spring-core-%d.%d.%d.RELEASE",
+            "guava-%d.%d-SNAPSHOT",
+            "hibernate-validator-%d.%d.%d.Final",
+            "log4j-%d.%d.%d"};
+
+    private SyntheticProject() {
+        // no instantiation allowed
+    }
+
+    //
+    // Mapping files
+    //
+
+    /**
+     * Create a JDO metadata file ('package.jdo' style) declaring provided number of classes,
+     * distributed over packages of up to 100 classes.
+     *
+     * @param classCount number of classes
+     * @return file content (UTF-8)
+     */
+    public static byte[] createJdoMapping(final int classCount) {
+        final StringBuilder sb = new StringBuilder(classCount * 64);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<!DOCTYPE jdo PUBLIC \"-//Sun Microsystems, Inc.//DTD Java Data Objects Metadata 2.0//EN\" ")
+          .append("\"http://java.sun.com/dtd/jdo_2_0.dtd\">\n");
+        sb.append("<jdo>\n");
+        for (int i = 0; i < classCount; ++i) {
+            if (i % 100 == 0) {
+                if (i > 0) {
+                    sb.append("  </package>\n");
+                }
+                sb.append("  <package name=\"org.example.model.p").append(i / 100).append("\">\n");
+            }
+            sb.append("    <class name=\"Entity").append(i).append("\" identity-type=\"datastore\">\n");
+            sb.append("      <field name=\"name\" persistence-modifier=\"persistent\"/>\n");
+            sb.append("    </class>\n");
+        }
+        if (classCount > 0) {
+            sb.append("  </package>\n");
+        }
+        sb.append("</jdo>\n");
+        return sb.toString().getBytes(UTF8);
+    }
+
+    /**
+     * Create a JPA 'orm.xml' mapping file declaring provided number of entities.
+     *
+     * @param classCount number of entities
+     * @return file content (UTF-8)
+     */
+    public static byte[] createJpaMapping(final int classCount) {
+        final StringBuilder sb = new StringBuilder(classCount * 96);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<entity-mappings xmlns=\"http://java.sun.com/xml/ns/persistence/orm\" version=\"1.0\">\n");
+        for (int i = 0; i < classCount; ++i) {
+            sb.append("  <entity class=\"org.example.model.p").append(i / 100).append(".Entity").append(i).append("\">\n");
+            sb.append("    <attributes><basic name=\"name\"/></attributes>\n");
+            sb.append("  </entity>\n");
+        }
+        sb.append("</entity-mappings>\n");
+        return sb.toString().getBytes(UTF8);
+    }
+
+    //
+    // Output trees
+    //
+
+    /**
+     * Create a module output tree below provided directory: packages nested three levels deep, each
+     * containing provided number of (empty) class files and one 'package.jdo' file, plus one
+     * 'META-INF/orm.xml'.
+     *
+     * @param root              root of the output tree (created if missing)
+     * @param packageCount      number of packages
+     * @param classesPerPackage number of class files per package
+     * @throws IOException on file creation errors
+     */
+    public static void createOutputTree(final File root, final int packageCount, final int classesPerPackage) throws IOException {
+        for (int p = 0; p < packageCount; ++p) {
+            final File packageDir = new File(root, "org/example/m" + (p % 10) + "/p" + p);
+            mkdirs(packageDir);
+            for (int c = 0; c < classesPerPackage; ++c) {
+                write(new File(packageDir, "Entity" + c + ".class"), new byte[0]);
+            }
+            write(new File(packageDir, "package.jdo"), createJdoMapping(0));
+        }
+        final File metaInf = new File(root, "META-INF");
+        mkdirs(metaInf);
+        write(new File(metaInf, "orm.xml"), createJpaMapping(0));
+    }
+
+    /**
+     * Delete a directory tree.
+     *
+     * @param file file or directory to delete
+     */
+    public static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    //
+    // Classpaths
+    //
+
+    /**
+     * Create a list of jar paths as found in module classpaths (maven repository layout, various
+     * version schemes, mixed separators and duplicate separators).
+     *
+     * @param count number of jar paths
+     * @return jar paths
+     */
+    public static List<String> createJarPaths(final int count) {
+        final List<String> paths = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            final String name = String.format(JAR_NAMES[i % JAR_NAMES.length], i % 5, i % 13, i % 7);
+            final String separator = i % 3 == 0 ? "\\" : (i % 3 == 1 ? "/" : "//");
+            paths.add("C:" + separator + "Users" + separator + "dev" + separator + ".m2" + separator + "repository"
+                      + separator + "group" + (i % 50) + separator + name + ".jar");
+        }
+        return paths;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static void mkdirs(final File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+    }
+
+    private static void write(final File file, final byte[] content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.ide.idea.benchmark.SyntheticProject;
+import org.datanucleus.ide.idea.util.DNEFileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Version stripping of jar base names, as done for every classpath entry when matching enhancer
+ * dependencies against module libraries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoaderFactoryBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int jarCount;
+
+    private String[] baseNames;
+
+    @Setup
+    public void setUp() {
+        final List<String> jarPaths = SyntheticProject.createJarPaths(this.jarCount);
+        this.baseNames = new String[jarPaths.size()];
+        for (int i = 0; i < this.baseNames.length; ++i) {
+            this.baseNames[i] = DNEFileUtils.getFilenameBase(jarPaths.get(i));
+        }
+    }
+
+    @Benchmark
+    public void removeVersion(final Blackhole blackhole) {
+        for (final String baseName : this.baseNames) {
+            blackhole.consume(ClassLoaderFactory.removeVersion(baseName));
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.util;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.ide.idea.benchmark.SyntheticProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Path normalization and base name extraction for lists of jar paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DNEFileUtilsBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int jarCount;
+
+    private String[] jarPaths;
+
+    @Setup
+    public void setUp() {
+        final List<String> paths = SyntheticProject.createJarPaths(this.jarCount);
+        this.jarPaths = paths.toArray(new String[paths.size()]);
+    }
+
+    @Benchmark
+    public void normalizePath(final Blackhole blackhole) {
+        for (final String jarPath : this.jarPaths) {
+            blackhole.consume(DNEFileUtils.normalizePath(jarPath));
+        }
+    }
+
+    @Benchmark
+    public void getFilenameBase(final Blackhole blackhole) {
+        for (final String jarPath : this.jarPaths) {
+            blackhole.consume(DNEFileUtils.getFilenameBase(jarPath));
+        }
+    }
+
+}
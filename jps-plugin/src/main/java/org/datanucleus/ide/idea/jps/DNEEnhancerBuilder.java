@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.jps;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.util.Processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.ProjectPaths;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
+import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
+import org.jetbrains.jps.incremental.BuilderCategory;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.CompiledClass;
+import org.jetbrains.jps.incremental.FSOperations;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.incremental.ModuleLevelBuilder;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.model.module.JpsModuleSourceRoot;
+
+/**
+ * Enhancer running inside IDEA's external build process, as class post processor of each module
+ * chunk (chunks are built in parallel if parallel compilation is enabled).<br/>
+ * <br/>
+ * Enhances the classes compiled in the current build round of enabled modules, using the settings of
+ * the plugin's configuration dialog. Changed metadata files also trigger enhancement (of the classes
+ * they describe), failed chunks are marked dirty to be enhanced again by the next build. Only the DataNucleus enhancer is supported, enhancer support
+ * extensions depend on IDEA classes and are only available for in-process builds.
+ */
+public class DNEEnhancerBuilder extends ModuleLevelBuilder {
+
+    private static final String PRESENTABLE_NAME = "DataNucleus Enhancer";
+
+    /**
+     * Id of the DataNucleus enhancer support (org.datanucleus.ide.idea.integration.datanuculeus.EnhancerSupportDatanucleus)
+     */
+    private static final String DATANUCLEUS_ENHANCER_SUPPORT_ID = "DATANUCLEUS";
+
+    /**
+     * Separator of manual dependency entries (see org.datanucleus.ide.idea.DNEPersistentState.DependencyEntry)
+     */
+    private static final String DEPENDENCY_ENTRY_SEPARATOR = "::";
+
+    DNEEnhancerBuilder() {
+        super(BuilderCategory.CLASS_POST_PROCESSOR);
+    }
+
+    //
+    // ModuleLevelBuilder implementation
+    //
+
+    @Override
+    public ExitCode build(final CompileContext context,
+                          final ModuleChunk chunk,
+                          final DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder,
+                          final OutputConsumer outputConsumer) throws ProjectBuildException, IOException {
+
+        final DNEJpsSettings settings = DNEJpsSettings.getSettings(context.getProjectDescriptor().getProject());
+        if (settings == null || !settings.getState().isEnhancerEnabled()) {
+            return ExitCode.NOTHING_DONE;
+        }
+        final DNEJpsState state = settings.getState();
+
+        final List<ModuleBuildTarget> targets = getEnabledTargets(chunk, state);
+        if (targets.isEmpty()) {
+            return ExitCode.NOTHING_DONE;
+        }
+        if (!DATANUCLEUS_ENHANCER_SUPPORT_ID.equals(state.getEnhancerSupport())) {
+            context.processMessage(new CompilerMessage(PRESENTABLE_NAME, BuildMessage.Kind.WARNING,
+                    "Enhancer '" + state.getEnhancerSupport() + "' is not supported by the external build, "
+                            + chunk.getPresentableShortName() + " is not enhanced"));
+            return ExitCode.NOTHING_DONE;
+        }
+
+        final Set<String> metadataExtensions = toLowerCase(state.getMetaDataExtensions());
+
+        // only classes compiled in this round, metadata files are (re-)read in any case
+        final List<CompiledClass> compiledClasses = getCompiledClasses(outputConsumer, targets);
+        if (compiledClasses.isEmpty() && !isMetadataChanged(dirtyFilesHolder, targets, metadataExtensions)) {
+            return ExitCode.NOTHING_DONE;
+        }
+
+        final List<String> metadataFiles = findMetadataFiles(targets, metadataExtensions);
+        final Collection<File> classpath = getEnhancerClasspath(chunk, targets, state);
+
+        context.processMessage(new ProgressMessage("DataNucleus Enhancer: enhancing " + chunk.getPresentableShortName()));
+        try {
+            final int count = DataNucleusEnhancerRunner.enhance(classpath, state.getApi(), metadataFiles, compiledClasses);
+            context.processMessage(new CompilerMessage(PRESENTABLE_NAME, BuildMessage.Kind.INFO,
+                    "Enhanced " + count + " class(es) in " + chunk.getPresentableShortName()));
+            return ExitCode.OK;
+        } catch (ClassNotFoundException e) {
+            error(context, "No enhancer found in classpath of " + chunk.getPresentableShortName(), e);
+        } catch (NoSuchMethodException e) {
+            error(context, "Enhancer calling error in " + chunk.getPresentableShortName(), e);
+        } catch (InvocationTargetException e) {
+            error(context, "Error while enhancing " + chunk.getPresentableShortName(), e.getCause() == null ? e : e.getCause());
+        } catch (IllegalAccessException e) {
+            error(context, "Enhancer calling error in " + chunk.getPresentableShortName(), e);
+        } catch (InstantiationException e) {
+            error(context, "Could not create enhancer for " + chunk.getPresentableShortName(), e);
+        }
+        // compile (and enhance) the chunk again with the next build
+        FSOperations.markDirty(context, chunk, null);
+        return ExitCode.ABORT;
+    }
+
+    /**
+     * Post processor only, does not compile any source files.
+     *
+     * @return empty list
+     */
+    public List<String> getCompilableFileExtensions() {
+        return Collections.emptyList();
+    }
+
+    @NotNull
+    @Override
+    public String getPresentableName() {
+        return PRESENTABLE_NAME;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static List<ModuleBuildTarget> getEnabledTargets(final ModuleChunk chunk, final DNEJpsState state) {
+        final Collection<String> enabledModules = state.getEnabledModules();
+        final List<ModuleBuildTarget> targets = new ArrayList<ModuleBuildTarget>();
+        for (final ModuleBuildTarget target : chunk.getTargets()) {
+            if (enabledModules.contains(target.getModule().getName())
+                    && (!target.isTests() || state.isIncludeTestClasses())
+                    && target.getOutputDir() != null) {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    private static List<CompiledClass> getCompiledClasses(final OutputConsumer outputConsumer, final Collection<ModuleBuildTarget> targets) {
+        final List<CompiledClass> compiledClasses = new ArrayList<CompiledClass>();
+        for (final CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
+            final File outputFile = compiledClass.getOutputFile();
+            for (final ModuleBuildTarget target : targets) {
+                if (FileUtil.isAncestor(target.getOutputDir(), outputFile, true)) {
+                    compiledClasses.add(compiledClass);
+                    break;
+                }
+            }
+        }
+        return compiledClasses;
+    }
+
+    /**
+     * Check if a metadata file of provided targets changed since the last build (all files in source
+     * roots are tracked, not only the compiled ones).
+     */
+    private static boolean isMetadataChanged(final DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder,
+                                             final Collection<ModuleBuildTarget> targets,
+                                             final Set<String> lowerCaseExtensions) throws IOException {
+        if (lowerCaseExtensions.isEmpty()) {
+            return false;
+        }
+        final boolean[] changed = {false};
+        dirtyFilesHolder.processDirtyFiles(new FileProcessor<JavaSourceRootDescriptor, ModuleBuildTarget>() {
+            public boolean apply(final ModuleBuildTarget target, final File file, final JavaSourceRootDescriptor root) {
+                if (targets.contains(target) && lowerCaseExtensions.contains(FileUtilRt.getExtension(file.getName()).toLowerCase())) {
+                    changed[0] = true;
+                }
+                return !changed[0];
+            }
+        });
+        return changed[0];
+    }
+
+    /**
+     * Find metadata files in the source (and resource) roots of provided targets.
+     */
+    private static List<String> findMetadataFiles(final Collection<ModuleBuildTarget> targets, final Set<String> lowerCaseExtensions) {
+        final List<String> metadataFiles = new ArrayList<String>();
+        if (lowerCaseExtensions.isEmpty()) {
+            return metadataFiles;
+        }
+
+        for (final ModuleBuildTarget target : targets) {
+            for (final JpsModuleSourceRoot sourceRoot : target.getModule().getSourceRoots()) {
+                if (sourceRoot.getRootType().isForTests() == target.isTests()) {
+                    FileUtil.processFilesRecursively(sourceRoot.getFile(), new Processor<File>() {
+                        public boolean process(final File file) {
+                            if (file.isFile() && lowerCaseExtensions.contains(FileUtilRt.getExtension(file.getName()).toLowerCase())) {
+                                metadataFiles.add(file.getPath());
+                            }
+                            return true;
+                        }
+                    });
+                }
+            }
+        }
+        return metadataFiles;
+    }
+
+    /**
+     * Enhancer classpath: manually configured enhancer dependencies (if enabled), output directories
+     * of provided targets and the compilation classpath of the chunk.
+     */
+    private static Collection<File> getEnhancerClasspath(final ModuleChunk chunk,
+                                                         final Collection<ModuleBuildTarget> targets,
+                                                         final DNEJpsState state) {
+        final Collection<File> classpath = new LinkedHashSet<File>();
+        if (state.isDependenciesManual()) {
+            final String prefix = DATANUCLEUS_ENHANCER_SUPPORT_ID + DEPENDENCY_ENTRY_SEPARATOR + state.getApi() + DEPENDENCY_ENTRY_SEPARATOR;
+            for (final String dependency : state.getDependencies()) {
+                if (dependency.startsWith(prefix)) {
+                    classpath.add(new File(dependency.substring(prefix.length())));
+                }
+            }
+        }
+        for (final ModuleBuildTarget target : targets) {
+            classpath.add(target.getOutputDir());
+        }
+        classpath.addAll(ProjectPaths.getCompilationClasspathFiles(chunk, chunk.containsTests(), false, false));
+        return classpath;
+    }
+
+    private static Set<String> toLowerCase(final Collection<String> extensions) {
+        final Set<String> lowerCaseExtensions = new HashSet<String>();
+        for (final String extension : extensions) {
+            lowerCaseExtensions.add(extension.toLowerCase());
+        }
+        return lowerCaseExtensions;
+    }
+
+    private static void error(final CompileContext context, final String message, final Throwable t) {
+        context.processMessage(new CompilerMessage(PRESENTABLE_NAME, BuildMessage.Kind.ERROR, message + ": " + t));
+    }
+
+}
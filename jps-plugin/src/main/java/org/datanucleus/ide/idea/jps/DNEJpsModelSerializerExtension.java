@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.jps;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.intellij.util.xmlb.XmlSerializer;
+import org.jdom.Element;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.serialization.JpsModelSerializerExtension;
+import org.jetbrains.jps.model.serialization.JpsProjectExtensionSerializer;
+
+/**
+ * Loads the plugin settings (stored by the plugin's project component) into the JPS project model.
+ */
+public class DNEJpsModelSerializerExtension extends JpsModelSerializerExtension {
+
+    /**
+     * Has to match the state name of org.datanucleus.ide.idea.DNEProjectComponent
+     */
+    private static final String COMPONENT_NAME = "DataNucleusConfiguration";
+
+    /**
+     * Has to match the directory based storage of org.datanucleus.ide.idea.DNEProjectComponent
+     */
+    private static final String CONFIG_FILE_NAME = "datanucleus-plugin.xml";
+
+    @NotNull
+    @Override
+    public List<? extends JpsProjectExtensionSerializer> getProjectExtensionSerializers() {
+        return Collections.singletonList(new JpsProjectExtensionSerializer(CONFIG_FILE_NAME, COMPONENT_NAME) {
+            @Override
+            public void loadExtension(@NotNull final JpsProject project, @NotNull final Element componentTag) {
+                final DNEJpsState state = XmlSerializer.deserialize(componentTag, DNEJpsState.class);
+                project.getContainer().setChild(DNEJpsSettings.ROLE, new DNEJpsSettings(state == null ? new DNEJpsState() : state));
+            }
+
+            @Override
+            public void saveExtension(@NotNull final JpsProject project, @NotNull final Element componentTag) {
+                // settings are maintained by the plugin's project component only
+            }
+        });
+    }
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.jps;
+
+import com.intellij.util.xmlb.XmlSerializerUtil;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.model.JpsElementChildRole;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.ex.JpsElementBase;
+import org.jetbrains.jps.model.ex.JpsElementChildRoleBase;
+
+/**
+ * JPS model element holding the plugin settings of a project.
+ */
+public class DNEJpsSettings extends JpsElementBase<DNEJpsSettings> {
+
+    public static final JpsElementChildRole<DNEJpsSettings> ROLE = JpsElementChildRoleBase.create("DataNucleus Enhancer");
+
+    private DNEJpsState state;
+
+    public DNEJpsSettings(@NotNull final DNEJpsState state) {
+        this.state = state;
+    }
+
+    @NotNull
+    public DNEJpsState getState() {
+        return this.state;
+    }
+
+    @NotNull
+    @Override
+    public DNEJpsSettings createCopy() {
+        return new DNEJpsSettings(XmlSerializerUtil.createCopy(this.state));
+    }
+
+    @Override
+    public void applyChanges(@NotNull final DNEJpsSettings modified) {
+        this.state = modified.state;
+    }
+
+    /**
+     * @param project the project
+     * @return the project's plugin settings, null if the plugin was never configured in the project
+     */
+    @Nullable
+    public static DNEJpsSettings getSettings(@NotNull final JpsProject project) {
+        return project.getContainer().getChild(ROLE);
+    }
+
+}
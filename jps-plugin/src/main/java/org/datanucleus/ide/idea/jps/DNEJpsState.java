@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.jps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import com.intellij.util.xmlb.annotations.AbstractCollection;
+
+/**
+ * Plugin settings as read by the external build process.<br/>
+ * <br/>
+ * Mirrors the properties of org.datanucleus.ide.idea.DNEPersistentState, as the plugin's state
+ * classes depend on IDEA classes not available in the build process. Keep both in sync.
+ */
+public class DNEJpsState { // has to be public (for xml deserialization)
+
+    //
+    // Members
+    //
+
+    private boolean enhancerEnabled = true;
+
+    private Collection<String> metaDataExtensions = new ArrayList<String>(Arrays.asList("jdo", "orm"));
+
+    private boolean addToCompilerResourcePatterns = true;
+
+    private boolean includeTestClasses = true;
+
+    private Collection<String> enabledModules = new ArrayList<String>();
+
+    private String api = "JPA";
+
+    private String enhancerSupport = "DATANUCLEUS";
+
+    private boolean dependenciesManual = false;
+
+    private Collection<String> dependencies = new ArrayList<String>();
+
+    private int enhancerWorkerCount = 1;
+
+    private boolean enhanceInMemory = false;
+
+    private boolean enhancerDaemon = false;
+
+    private String enhancerDaemonVmOptions = "-Xmx512m";
+
+    private int enhancerDaemonIdleMinutes = 15;
+
+    private String enhancerVerbosity = "BUFFERED";
+
+    //
+    // Accessors
+    //
+
+    public boolean isEnhancerEnabled() {
+        return this.enhancerEnabled;
+    }
+
+    public void setEnhancerEnabled(final boolean enhancerEnabled) {
+        this.enhancerEnabled = enhancerEnabled;
+    }
+
+    @AbstractCollection(elementTypes = String.class)
+    public Collection<String> getMetaDataExtensions() {
+        return new LinkedHashSet<String>(this.metaDataExtensions);
+    }
+
+    @AbstractCollection(elementTypes = String.class)
+    public void setMetaDataExtensions(final Collection<String> metaDataExtensions) {
+        this.metaDataExtensions = new LinkedHashSet<String>(metaDataExtensions);
+    }
+
+    public boolean isAddToCompilerResourcePatterns() {
+        return this.addToCompilerResourcePatterns;
+    }
+
+    public void setAddToCompilerResourcePatterns(final boolean addToCompilerResourcePatterns) {
+        this.addToCompilerResourcePatterns = addToCompilerResourcePatterns;
+    }
+
+    public boolean isIncludeTestClasses() {
+        return this.includeTestClasses;
+    }
+
+    public void setIncludeTestClasses(final boolean includeTestClasses) {
+        this.includeTestClasses = includeTestClasses;
+    }
+
+    @AbstractCollection(elementTypes = String.class)
+    public Collection<String> getEnabledModules() {
+        return new LinkedHashSet<String>(this.enabledModules);
+    }
+
+    @AbstractCollection(elementTypes = String.class)
+    public void setEnabledModules(final Collection<String> enabledModules) {
+        this.enabledModules = new LinkedHashSet<String>(enabledModules);
+    }
+
+    public String getApi() {
+        return this.api;
+    }
+
+    public void setApi(final String api) {
+        this.api = api;
+    }
+
+    public String getEnhancerSupport() {
+        return this.enhancerSupport;
+    }
+
+    public void setEnhancerSupport(final String enhancerSupport) {
+        this.enhancerSupport = enhancerSupport;
+    }
+
+    public boolean isDependenciesManual() {
+        return this.dependenciesManual;
+    }
+
+    public void setDependenciesManual(final boolean dependenciesManual) {
+        this.dependenciesManual = dependenciesManual;
+    }
+
+    @AbstractCollection(elementTypes = String.class)
+    public Collection<String> getDependencies() {
+        return new LinkedHashSet<String>(this.dependencies);
+    }
+
+    @AbstractCollection(elementTypes = String.class)
+    public void setDependencies(final Collection<String> dependencies) {
+        this.dependencies = new LinkedHashSet<String>(dependencies == null ? new ArrayList<String>() : dependencies);
+    }
+
+    public int getEnhancerWorkerCount() {
+        return this.enhancerWorkerCount;
+    }
+
+    public void setEnhancerWorkerCount(final int enhancerWorkerCount) {
+        this.enhancerWorkerCount = enhancerWorkerCount;
+    }
+
+    public boolean isEnhanceInMemory() {
+        return this.enhanceInMemory;
+    }
+
+    public void setEnhanceInMemory(final boolean enhanceInMemory) {
+        this.enhanceInMemory = enhanceInMemory;
+    }
+
+    public boolean isEnhancerDaemon() {
+        return this.enhancerDaemon;
+    }
+
+    public void setEnhancerDaemon(final boolean enhancerDaemon) {
+        this.enhancerDaemon = enhancerDaemon;
+    }
+
+    public String getEnhancerDaemonVmOptions() {
+        return this.enhancerDaemonVmOptions;
+    }
+
+    public void setEnhancerDaemonVmOptions(final String enhancerDaemonVmOptions) {
+        this.enhancerDaemonVmOptions = enhancerDaemonVmOptions;
+    }
+
+    public int getEnhancerDaemonIdleMinutes() {
+        return this.enhancerDaemonIdleMinutes;
+    }
+
+    public void setEnhancerDaemonIdleMinutes(final int enhancerDaemonIdleMinutes) {
+        this.enhancerDaemonIdleMinutes = enhancerDaemonIdleMinutes;
+    }
+
+    public String getEnhancerVerbosity() {
+        return this.enhancerVerbosity;
+    }
+
+    public void setEnhancerVerbosity(final String enhancerVerbosity) {
+        this.enhancerVerbosity = enhancerVerbosity;
+    }
+
+}
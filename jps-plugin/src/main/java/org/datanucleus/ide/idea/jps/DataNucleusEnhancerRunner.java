@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.jps;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import org.datanucleus.ide.idea.integration.datanuculeus.DataNucleusEnhancerInvoker;
+import org.datanucleus.ide.idea.util.ClassFileInfo;
+import org.jetbrains.jps.incremental.BinaryContent;
+import org.jetbrains.jps.incremental.CompiledClass;
+
+/**
+ * Runs the DataNucleus enhancer of a module classpath (loaded in its own ClassLoader) on compiled
+ * classes and metadata files.<br/>
+ * <br/>
+ * Compiled classes are enhanced from and written back to their in-memory content (like other class
+ * post processors do), so the enhanced bytes are the ones saved and tracked by the build.
+ */
+final class DataNucleusEnhancerRunner {
+
+    private DataNucleusEnhancerRunner() {
+        // prohibit instantiation
+    }
+
+    /**
+     * Enhance provided compiled classes, replacing their content with the enhanced class file.<br/>
+     * <br/>
+     * Enhancers without in-memory support (before DataNucleus 3.1) enhance the output files instead,
+     * which are written from and read back into the compiled class content.
+     *
+     * @param classpath       enhancer and module classpath (module output directories first)
+     * @param api             persistence api name ('JDO' or 'JPA')
+     * @param metadataFiles   paths of metadata files (classes only referenced there are enhanced in place)
+     * @param compiledClasses compiled classes of the current build round
+     * @return number of enhanced compiled classes
+     * @throws ClassNotFoundException    if the enhancer is not in provided classpath
+     * @throws NoSuchMethodException     if the enhancer version is not supported
+     * @throws InvocationTargetException if the enhancer failed
+     */
+    static int enhance(final Collection<File> classpath,
+                       final String api,
+                       final Collection<String> metadataFiles,
+                       final Collection<CompiledClass> compiledClasses)
+            throws ClassNotFoundException,
+                   NoSuchMethodException,
+                   InvocationTargetException,
+                   IllegalAccessException,
+                   InstantiationException,
+                   IOException {
+
+        final Map<String, CompiledClass> compiledClassesByName = new LinkedHashMap<String, CompiledClass>();
+        final Map<String, byte[]> classContents = new LinkedHashMap<String, byte[]>();
+        for (final CompiledClass compiledClass : compiledClasses) {
+            final byte[] content = compiledClass.getContent().toByteArray();
+            final String className = ClassFileInfo.read(content).getClassName().replace('/', '.');
+            compiledClassesByName.put(className, compiledClass);
+            classContents.put(className, content);
+        }
+
+        final CompiledClassLoader classLoader = new CompiledClassLoader(toUrls(classpath), classContents);
+        try {
+            final Map<String, byte[]> enhancedContents;
+            if (DataNucleusEnhancerInvoker.isInMemoryEnhancementSupported(classLoader)) {
+                enhancedContents = DataNucleusEnhancerInvoker.enhance(classLoader, api, metadataFiles, classContents);
+            } else {
+                enhancedContents = enhanceOutputFiles(classLoader, api, metadataFiles, compiledClassesByName, classContents);
+            }
+
+            for (final Map.Entry<String, byte[]> enhancedContent : enhancedContents.entrySet()) {
+                compiledClassesByName.get(enhancedContent.getKey()).setContent(new BinaryContent(enhancedContent.getValue()));
+            }
+            return enhancedContents.size();
+        } finally {
+            classLoader.close();
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static Map<String, byte[]> enhanceOutputFiles(final ClassLoader classLoader,
+                                                          final String api,
+                                                          final Collection<String> metadataFiles,
+                                                          final Map<String, CompiledClass> compiledClassesByName,
+                                                          final Map<String, byte[]> classContents)
+            throws ClassNotFoundException,
+                   NoSuchMethodException,
+                   InvocationTargetException,
+                   IllegalAccessException,
+                   InstantiationException,
+                   IOException {
+
+        final List<String> classFiles = new ArrayList<String>(compiledClassesByName.size());
+        for (final Map.Entry<String, CompiledClass> entry : compiledClassesByName.entrySet()) {
+            final File outputFile = entry.getValue().getOutputFile();
+            FileUtil.writeToFile(outputFile, classContents.get(entry.getKey()));
+            classFiles.add(outputFile.getPath());
+        }
+
+        DataNucleusEnhancerInvoker.enhance(classLoader, api, metadataFiles, classFiles);
+
+        final Map<String, byte[]> enhancedContents = new LinkedHashMap<String, byte[]>();
+        for (final Map.Entry<String, CompiledClass> entry : compiledClassesByName.entrySet()) {
+            final byte[] content = FileUtil.loadFileBytes(entry.getValue().getOutputFile());
+            if (!Arrays.equals(content, classContents.get(entry.getKey()))) {
+                enhancedContents.put(entry.getKey(), content);
+            }
+        }
+        return enhancedContents;
+    }
+
+    private static URL[] toUrls(final Collection<File> classpath) throws MalformedURLException {
+        final URL[] urls = new URL[classpath.size()];
+        int i = 0;
+        for (final File file : classpath) {
+            urls[i++] = file.toURI().toURL();
+        }
+        return urls;
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Defines the compiled classes of the current build round from their in-memory content, so the
+     * enhancer does not resolve them against possibly outdated output files.
+     */
+    private static final class CompiledClassLoader extends URLClassLoader {
+
+        private final Map<String, byte[]> classContents;
+
+        private CompiledClassLoader(final URL[] urls, final Map<String, byte[]> classContents) {
+            // parent of the application ClassLoader: JDK classes only (including java.sql on Java 9+)
+            super(urls, ClassLoader.getSystemClassLoader().getParent());
+            this.classContents = classContents;
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            final byte[] content = this.classContents.get(name);
+            if (content != null) {
+                return defineClass(name, content, 0, content.length);
+            }
+            return super.findClass(name);
+        }
+
+    }
+
+}
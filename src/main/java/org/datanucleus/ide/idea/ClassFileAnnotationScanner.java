@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+
+import org.datanucleus.ide.idea.util.ClassFileInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Finds persistence annotated classes by reading the runtime visible annotations of compiled class files
+ * in module output directories, without PSI or indexes.<br/>
+ * <br/>
+ * Used for discovery while IDEA is indexing (dumb mode). Class files are read concurrently, annotation
+ * types annotated with a persistence annotation (meta-annotations) are followed if they are part of the
+ * scanned directories.
+ */
+final class ClassFileAnnotationScanner {
+
+    private static final Logger LOGGER = Logger.getInstance(ClassFileAnnotationScanner.class.getName());
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+
+    private static final int FILES_PER_TASK = 64;
+
+    private static final ThreadFactory SCANNER_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "DataNucleus Class Scanner " + this.threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private ClassFileAnnotationScanner() {
+        // prohibit instantiation
+    }
+
+    /**
+     * Scan class files in provided output directories for classes annotated with one of provided annotations.
+     *
+     * @param outputDirectories directories to scan
+     * @param annotationNames   fully qualified annotation class names
+     * @param progressIndicator checked for cancellation (null if not cancellable)
+     * @return fully qualified names of the annotated classes (nested classes separated by '$'), empty if cancelled
+     */
+    @NotNull
+    static Set<String> scan(@NotNull final Collection<File> outputDirectories,
+                            @NotNull final Collection<String> annotationNames,
+                            @Nullable final ProgressIndicator progressIndicator) throws InterruptedException {
+        final List<File> classFiles = new ArrayList<File>();
+        for (final File outputDirectory : outputDirectories) {
+            collectClassFiles(outputDirectory, classFiles);
+        }
+        if (classFiles.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final int taskCount = (classFiles.size() + FILES_PER_TASK - 1) / FILES_PER_TASK;
+        final int workerCount = Math.max(1, Math.min(taskCount, Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount, SCANNER_THREAD_FACTORY);
+        final List<ClassFileInfo> annotatedClasses = new ArrayList<ClassFileInfo>();
+        try {
+            final List<Future<List<ClassFileInfo>>> futures = new ArrayList<Future<List<ClassFileInfo>>>(taskCount);
+            for (int i = 0; i < classFiles.size(); i += FILES_PER_TASK) {
+                final List<File> chunk = classFiles.subList(i, Math.min(i + FILES_PER_TASK, classFiles.size()));
+                futures.add(executor.submit(new Callable<List<ClassFileInfo>>() {
+                    public List<ClassFileInfo> call() {
+                        return readAnnotatedClasses(chunk, progressIndicator);
+                    }
+                }));
+            }
+            for (final Future<List<ClassFileInfo>> future : futures) {
+                try {
+                    annotatedClasses.addAll(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("class file scan failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (progressIndicator != null && progressIndicator.isCanceled()) {
+            return Collections.emptySet();
+        }
+        return resolveAnnotatedClassNames(annotatedClasses, annotationNames);
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static void collectClassFiles(final File outputDirectory, final List<File> classFiles) {
+        final Deque<File> stack = new ArrayDeque<File>();
+        stack.push(outputDirectory);
+        while (!stack.isEmpty()) {
+            final File[] children = stack.pop().listFiles();
+            if (children != null) {
+                for (final File child : children) {
+                    if (child.isDirectory()) {
+                        stack.push(child);
+                    } else if (child.getName().endsWith(CLASS_FILE_SUFFIX)) {
+                        classFiles.add(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read provided class files, retaining only classes having runtime visible annotations.
+     */
+    private static List<ClassFileInfo> readAnnotatedClasses(final List<File> classFiles, @Nullable final ProgressIndicator progressIndicator) {
+        final List<ClassFileInfo> annotatedClasses = new ArrayList<ClassFileInfo>();
+        for (final File classFile : classFiles) {
+            if (progressIndicator != null && progressIndicator.isCanceled()) {
+                break;
+            }
+            try {
+                final ClassFileInfo classFileInfo = ClassFileInfo.read(FileUtil.loadFileBytes(classFile));
+                if (!classFileInfo.getAnnotationNames().isEmpty() && classFileInfo.getClassName() != null) {
+                    annotatedClasses.add(classFileInfo);
+                }
+            } catch (Exception e) {
+                // deleted while scanning or not a valid class file
+                LOGGER.debug("Could not read class file: " + classFile, e);
+            }
+        }
+        return annotatedClasses;
+    }
+
+    /**
+     * Resolve the names of classes annotated with one of provided annotations, directly or via meta-annotations.
+     */
+    private static Set<String> resolveAnnotatedClassNames(final List<ClassFileInfo> annotatedClasses, final Collection<String> annotationNames) {
+        final Set<String> persistenceAnnotations = new HashSet<String>(annotationNames.size());
+        for (final String annotationName : annotationNames) {
+            persistenceAnnotations.add(IdeaProjectUtils.packageToPath(annotationName));
+        }
+
+        // follow meta-annotations until no new persistence annotation is found
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final ClassFileInfo classFileInfo : annotatedClasses) {
+                if (classFileInfo.isAnnotationType()
+                        && !persistenceAnnotations.contains(classFileInfo.getClassName())
+                        && isAnnotated(classFileInfo, persistenceAnnotations)) {
+                    persistenceAnnotations.add(classFileInfo.getClassName());
+                    changed = true;
+                }
+            }
+        }
+
+        final Set<String> classNames = new LinkedHashSet<String>();
+        for (final ClassFileInfo classFileInfo : annotatedClasses) {
+            if (!classFileInfo.isAnnotationType() && isAnnotated(classFileInfo, persistenceAnnotations)) {
+                classNames.add(classFileInfo.getClassName().replace('/', '.'));
+            }
+        }
+        return classNames;
+    }
+
+    private static boolean isAnnotated(final ClassFileInfo classFileInfo, final Set<String> annotations) {
+        for (final String annotationName : classFileInfo.getAnnotationNames()) {
+            if (annotations.contains(annotationName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.intellij.openapi.compiler.CompilationStatusListener;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompileTask;
+
+import org.datanucleus.ide.idea.util.DNEFileUtils;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Records the files generated by the compilers of the current compile session, to restrict the
+ * enhancer to classes that were actually compiled (registered as before-compile task to forget the
+ * files of the previous session).<br/>
+ * <br/>
+ * Additionally keeps the classes that could not be enhanced in the previous session, as those have
+ * to be enhanced again even if not recompiled.
+ */
+final class CompiledFilesTracker implements CompileTask, CompilationStatusListener {
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+
+    private final Set<String> compiledClassNames = new HashSet<String>();
+
+    private final Set<String> generatedFilePaths = new HashSet<String>();
+
+    private final Set<String> pendingClassNames = new HashSet<String>();
+
+    //
+    // CompileTask interface implementation
+    //
+
+    public synchronized boolean execute(final CompileContext context) {
+        this.compiledClassNames.clear();
+        this.generatedFilePaths.clear();
+        return true;
+    }
+
+    //
+    // CompilationStatusListener interface implementation
+    //
+
+    public void compilationFinished(final boolean aborted, final int errors, final int warnings, final CompileContext compileContext) {
+        // nothing to do, generated files are kept until the next compilation starts
+    }
+
+    public synchronized void fileGenerated(final String outputRoot, final String relativePath) {
+        final String path = DNEFileUtils.normalizePath(relativePath);
+        if (path.endsWith(CLASS_FILE_SUFFIX)) {
+            final String className = path.substring(0, path.length() - CLASS_FILE_SUFFIX.length())
+                    .replace(DNEFileUtils.SEPARATOR_GENERIC_CHAR, '.');
+            this.compiledClassNames.add(className);
+        } else {
+            this.generatedFilePaths.add(DNEFileUtils.normalizePath(outputRoot + DNEFileUtils.SEPARATOR_GENERIC + relativePath));
+        }
+    }
+
+    //
+    // Accessors
+    //
+
+    /**
+     * @return filter for the files generated in the current compile session, null if no files were recorded
+     */
+    @Nullable
+    synchronized EnhancerDiscoveryFilter createFilter() {
+        if (this.compiledClassNames.isEmpty() && this.generatedFilePaths.isEmpty()) {
+            return null;
+        }
+        return new EnhancerDiscoveryFilter(this.compiledClassNames, this.generatedFilePaths);
+    }
+
+    synchronized Set<String> getPendingClassNames() {
+        return new HashSet<String>(this.pendingClassNames);
+    }
+
+    synchronized void setPendingClassNames(final Collection<String> pendingClassNames) {
+        this.pendingClassNames.clear();
+        this.pendingClassNames.addAll(pendingClassNames);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.intellij.openapi.compiler.ValidityState;
+
+/**
+ * Validity state of an {@link EnhancerItem} based on file content instead of timestamps.<br/>
+ * <br/>
+ * Records a hash of the item's file content, whether the (class) file is already enhanced and
+ * the hash of the metadata file the item was configured in (0 for annotation based items).<br/>
+ * Touching a file without changing its content (e.g. byte-identical compiler output) does not
+ * invalidate the item, changing the metadata file invalidates all classes configured in it.
+ */
+final class ContentHashValidityState implements ValidityState {
+
+    private final boolean known;
+
+    private final long contentHash;
+
+    private final boolean enhanced;
+
+    private final long metadataHash;
+
+    ContentHashValidityState(final long contentHash, final boolean enhanced, final long metadataHash) {
+        this(true, contentHash, enhanced, metadataHash);
+    }
+
+    private ContentHashValidityState(final boolean known, final long contentHash, final boolean enhanced, final long metadataHash) {
+        this.known = known;
+        this.contentHash = contentHash;
+        this.enhanced = enhanced;
+        this.metadataHash = metadataHash;
+    }
+
+    /**
+     * Create a validity state for a file that could not be read, it is never equal to any other state.
+     *
+     * @return unknown validity state
+     */
+    static ContentHashValidityState unknown() {
+        return new ContentHashValidityState(false, 0L, false, 0L);
+    }
+
+    static ContentHashValidityState load(final DataInput in) throws IOException {
+        final boolean known = in.readBoolean();
+        final long contentHash = in.readLong();
+        final boolean enhanced = in.readBoolean();
+        final long metadataHash = in.readLong();
+        return new ContentHashValidityState(known, contentHash, enhanced, metadataHash);
+    }
+
+    public boolean equalsTo(final ValidityState otherState) {
+        if (!(otherState instanceof ContentHashValidityState)) {
+            return false;
+        }
+        final ContentHashValidityState other = (ContentHashValidityState) otherState;
+        return this.known && other.known
+                && this.contentHash == other.contentHash
+                && this.enhanced == other.enhanced
+                && this.metadataHash == other.metadataHash;
+    }
+
+    public void save(final DataOutput out) throws IOException {
+        out.writeBoolean(this.known);
+        out.writeLong(this.contentHash);
+        out.writeBoolean(this.enhanced);
+        out.writeLong(this.metadataHash);
+    }
+
+    @Override
+    public String toString() {
+        return "ContentHashValidityState{" +
+                "known=" + this.known +
+                ", contentHash=" + this.contentHash +
+                ", enhanced=" + this.enhanced +
+                ", metadataHash=" + this.metadataHash +
+                '}';
+    }
+
+}
@@ -27,13 +27,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
@@ -43,18 +56,35 @@ import com.intellij.openapi.compiler.CompileScope;
 import com.intellij.openapi.compiler.CompilerManager;
 import com.intellij.openapi.compiler.CompilerPaths;
 import com.intellij.openapi.compiler.FileProcessingCompiler;
-import com.intellij.openapi.compiler.TimestampValidityState;
 import com.intellij.openapi.compiler.ValidityState;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassOwner;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
 
+import org.datanucleus.ide.idea.integration.ClassLoaderFactory;
+import org.datanucleus.ide.idea.integration.EnhancerClasspath;
 import org.datanucleus.ide.idea.integration.EnhancerContext;
+import org.datanucleus.ide.idea.integration.EnhancerOutputCapture;
 import org.datanucleus.ide.idea.integration.EnhancerProxy;
+import org.datanucleus.ide.idea.integration.EnhancerProxyDaemon;
 import org.datanucleus.ide.idea.integration.EnhancerSupport;
+import org.datanucleus.ide.idea.integration.EnhancerVerbosity;
+import org.datanucleus.ide.idea.integration.InMemoryEnhancerProxy;
+import org.datanucleus.ide.idea.integration.datanuculeus.EnhancerProxyDataNucleus;
+import org.datanucleus.ide.idea.util.ClassFileInfo;
+import org.datanucleus.ide.idea.util.DNEFileUtils;
 import org.datanucleus.ide.idea.util.ExceptionUtils;
 import org.datanucleus.ide.idea.util.VirtualFileUtils;
 import org.jetbrains.annotations.NotNull;
@@ -77,12 +107,25 @@ class DNEComputable implements ClassPostProcessingCompiler {
 
     private static final Logger IDEA_LOGGER  = Logger.getInstance(DNEComputable.class);
 
-    private static final DNEComputableLoggerWrapper LOGGER = new DNEComputableLoggerWrapper(IDEA_LOGGER);
-
     private static final FileProcessingCompiler.ProcessingItem[] EMPTY_PROCESSING_ITEMS = new FileProcessingCompiler.ProcessingItem[0];
 
     private static final char SEP = '/';
 
+    /**
+     * Max. number of (last) lines of buffered enhancer output kept per module
+     */
+    private static final int ENHANCER_OUTPUT_MAX_LINES = 1000;
+
+    private static final ThreadFactory ENHANCER_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "DataNucleus Enhancer " + this.threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
     //
     // Members
     //
@@ -97,13 +140,35 @@ class DNEComputable implements ClassPostProcessingCompiler {
      */
     private final DNEState state;
 
+    /**
+     * Cached metadata files and annotated classes
+     */
+    private final MetadataIndex metadataIndex;
+
+    /**
+     * Enhancer proxy constructor generations that worked, per enhancer support
+     */
+    private final EnhancerProxyGenerations enhancerProxyGenerations;
+
+    /**
+     * Files generated in the current compile session
+     */
+    private final CompiledFilesTracker compiledFilesTracker;
+
     //
     // Constructor
     //
 
-    DNEComputable(final Project project, final DNEState state) {
+    DNEComputable(final Project project,
+                  final DNEState state,
+                  final MetadataIndex metadataIndex,
+                  final EnhancerProxyGenerations enhancerProxyGenerations,
+                  final CompiledFilesTracker compiledFilesTracker) {
         this.project = project;
         this.state = state;
+        this.metadataIndex = metadataIndex;
+        this.enhancerProxyGenerations = enhancerProxyGenerations;
+        this.compiledFilesTracker = compiledFilesTracker;
     }
 
     //
@@ -112,17 +177,57 @@ class DNEComputable implements ClassPostProcessingCompiler {
 
     @NotNull
     public FileProcessingCompiler.ProcessingItem[] getProcessingItems(final CompileContext cCtx) {
-        LOGGER.update(this.state, cCtx, null);
+        final DNEComputableLoggerWrapper logger = new DNEComputableLoggerWrapper(IDEA_LOGGER, this.state, cCtx, null);
+        try {
+            return this.getProcessingItems(cCtx, logger);
+        } finally {
+            logger.flush();
+        }
+    }
 
+    public FileProcessingCompiler.ProcessingItem[] process(final CompileContext cCtx, final FileProcessingCompiler.ProcessingItem[] processingItems) {
+        final DNEComputableLoggerWrapper logger = new DNEComputableLoggerWrapper(IDEA_LOGGER, this.state, cCtx, null);
+        try {
+            return this.process(cCtx, processingItems, logger);
+        } finally {
+            logger.flush();
+        }
+    }
+
+    @NotNull
+    public String getDescription() {
+        return "DataNucleus Enhancer";
+    }
+
+    public boolean validateConfiguration(final CompileScope compileScope) {
+        return true;
+    }
+
+    public ValidityState createValidityState(final DataInput dataInput) throws IOException {
+        return ContentHashValidityState.load(dataInput);
+    }
+
+    //
+    // Helper methods
+    //
+
+    @NotNull
+    private FileProcessingCompiler.ProcessingItem[] getProcessingItems(final CompileContext cCtx,
+                                                                        final DNEComputableLoggerWrapper logger) {
         final Set<String> enabledModules = this.state.getEnabledModules();
         if (this.state.isEnhancerEnabled() && enabledModules != null && !enabledModules.isEmpty()) {
-            // get metadata files of affected modules
-            final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles =
-                    this.getMetadataFiles(cCtx.getCompileScope());
-
-            // get annotated class files of affected modules
-            final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses =
-                    this.getAnnotatedClassFiles(cCtx.getCompileScope());
+            // get metadata files and annotated class files of affected modules (restricted to compiled classes if known)
+            final EnhancerDiscoveryFilter filter = this.getDiscoveryFilter(cCtx);
+            if (filter != null && logger.isDebugEnabled()) {
+                logger.debug("Enhancer: restricting discovery to compiled classes: " + filter.getClassNames());
+            }
+            final EnhancerDiscoveryResult discovered = this.discover(cCtx.getCompileScope(), filter, cCtx.getProgressIndicator());
+            final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles = discovered.getMetadataFiles();
+            final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses = discovered.getAnnotatedClassFiles();
+            for (final Map.Entry<VirtualFile, Exception> metadataError : discovered.getMetadataErrors().entrySet()) {
+                logger.error("Enhancer: skipping metadata file " + metadataError.getKey().getPresentableUrl()
+                             + ", parsing metadata error: " + metadataError.getValue().getMessage());
+            }
 
             final Collection<FileProcessingCompiler.ProcessingItem> processingItems =
                     new LinkedHashSet<FileProcessingCompiler.ProcessingItem>();
@@ -144,20 +249,25 @@ class DNEComputable implements ClassPostProcessingCompiler {
             }
 
             if (processingItems.isEmpty()) {
-                LOGGER.warn("No metadata- or annotated class-files found");
+                logger.warn("No metadata- or annotated class-files found");
             }
 
-            LOGGER.debug("Enhancer: Processing items to check for changes: " + toString(processingItems));
+            if (logger.isDebugEnabled()) {
+                logger.debug("Enhancer: Processing items to check for changes: " + toString(processingItems));
+            }
             return processingItems.toArray(new FileProcessingCompiler.ProcessingItem[processingItems.size()]);
         } else {
             return EMPTY_PROCESSING_ITEMS;
         }
     }
 
-    public FileProcessingCompiler.ProcessingItem[] process(final CompileContext cCtx, final FileProcessingCompiler.ProcessingItem[] processingItems) {
+    private FileProcessingCompiler.ProcessingItem[] process(final CompileContext cCtx,
+                                                           final FileProcessingCompiler.ProcessingItem[] processingItems,
+                                                           final DNEComputableLoggerWrapper logger) {
         final long startTimestamp = System.currentTimeMillis();
-        LOGGER.update(this.state, cCtx, null);
-        LOGGER.debug("Processing items selected for enhancement: " + toString(processingItems));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processing items selected for enhancement: " + toString(processingItems));
+        }
 
         FileProcessingCompiler.ProcessingItem[] ret = EMPTY_PROCESSING_ITEMS;
 
@@ -170,6 +280,9 @@ class DNEComputable implements ClassPostProcessingCompiler {
             // just to be sure: backup of classloader
             final ClassLoader previousCL = Thread.currentThread().getContextClassLoader();
 
+            // enhanced state per class file path as reported by the enhancer (filled concurrently when enhancing in parallel)
+            final Map<String, Boolean> classResults = new ConcurrentHashMap<String, Boolean>();
+
             // for displaying progress messages
             final ProgressIndicator progressIndicator = cCtx.getProgressIndicator();
 
@@ -215,14 +328,18 @@ class DNEComputable implements ClassPostProcessingCompiler {
 
 
                 // no metadata or annotated classes -> no enhancement
-                final int count;
                 if (!affectedModules.isEmpty()) {
 
                     // TODO: manually excluded dependencies
                     final Collection<String> excludedDependencies = null;
 
                     // start enhancer per module
-                    count = enhanceInModules(cCtx, affectedModules, moduleBasedMetadataFiles, moduleBasedAnnotatedClasses, excludedDependencies);
+                    final int count = enhanceInModules(cCtx,
+                                                       affectedModules,
+                                                       moduleBasedMetadataFiles,
+                                                       moduleBasedAnnotatedClasses,
+                                                       excludedDependencies,
+                                                       classResults);
                     // success message
                     final long endTimestamp = System.currentTimeMillis();
                     final long duration = endTimestamp - startTimestamp;
@@ -232,152 +349,271 @@ class DNEComputable implements ClassPostProcessingCompiler {
                                     TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(duration))
                     );
                     final String msg = "Successfully enhanced " + count + " class(es) in " + duration + " ms: " + minutes;
-                    LOGGER.info(msg);
+                    logger.info(msg);
                 } else {
                     final String msg = "no JDO/JPA metadata or annotated class files found";
-                    LOGGER.warn(msg);
-                    count = 0;
+                    logger.warn(msg);
                 }
 
-                // only return all items if completed successfully (clicking the 'build' button would not have any effect otherwise)
-                ret = processingItems.length == count ? processingItems : EMPTY_PROCESSING_ITEMS;
-
             } catch (Throwable t) {
-                LOGGER.error("Error while enhancing.", t);
+                logger.error("Error while enhancing.", t);
             } finally {
                 Thread.currentThread().setContextClassLoader(previousCL);
                 progressIndicator.popState();
-                LOGGER.update(this.state, null, null);
             }
+
+            // only return successfully processed items, the others are processed again on next make
+            ret = getSucceededItems(processingItems, classResults);
+            if (ret.length < processingItems.length) {
+                logger.debug("Processing items not enhanced: " + (processingItems.length - ret.length));
+            }
+            // remember classes of failed items, as those are not necessarily recompiled before the next make
+            this.compiledFilesTracker.setPendingClassNames(getFailedClassNames(processingItems, ret));
         }
 
         return ret;
     }
 
-    @NotNull
-    public String getDescription() {
-        return "DataNucleus Enhancer";
+    private int enhanceInModules(final CompileContext cCtx,
+                                 final List<Module> affectedModules,
+                                 final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles,
+                                 final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses,
+                                 final Collection<String> excludedDependencies,
+                                 final Map<String, Boolean> classResults) throws InterruptedException {
+
+        final int workerCount = Math.min(this.state.getEnhancerWorkerCount(), affectedModules.size());
+
+        final int count;
+        if (workerCount > 1) {
+            count = enhanceInModulesParallel(cCtx,
+                                             affectedModules,
+                                             moduleBasedMetadataFiles,
+                                             moduleBasedAnnotatedClasses,
+                                             excludedDependencies,
+                                             classResults,
+                                             workerCount);
+        } else {
+            int iteration = 0;
+            int sequentialCount = 0;
+            for (final Module module : affectedModules) {
+                // errors are isolated per module, as when enhancing in parallel
+                sequentialCount += enhanceInModuleIsolated(cCtx,
+                                                           module,
+                                                           moduleBasedMetadataFiles,
+                                                           moduleBasedAnnotatedClasses,
+                                                           excludedDependencies,
+                                                           classResults);
+                ++iteration;
+                final double progress = (1.0 / affectedModules.size()) * iteration;
+                cCtx.getProgressIndicator().setFraction(progress);
+            }
+            count = sequentialCount;
+        }
+        cCtx.getProgressIndicator().setFraction(1.0);
+        return count;
     }
 
-    public boolean validateConfiguration(final CompileScope compileScope) {
-        return true;
-    }
+    /**
+     * Enhance modules concurrently, a module is not enhanced before the affected modules it depends on are done
+     * (except for cyclic dependencies).<br/>
+     * <br/>
+     * Errors are isolated per module, a failing module does not prevent the others from being processed.
+     */
+    private int enhanceInModulesParallel(final CompileContext cCtx,
+                                         final List<Module> affectedModules,
+                                         final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles,
+                                         final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses,
+                                         final Collection<String> excludedDependencies,
+                                         final Map<String, Boolean> classResults,
+                                         final int workerCount) throws InterruptedException {
 
-    public ValidityState createValidityState(final DataInput dataInput) throws IOException {
-        return TimestampValidityState.load(dataInput);
+        final Map<Module, Set<Module>> pendingDependencies = getAffectedModuleDependencies(affectedModules);
+        final Set<Module> waiting = new LinkedHashSet<Module>(affectedModules);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount, ENHANCER_THREAD_FACTORY);
+        final CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+        final Map<Future<Integer>, Module> running = new HashMap<Future<Integer>, Module>();
+
+        int count = 0;
+        int iteration = 0;
+        try {
+            while (!waiting.isEmpty() || !running.isEmpty()) {
+
+                // start all modules whose dependencies are done
+                for (final Iterator<Module> it = waiting.iterator(); it.hasNext();) {
+                    final Module module = it.next();
+                    if (pendingDependencies.get(module).isEmpty()) {
+                        it.remove();
+                        running.put(completionService.submit(new Callable<Integer>() {
+                            public Integer call() {
+                                return enhanceInModuleIsolated(cCtx,
+                                                               module,
+                                                               moduleBasedMetadataFiles,
+                                                               moduleBasedAnnotatedClasses,
+                                                               excludedDependencies,
+                                                               classResults);
+                            }
+                        }), module);
+                    }
+                }
+
+                // cyclic dependencies, break cycle by starting next waiting module
+                if (running.isEmpty()) {
+                    final Module module = waiting.iterator().next();
+                    pendingDependencies.get(module).clear();
+                    continue;
+                }
+
+                final Future<Integer> done = completionService.take();
+                final Module doneModule = running.remove(done);
+                try {
+                    count += done.get();
+                } catch (ExecutionException e) {
+                    // already handled by task
+                }
+                for (final Set<Module> dependencies : pendingDependencies.values()) {
+                    dependencies.remove(doneModule);
+                }
+
+                ++iteration;
+                final double progress = (1.0 / affectedModules.size()) * iteration;
+                cCtx.getProgressIndicator().setFraction(progress);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
     }
 
-    //
-    // Helper methods
-    //
+    private int enhanceInModuleIsolated(final CompileContext cCtx,
+                                        final Module module,
+                                        final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles,
+                                        final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses,
+                                        final Collection<String> excludedDependencies,
+                                        final Map<String, Boolean> classResults) {
 
-    private int enhanceInModules(final CompileContext cCtx,
-                                 final Collection<Module> affectedModules,
-                                 final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles,
-                                 final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses,
-                                 final Collection<String> excludedDependencies)
+        final DNEComputableLoggerWrapper moduleLogger = new DNEComputableLoggerWrapper(IDEA_LOGGER, this.state, cCtx, module);
+        try {
+            return enhanceInModule(cCtx,
+                                   module,
+                                   moduleBasedMetadataFiles,
+                                   moduleBasedAnnotatedClasses,
+                                   excludedDependencies,
+                                   classResults,
+                                   moduleLogger);
+        } catch (Throwable t) {
+            moduleLogger.error("Error while enhancing.", t);
+            return 0;
+        } finally {
+            moduleLogger.flush();
+        }
+    }
+
+    private int enhanceInModule(final CompileContext cCtx,
+                                final Module module,
+                                final Map<Module, List<VirtualMetadataFile>> moduleBasedMetadataFiles,
+                                final Map<Module, List<VirtualMetadataFile>> moduleBasedAnnotatedClasses,
+                                final Collection<String> excludedDependencies,
+                                final Map<String, Boolean> classResults,
+                                final DNEComputableLoggerWrapper logger)
             throws IllegalAccessException,
                    InvocationTargetException,
                    IOException {
 
-        int iteration = 0;
         int count = 0;
-        for (final Module module : affectedModules) {
-            LOGGER.update(this.state, cCtx, module);
 
-            // exclude disabled modules
-            final Set<String> enabledModules = this.state.getEnabledModules();
-            if (enabledModules != null && enabledModules.contains(module.getName()) && !cCtx.getProgressIndicator().isCanceled()) {
+        // exclude disabled modules
+        final Set<String> enabledModules = this.state.getEnabledModules();
+        if (enabledModules != null && enabledModules.contains(module.getName()) && !cCtx.getProgressIndicator().isCanceled()) {
 
-                // get modules output folders
-                final VirtualFile outputDirectory = cCtx.getModuleOutputDirectory(module);
-                final VirtualFile testOutputDirectory = cCtx.getModuleOutputDirectoryForTests(module);
+            // get modules output folders
+            final VirtualFile outputDirectory = cCtx.getModuleOutputDirectory(module);
+            final VirtualFile testOutputDirectory = cCtx.getModuleOutputDirectoryForTests(module);
 
-                // only enhance in modules that have an output folder
-                if (outputDirectory == null) {
-                    final String msg = "No output directory for module: " + module.getName();
-                    LOGGER.warn(msg);
+            // only enhance in modules that have an output folder
+            if (outputDirectory == null) {
+                final String msg = "No output directory for module: " + module.getName();
+                logger.warn(msg);
 
-                } else if (this.state.isIncludeTestClasses() && testOutputDirectory == null){
-                    final String msg = "No test output directory for module: " + module.getName();
-                    LOGGER.warn(msg);
+            } else if (this.state.isIncludeTestClasses() && testOutputDirectory == null){
+                final String msg = "No test output directory for module: " + module.getName();
+                logger.warn(msg);
 
-                } else {
+            } else {
 
-                    final ProgressIndicator progressIndicator = cCtx.getProgressIndicator();
-                    final EnhancerSupport enhancerSupport = this.state.getEnhancerSupport();
-                    LOGGER.info("Initializing enhancing process");
+                final ProgressIndicator progressIndicator = cCtx.getProgressIndicator();
+                final EnhancerSupport enhancerSupport = this.state.getEnhancerSupport();
+                logger.info("Initializing enhancing process");
 
-                    // update progress text
+                // update progress text
+                synchronized (progressIndicator) {
                     progressIndicator.setText(enhancerSupport.getName() + " Enhancer enhancing in " + module.getName());
-                    // metadata files for module
-                    final List<VirtualMetadataFile> metadataFiles = moduleBasedMetadataFiles.get(module);
-                    // metadata files for module
-                    final List<VirtualMetadataFile> annotatedClassFiles = moduleBasedAnnotatedClasses.get(module);
-
-                    // manual compiler dependencies
-                    List<String> dependencies = null;
-                    final boolean dependenciesManual = this.state.isDependenciesManual();
-                    if (dependenciesManual) {
-                        final Map<String, Map<PersistenceApi, List<VirtualFile>>> allDeps = this.state.getDependencies();
-                        if (allDeps != null && !allDeps.isEmpty()) {
-                            final Map<PersistenceApi, List<VirtualFile>> bySupp = allDeps.get(enhancerSupport.getId());
-                            if (bySupp != null && !bySupp.isEmpty()) {
-                                final List<VirtualFile> deps = bySupp.get(this.state.getApi());
-                                if (deps != null && !deps.isEmpty()) {
-                                    dependencies = new ArrayList<String>(deps.size());
-                                    for (final VirtualFile dep : deps) {
-                                        final String path = VirtualFileUtils.toPathString(dep);
-                                        dependencies.add(path);
-                                    }
+                }
+                // metadata files for module
+                final List<VirtualMetadataFile> metadataFiles = moduleBasedMetadataFiles.get(module);
+                // metadata files for module
+                final List<VirtualMetadataFile> annotatedClassFiles = moduleBasedAnnotatedClasses.get(module);
+
+                // manual compiler dependencies
+                List<String> dependencies = null;
+                final boolean dependenciesManual = this.state.isDependenciesManual();
+                if (dependenciesManual) {
+                    final Map<String, Map<PersistenceApi, List<VirtualFile>>> allDeps = this.state.getDependencies();
+                    if (allDeps != null && !allDeps.isEmpty()) {
+                        final Map<PersistenceApi, List<VirtualFile>> bySupp = allDeps.get(enhancerSupport.getId());
+                        if (bySupp != null && !bySupp.isEmpty()) {
+                            final List<VirtualFile> deps = bySupp.get(this.state.getApi());
+                            if (deps != null && !deps.isEmpty()) {
+                                dependencies = new ArrayList<String>(deps.size());
+                                for (final VirtualFile dep : deps) {
+                                    final String path = VirtualFileUtils.toPathString(dep);
+                                    dependencies.add(path);
                                 }
                             }
                         }
-                        // idea inspection bug?
-                        //noinspection ConstantConditions
-                        if (dependencies == null || dependencies.isEmpty()) {
-                            LOGGER.error("Enhancer dependencies set to 'manual' but none provided!");
-                            final String msg = "Enhancer dependencies for " + enhancerSupport.getName()
-                                    + " [" + this.state.getApi() + "] set to 'manual' but none provided!";
-                            throw new IllegalArgumentException(msg);
-                        }
                     }
-
-                    final EnhancerModuleContext moduleContext = new EnhancerModuleContext(module,
-                                                                                          outputDirectory,
-                                                                                          testOutputDirectory,
-                                                                                          metadataFiles,
-                                                                                          annotatedClassFiles,
-                                                                                          excludedDependencies,
-                                                                                          dependencies);
-
-                    try {
-                        // do class enhancement in module
-                        count += enhancePerModule(enhancerSupport, this.state.getApi(), cCtx, moduleContext);
-
-                    } catch (ClassNotFoundException e) {
-                        LOGGER.error("No enhancer found in classpath", e);
-                    } catch (NoSuchMethodException e) {
-                        LOGGER.error("Enhancer calling error", e);
-                    } catch (EnhancerProxyCreationException e) {
-                        LOGGER.error("Could not load enhancer proxy", e);
+                    // idea inspection bug?
+                    //noinspection ConstantConditions
+                    if (dependencies == null || dependencies.isEmpty()) {
+                        logger.error("Enhancer dependencies set to 'manual' but none provided!");
+                        final String msg = "Enhancer dependencies for " + enhancerSupport.getName()
+                                + " [" + this.state.getApi() + "] set to 'manual' but none provided!";
+                        throw new IllegalArgumentException(msg);
                     }
                 }
-            } else {
-                LOGGER.debug("Omitting disabled module");
+
+                final EnhancerModuleContext moduleContext = new EnhancerModuleContext(module,
+                                                                                      outputDirectory,
+                                                                                      testOutputDirectory,
+                                                                                      metadataFiles,
+                                                                                      annotatedClassFiles,
+                                                                                      excludedDependencies,
+                                                                                      dependencies);
+
+                try {
+                    // do class enhancement in module
+                    count = enhancePerModule(enhancerSupport, this.state.getApi(), cCtx, moduleContext, classResults, logger);
+
+                } catch (ClassNotFoundException e) {
+                    logger.error("No enhancer found in classpath", e);
+                } catch (NoSuchMethodException e) {
+                    logger.error("Enhancer calling error", e);
+                } catch (EnhancerProxyCreationException e) {
+                    logger.error("Could not load enhancer proxy", e);
+                }
             }
-            ++iteration;
-            final double progress = (1.0 / affectedModules.size()) * iteration;
-            cCtx.getProgressIndicator().setFraction(progress);
+        } else {
+            logger.debug("Omitting disabled module");
         }
-        cCtx.getProgressIndicator().setFraction(1.0);
         return count;
     }
 
-    private static int enhancePerModule(final EnhancerSupport enhancerSupport,
-                                        final PersistenceApi api,
-                                        final CompileContext cCtx,
-                                        final EnhancerModuleContext mCtx)
+    private int enhancePerModule(final EnhancerSupport enhancerSupport,
+                                 final PersistenceApi api,
+                                 final CompileContext cCtx,
+                                 final EnhancerModuleContext mCtx,
+                                 final Map<String, Boolean> classResults,
+                                 final DNEComputableLoggerWrapper logger)
             throws ClassNotFoundException,
                    IllegalAccessException,
                    InvocationTargetException,
@@ -404,27 +640,17 @@ class DNEComputable implements ClassPostProcessingCompiler {
         final boolean doEnhance = metadataBased || annotationBased;
 
         //
-        // create enhancer instance
-
-        final EnhancerProxy enhancer;
-        final List<String> inputClasses; // for logging
-        final List<String> inputMetadataFiles; // for logging
-        if (doEnhance) {
-            LOGGER.debug("Creating enhancer proxy");
-            final EnhancerContext eCtx = createEnhancerContext(enhancerSupport, api, cCtx, mCtx);
-
-            inputClasses = new ArrayList<String>();
-            inputMetadataFiles = new ArrayList<String>();
-            enhancer = createEnhancerProxy(eCtx, enhancerSupport);
-        } else {
-            LOGGER.info("Nothing to enhance");
-            inputClasses = Collections.emptyList();
-            inputMetadataFiles = Collections.emptyList();
-            enhancer = null;
-        }
+        // collect metadata and classes
 
-        //
-        // add metadata and classes
+        final List<String> metadataFilePaths = new ArrayList<String>();
+        final List<String> classFilePaths = new ArrayList<String>();
+        final List<String> inputClasses = new ArrayList<String>(); // for logging
+        final List<String> inputMetadataFiles = new ArrayList<String>(); // for logging
+        final List<String> skippedClasses = new ArrayList<String>(); // for logging
+
+        // class file content is kept for in memory enhancement only (read once, written once)
+        final boolean inMemory = this.state.isEnhanceInMemory();
+        final List<byte[]> classFileBytes = new ArrayList<byte[]>();
 
         // add metadata based classes to enhancer list
         if (doEnhance && metadataBased) {
@@ -438,7 +664,7 @@ class DNEComputable implements ClassPostProcessingCompiler {
                 final String metadataFilePath = metadataVirtualFile.getPath();
                 // add metadata file url to enhancer
                 inputMetadataFiles.add(metadataVirtualFile.getName());
-                enhancer.addMetadataFiles(metadataFilePath);
+                metadataFilePaths.add(metadataFilePath);
 
                 // parse package and class names
                 final Collection<String> classNames = metadataFile.getClassNames();
@@ -462,9 +688,19 @@ class DNEComputable implements ClassPostProcessingCompiler {
                         throw new IllegalArgumentException("No output file can be found for " + className + " in module " + module.getName());
                     }
 
-                    LOGGER.debug("Adding xml metadata based class for enhancement: " + fullPath);
-                    inputClasses.add(className);
-                    enhancer.addClasses(fullPath);
+                    final byte[] bytes = readClassFile(fullPath, logger);
+                    if (isEnhanced(bytes, fullPath, logger)) {
+                        skippedClasses.add(className);
+                    } else {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Adding xml metadata based class for enhancement: " + fullPath);
+                        }
+                        inputClasses.add(className);
+                        classFilePaths.add(fullPath);
+                        if (inMemory) {
+                            classFileBytes.add(bytes);
+                        }
+                    }
                 }
             }
         }
@@ -477,32 +713,229 @@ class DNEComputable implements ClassPostProcessingCompiler {
                 //                          "DataNucleus Enhancer: found class: " + annotatedClassFile.getPath(), null, -1, -1);
                 final VirtualFile annotatedClassVirtualFile = annotatedClassFile.getFile();
                 final String path = annotatedClassVirtualFile.getPath();
-                LOGGER.debug("Adding annotated class for enhancement: " + path);
-                inputClasses.add(annotatedClassFile.getClassNames().iterator().next());
-                enhancer.addClasses(path);
+                final String className = annotatedClassFile.getClassNames().iterator().next();
+                final byte[] bytes = readClassFile(path, logger);
+                if (isEnhanced(bytes, path, logger)) {
+                    skippedClasses.add(className);
+                } else {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Adding annotated class for enhancement: " + path);
+                    }
+                    inputClasses.add(className);
+                    classFilePaths.add(path);
+                    if (inMemory) {
+                        classFileBytes.add(bytes);
+                    }
+                }
             }
         }
 
+        if (!skippedClasses.isEmpty()) {
+            logger.info("Skipping already enhanced classes: " + skippedClasses);
+        }
+
         //
-        // finally enhance classes
+        // finally enhance classes (enhancer instance is only created if there is anything left to enhance)
 
         // count nr of enhanced classes
         final int enhancedCount;
 
-        if (doEnhance && !inputClasses.isEmpty()) {
-            LOGGER.info("Metadata files input: " + inputMetadataFiles);
-            LOGGER.info("Classes input: " + inputClasses);
+        if (!classFilePaths.isEmpty()) {
+            // enhance in daemon if enabled and possible (only the classpath is resolved), otherwise with
+            // a new enhancer proxy in an in-process ClassLoader
+            final EnhancerProxyDaemon daemonEnhancer = getDaemonEnhancer(enhancerSupport, api, cCtx, mCtx, logger);
+            final EnhancerContext eCtx = daemonEnhancer == null
+                    ? createEnhancerContext(enhancerSupport, api, cCtx, mCtx, this.state.getEnhancerVerbosity())
+                    : null;
+            try {
+                final EnhancerProxy enhancer;
+                if (daemonEnhancer != null) {
+                    logger.debug("Using enhancer daemon");
+                    enhancer = daemonEnhancer;
+                } else {
+                    logger.debug("Creating enhancer proxy");
+                    enhancer = createEnhancerProxy(eCtx, enhancerSupport, logger);
+                }
+
+                // in memory enhancement if enabled and supported, path based enhancement otherwise
+                final InMemoryEnhancerProxy inMemoryEnhancer = inMemory ? getInMemoryEnhancer(enhancer, classFileBytes, logger) : null;
+
+                logger.info("Metadata files input: " + inputMetadataFiles);
+                logger.info("Classes input: " + inputClasses);
+
+                // capture verbose enhancer output of this thread if buffered (the daemon does not log verbose)
+                final EnhancerOutputCapture outputCapture =
+                        eCtx != null && eCtx.getVerbosity() == EnhancerVerbosity.BUFFERED
+                                ? EnhancerOutputCapture.start(ENHANCER_OUTPUT_MAX_LINES)
+                                : null;
+                try {
+                    // one call for all metadata files and class files of the module
+                    if (!metadataFilePaths.isEmpty()) {
+                        enhancer.addMetadataFiles(metadataFilePaths.toArray(new String[metadataFilePaths.size()]));
+                    }
+                    if (inMemoryEnhancer == null) {
+                        enhancer.addClasses(classFilePaths.toArray(new String[classFilePaths.size()]));
+                    } else {
+                        for (int i = 0; i < inputClasses.size(); ++i) {
+                            inMemoryEnhancer.addClass(inputClasses.get(i), classFileBytes.get(i));
+                        }
+                    }
+
+                    // finally enhance all found classes in module
+                    enhancedCount = enhancer.enhance();
+                } catch (Exception e) {
+                    // surface captured output on error only
+                    if (outputCapture != null && !outputCapture.getLines().isEmpty()) {
+                        logger.warn("Enhancer output:\n" + outputCapture);
+                    }
+                    throw e;
+                } finally {
+                    if (outputCapture != null) {
+                        outputCapture.stop();
+                    }
+                }
+                if (outputCapture != null && logger.isDebugEnabled()) {
+                    logger.debug("Enhancer output:\n" + outputCapture);
+                }
 
-            // finally enhance all found classes in module
-            enhancedCount = enhancer.enhance();
+                if (daemonEnhancer != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Enhancer daemon results: " + daemonEnhancer.getClassResults());
+                    }
+                    classResults.putAll(daemonEnhancer.getClassResults());
+                }
+                if (inMemoryEnhancer != null) {
+                    writeEnhancedClasses(inMemoryEnhancer, inputClasses, classFilePaths, classFileBytes, classResults, logger);
+                }
+            } finally {
+                // cached library ClassLoaders may be closed once no enhancement uses them
+                if (eCtx != null) {
+                    ClassLoaderFactory.releaseClassLoader(eCtx.getClassLoader());
+                }
+            }
         } else {
             // nothing to enhance
+            logger.info("Nothing to enhance");
             enhancedCount = 0;
         }
 
         return enhancedCount;
     }
 
+    @Nullable
+    private static byte[] readClassFile(final String classFilePath, final DNEComputableLoggerWrapper logger) {
+        try {
+            return FileUtil.loadFileBytes(new File(classFilePath));
+        } catch (IOException e) {
+            // let the enhancer deal with it
+            logger.debug("Could not read class file " + classFilePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check if a class file is already enhanced by reading its constant pool, interfaces and fields
+     * (does not load the class).
+     *
+     * @param bytes         content of the class file (null if it could not be read)
+     * @param classFilePath path of the class file
+     * @param logger        .
+     * @return true if enhanced, false if not or the class file could not be read
+     */
+    private static boolean isEnhanced(@Nullable final byte[] bytes,
+                                      final String classFilePath,
+                                      final DNEComputableLoggerWrapper logger) {
+        if (bytes == null) {
+            return false;
+        }
+        try {
+            return ClassFileInfo.read(bytes).isEnhanced();
+        } catch (IOException e) {
+            // let the enhancer deal with it
+            logger.debug("Could not inspect class file " + classFilePath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Resolve the enhancer daemon for provided module if enabled and supported (resolves the module's
+     * enhancer classpath only, no in-process ClassLoader is created).
+     */
+    @Nullable
+    private EnhancerProxyDaemon getDaemonEnhancer(final EnhancerSupport enhancerSupport,
+                                                  final PersistenceApi api,
+                                                  final CompileContext cCtx,
+                                                  final EnhancerModuleContext mCtx,
+                                                  final DNEComputableLoggerWrapper logger) throws IOException {
+        if (!this.state.isEnhancerDaemon()) {
+            return null;
+        }
+        if (enhancerSupport.getEnhancerProxyClass() != EnhancerProxyDataNucleus.class) {
+            logger.debug("Enhancer daemon only supports the DataNucleus enhancer, enhancing in process");
+            return null;
+        }
+        final EnhancerClasspath classpath = ClassLoaderFactory.newClasspath(cCtx,
+                mCtx.getModule(),
+                enhancerSupport.getEnhancerProxyClass(),
+                mCtx.getExcludedDependencies(),
+                mCtx.getEnhancerDependencies());
+        final EnhancerProxyDaemon daemonEnhancer = EnhancerProxyDaemon.create(api,
+                mCtx.getModule(),
+                classpath,
+                this.state.getEnhancerDaemonVmOptions(),
+                this.state.getEnhancerDaemonIdleMinutes());
+        if (daemonEnhancer == null) {
+            logger.debug("Enhancer classpath not supported by enhancer daemon, enhancing in process");
+        }
+        return daemonEnhancer;
+    }
+
+    @Nullable
+    private static InMemoryEnhancerProxy getInMemoryEnhancer(final EnhancerProxy enhancer,
+                                                             final List<byte[]> classFileBytes,
+                                                             final DNEComputableLoggerWrapper logger) {
+        if (!(enhancer instanceof InMemoryEnhancerProxy) || !((InMemoryEnhancerProxy) enhancer).isInMemoryEnhancementSupported()) {
+            logger.debug("In memory enhancement not supported by enhancer, using class file paths");
+            return null;
+        }
+        if (classFileBytes.contains(null)) {
+            logger.debug("Not all class files could be read, using class file paths");
+            return null;
+        }
+        return (InMemoryEnhancerProxy) enhancer;
+    }
+
+    /**
+     * Write enhanced class bytes back to their class files (one atomic write per changed class).
+     *
+     * @param enhancer       the enhancer the classes were added to
+     * @param classNames     names of the added classes
+     * @param classFilePaths class file paths (same order as class names)
+     * @param classFileBytes original class file content (same order as class names)
+     * @param classResults   receives the enhanced state per class file path
+     * @param logger         .
+     * @throws IOException if a class file could not be written
+     */
+    private static void writeEnhancedClasses(final InMemoryEnhancerProxy enhancer,
+                                             final List<String> classNames,
+                                             final List<String> classFilePaths,
+                                             final List<byte[]> classFileBytes,
+                                             final Map<String, Boolean> classResults,
+                                             final DNEComputableLoggerWrapper logger)
+            throws InvocationTargetException, IllegalAccessException, NoSuchMethodException, IOException {
+
+        for (int i = 0; i < classNames.size(); ++i) {
+            final byte[] enhancedBytes = enhancer.getEnhancedClassBytes(classNames.get(i));
+            if (enhancedBytes != null && !Arrays.equals(enhancedBytes, classFileBytes.get(i))) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Writing enhanced class: " + classFilePaths.get(i));
+                }
+                DNEFileUtils.writeAtomically(new File(classFilePaths.get(i)), enhancedBytes);
+            }
+            classResults.put(classFilePaths.get(i), isEnhanced(enhancedBytes, classFilePaths.get(i), logger));
+        }
+    }
+
     //
     // Utility methods
     //
@@ -510,228 +943,478 @@ class DNEComputable implements ClassPostProcessingCompiler {
     private static EnhancerContext createEnhancerContext(final EnhancerSupport enhancerSupport,
                                                          final PersistenceApi api,
                                                          final CompileContext cCtx,
-                                                         final EnhancerModuleContext mCtx) throws IOException {
+                                                         final EnhancerModuleContext mCtx,
+                                                         final EnhancerVerbosity verbosity) throws IOException {
         final Module module = mCtx.getModule();
         final ClassLoader cl = enhancerSupport.newClassLoader(cCtx,
                 module,
                 mCtx.getExcludedDependencies(),
                 mCtx.getEnhancerDependencies());
 
-        return new EnhancerContext(api, module, cCtx, null, cl);
+        return new EnhancerContext(api, module, cCtx, null, cl, verbosity);
     }
 
     /**
-     * Create enhancer proxy in backwards compatible fashion.
+     * Create enhancer proxy in backwards compatible fashion (the constructor generation that worked
+     * is remembered per enhancer support, so the failing one is not tried again on every build).
      *
      * @param eCtx            .
+     * @param enhancerSupport .
+     * @param logger          .
      * @return                .
      */
     @SuppressWarnings({"deprecation"})
-    private static EnhancerProxy createEnhancerProxy(final EnhancerContext eCtx, final EnhancerSupport enhancerSupport)
+    private EnhancerProxy createEnhancerProxy(final EnhancerContext eCtx,
+                                              final EnhancerSupport enhancerSupport,
+                                              final DNEComputableLoggerWrapper logger)
             throws EnhancerProxyCreationException {
 
         final CompileContext cCtx = eCtx.getCompileContext();
+        final String enhancerSupportId = enhancerSupport.getId();
+        final boolean v10xKnown = this.enhancerProxyGenerations.getGeneration(enhancerSupportId) == EnhancerProxyGenerations.Generation.V1_0_X;
 
         EnhancerProxy proxy = null;
 
         // First try the V1.0.x creation (as this is the latest stable version, and most people will still have that)
         Exception firstException = null;
-        try {
-            proxy = enhancerSupport.newEnhancerProxy(eCtx);
-        } catch (Exception e) {
-            firstException = e;
+        if (!v10xKnown) {
+            try {
+                proxy = enhancerSupport.newEnhancerProxy(eCtx);
+            } catch (Exception e) {
+                firstException = e;
+            }
         }
 
         if (proxy == null) {
-            LOGGER.info("V1.1.x enhancer proxy not found, trying V1.0.x");
+            if (!v10xKnown) {
+                logger.info("V1.1.x enhancer proxy not found, trying V1.0.x");
+            }
             try {
                 final Module module = eCtx.getModule();
                 final String persistenceUnitName = eCtx.getPersistenceUnitName();
 
                 proxy = enhancerSupport.newEnhancerProxy(eCtx.getPersistenceApi(), cCtx, module, persistenceUnitName);
+                this.enhancerProxyGenerations.setGeneration(enhancerSupportId, EnhancerProxyGenerations.Generation.V1_0_X);
             } catch (Exception e) {
+                // try both generations again next time
+                this.enhancerProxyGenerations.clearGeneration(enhancerSupportId);
+
                 final String msg_postfix = "enhancer proxy instantiation exception:";
                 final StringBuilder msg = new StringBuilder("Neither V1.1.x nor V1.0.x enhancer proxy found!");
                 msg.append("\n\nV1.1.x ")
                         .append(msg_postfix)
                         .append("\n\n")
-                        .append(ExceptionUtils.stackTraceToString(firstException))
+                        .append(firstException == null
+                                        ? "not tried, V1.0.x enhancer proxy worked before"
+                                        : ExceptionUtils.stackTraceToString(firstException))
                         .append("\n\nMaybe v1.0.x error:\n\n")
                         .append("\n\nV1.0.x ")
                         .append(msg_postfix)
                         .append("\n\n")
                         .append(ExceptionUtils.stackTraceToString(e));
-                LOGGER.error(msg.toString());
+                logger.error(msg.toString());
                 throw new EnhancerProxyCreationException(e);
             }
+        } else {
+            this.enhancerProxyGenerations.setGeneration(enhancerSupportId, EnhancerProxyGenerations.Generation.V1_1_X);
         }
 
         return proxy;
     }
 
     /**
-     * Retrieve annotated class files.
+     * Discover metadata files and persistence annotated class files of all enabled modules in
+     * provided compile scope.<br/>
+     * <br/>
+     * Configuration, enabled modules and their output directories are resolved once up front, the
+     * discovery itself runs in one short read action per module, so that pending write actions are
+     * not blocked for the whole discovery on large projects.
      *
-     * @param compileScope compile scope to use (null for default - can lead to invalid file list due to refactoring)
-     * @return .
+     * @param compileScope      compile scope to use (null for default - can lead to invalid file list due to refactoring)
+     * @param progressIndicator checked for cancellation between modules (null if not cancellable)
+     * @return metadata files and annotated class files per module
      */
-    // TODO: cleanup, as this seems to be very hacky
-    Map<Module, List<VirtualMetadataFile>> getAnnotatedClassFiles(@Nullable final CompileScope compileScope) {
-        final LinkedHashMap<Module, List<VirtualMetadataFile>> moduleBasedFiles = new LinkedHashMap<Module, List<VirtualMetadataFile>>();
-
-        final Application application = ApplicationManager.getApplication();
-        application.runReadAction(new Runnable() {
+    EnhancerDiscoveryResult discover(@Nullable final CompileScope compileScope, @Nullable final ProgressIndicator progressIndicator) {
+        return this.discover(compileScope, null, progressIndicator);
+    }
 
-            public void run() {
-                final CompileScope projectCompileScope = compileScope == null
-                        ? CompilerManager.getInstance(DNEComputable.this.project).createProjectCompileScope(DNEComputable.this.project)
-                        : compileScope;
+    /**
+     * Discover metadata files and persistence annotated class files of all enabled modules in
+     * provided compile scope, restricted to the classes and metadata files accepted by provided filter.
+     *
+     * @param compileScope      compile scope to use (null for default - can lead to invalid file list due to refactoring)
+     * @param filter            restricts discovered items (null to discover all items)
+     * @param progressIndicator checked for cancellation between modules (null if not cancellable)
+     * @return metadata files and annotated class files per module
+     */
+    EnhancerDiscoveryResult discover(@Nullable final CompileScope compileScope,
+                                     @Nullable final EnhancerDiscoveryFilter filter,
+                                     @Nullable final ProgressIndicator progressIndicator) {
+        final EnhancerDiscoveryResult result = new EnhancerDiscoveryResult();
 
-                for (final Module module : projectCompileScope.getAffectedModules()) {
-                    if (DNEComputable.this.state.getEnabledModules() != null && DNEComputable.this.state.getEnabledModules()
-                                                                                                        .contains(module.getName())) {
+        //
+        // resolve configuration once
 
+        final Set<String> enabledModules = this.state.getEnabledModules();
+        if (enabledModules == null || enabledModules.isEmpty()) {
+            return result;
+        }
+        final Set<String> extensions;
+        if (this.state.getMetaDataExtensions() == null || this.state.getMetaDataExtensions().isEmpty()) {
+            extensions = Collections.emptySet(); // DNEState.DEFAULT_METADATA_EXTENSIONS; // no extensions provided -> disable search
+        } else {
+            extensions = this.state.getMetaDataExtensions();
+        }
+        final boolean includeTestClasses = this.state.isIncludeTestClasses();
+        final EnhancerSupport enhancerSupport = this.state.getEnhancerSupport();
 
-                        final List<PsiClass> annotatedClasses = IdeaProjectUtils.findPersistenceAnnotatedClasses(
-                                DNEComputable.this.state.getEnhancerSupport(), module);
-                        final Collection<VirtualFile> outputDirectories = new ArrayList<VirtualFile>(2);
-                        outputDirectories.add(CompilerPaths.getModuleOutputDirectory(module, false));
-                        if (DNEComputable.this.state.isIncludeTestClasses()) {
-                            outputDirectories.add(CompilerPaths.getModuleOutputDirectory(module, true));
-                        }
+        //
+        // resolve enabled modules and their output directories once
 
-                        for (final VirtualFile outputDirectory : outputDirectories) {
-                            // convert to class files in output directory and add to map
-                            if (!annotatedClasses.isEmpty()) {
-                                if (outputDirectory == null) {
-                                    // just care about empty directory when annotated classes are found
-//                            this.ctx.addMessage(CompilerMessageCategory.WARNING, "DataNucleus Enhancer: annotated " +
-//                                                                                 (count == 1 ? "test " : "") +
-//                                                                                 "classes found but no output directory for module: " +
-//                                                                                 module.getName(), null, -1, -1);
-                                } else {
-                                    final List<VirtualMetadataFile> moduleFiles = new LinkedList<VirtualMetadataFile>();
-                                    // convert psi classes to class files in output path
-                                    for (final PsiClass annotatedClass : annotatedClasses) {
-                                        final String pcClassName = annotatedClass.getQualifiedName();
-                                        // convert to path
-                                        final String pcClassPath = IdeaProjectUtils.packageToPath(pcClassName) + ".class";
-                                        // find file in output path
-                                        final VirtualFile pcClassFile = outputDirectory.findFileByRelativePath(pcClassPath);
-                                        if (pcClassFile != null && pcClassFile.exists()) {
-
-                                            moduleFiles
-                                                    .add(new VirtualMetadataFile(module, true, pcClassFile,
-                                                                                 Collections.singletonList(pcClassName),
-                                                                                 Collections.singletonList(pcClassFile)));
-                                        }
-                                    }
-                                    if (!moduleFiles.isEmpty()) {
-                                        final List<VirtualMetadataFile> storedModuleFiles = moduleBasedFiles.get(module);
-                                        // if collection already exists, just add content
-                                        if (storedModuleFiles == null) {
-                                            moduleBasedFiles.put(module, moduleFiles);
-                                        } else {
-                                            storedModuleFiles.addAll(moduleFiles);
-                                        }
+        final Application application = ApplicationManager.getApplication();
+        final Map<Module, List<VirtualFile>> moduleOutputDirectories =
+                application.runReadAction(new Computable<Map<Module, List<VirtualFile>>>() {
+                    public Map<Module, List<VirtualFile>> compute() {
+                        final CompileScope projectCompileScope = compileScope == null
+                                ? CompilerManager.getInstance(DNEComputable.this.project).createProjectCompileScope(DNEComputable.this.project)
+                                : compileScope;
+
+                        final Map<Module, List<VirtualFile>> outputDirectories = new LinkedHashMap<Module, List<VirtualFile>>();
+                        for (final Module module : projectCompileScope.getAffectedModules()) {
+                            if (enabledModules.contains(module.getName())) {
+                                final List<VirtualFile> moduleOutputDirectories = new ArrayList<VirtualFile>(2);
+                                final VirtualFile outputDirectory = CompilerPaths.getModuleOutputDirectory(module, false);
+                                if (outputDirectory != null) {
+                                    moduleOutputDirectories.add(outputDirectory);
+                                }
+                                if (includeTestClasses) {
+                                    final VirtualFile testOutputDirectory = CompilerPaths.getModuleOutputDirectory(module, true);
+                                    if (testOutputDirectory != null) {
+                                        moduleOutputDirectories.add(testOutputDirectory);
                                     }
                                 }
+                                if (!moduleOutputDirectories.isEmpty()) {
+                                    outputDirectories.put(module, moduleOutputDirectories);
+                                }
                             }
                         }
+                        return outputDirectories;
+                    }
+                });
+
+        //
+        // list metadata files (reading outdated ones) and discover annotated classes, one read action per module
+        // (annotated classes are found by scanning class files while indexes are not ready)
+
+        final DumbService dumbService = DumbService.getInstance(this.project);
+        final Map<Module, Map<VirtualFile, List<VirtualFile>>> moduleMetadataFiles = new LinkedHashMap<Module, Map<VirtualFile, List<VirtualFile>>>();
+        final List<MetadataIndex.MetadataFileContent> outdatedMetadataFiles = new ArrayList<MetadataIndex.MetadataFileContent>();
+        for (final Map.Entry<Module, List<VirtualFile>> entry : moduleOutputDirectories.entrySet()) {
+            if (progressIndicator != null && progressIndicator.isCanceled()) {
+                break;
+            }
+            final Module module = entry.getKey();
+            final List<VirtualFile> outputDirectories = entry.getValue();
+            final boolean indexReady = application.runReadAction(new Computable<Boolean>() {
+                public Boolean compute() {
+                    if (module.isDisposed()) {
+                        return true;
+                    }
+                    moduleMetadataFiles.put(module, listMetadataFiles(outputDirectories, extensions, outdatedMetadataFiles, result));
+                    if (dumbService.isDumb()) {
+                        return false;
+                    }
+                    try {
+                        discoverAnnotatedClassFiles(module, outputDirectories, enhancerSupport, filter, result);
+                        return true;
+                    } catch (IndexNotReadyException ignored) {
+                        return false;
                     }
                 }
+            });
+            if (!indexReady) {
+                scanAnnotatedClassFiles(module, outputDirectories, enhancerSupport, filter, progressIndicator, result);
             }
-        });
+        }
+
+        //
+        // parse outdated metadata files concurrently, outside of read actions
+
+        try {
+            for (final Map.Entry<VirtualFile, Exception> error : this.metadataIndex.parse(outdatedMetadataFiles, progressIndicator).entrySet()) {
+                result.addMetadataError(error.getKey(), error.getValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return result;
+        }
+
+        //
+        // resolve metadata class files in module and file order, one read action per module
+
+        for (final Map.Entry<Module, Map<VirtualFile, List<VirtualFile>>> entry : moduleMetadataFiles.entrySet()) {
+            if (progressIndicator != null && progressIndicator.isCanceled()) {
+                break;
+            }
+            final Module module = entry.getKey();
+            final Map<VirtualFile, List<VirtualFile>> metadataFiles = entry.getValue();
+            application.runReadAction(new Runnable() {
+                public void run() {
+                    if (!module.isDisposed()) {
+                        addMetadataFiles(module, metadataFiles, filter, result);
+                    }
+                }
+            });
+        }
 
-        return moduleBasedFiles;
+        return result;
     }
 
     /**
-     * Retrieve metadata files.
+     * List metadata files in provided output directories of a module and read the content of the ones not
+     * (or no longer) known by the metadata index (has to be called inside a read action).
      *
-     * @param compileScope compile scope to use (null for default - can lead to invalid file list due to refactoring)
-     * @return .
+     * @return metadata files per output directory
      */
-    // TODO: cleanup, as this seems to be very hacky
-    Map<Module, List<VirtualMetadataFile>> getMetadataFiles(@Nullable final CompileScope compileScope) {
-        final Set<String> extensions;
-        if (this.state.getMetaDataExtensions() == null || this.state.getMetaDataExtensions().isEmpty()) {
-            extensions = Collections.emptySet(); // DNEState.DEFAULT_METADATA_EXTENSIONS; // no extensions provided -> disable search
-        } else {
-            extensions = this.state.getMetaDataExtensions();
+    private Map<VirtualFile, List<VirtualFile>> listMetadataFiles(final List<VirtualFile> outputDirectories,
+                                                                  final Set<String> extensions,
+                                                                  final List<MetadataIndex.MetadataFileContent> outdatedMetadataFiles,
+                                                                  final EnhancerDiscoveryResult result) {
+        final Map<VirtualFile, List<VirtualFile>> metadataFiles = new LinkedHashMap<VirtualFile, List<VirtualFile>>();
+        if (extensions.isEmpty()) {
+            return metadataFiles;
+        }
+
+        for (final VirtualFile outputDirectory : outputDirectories) {
+            final List<VirtualFile> metadataFilesInDirectory = this.metadataIndex.getMetadataFiles(outputDirectory, extensions);
+            for (final VirtualFile vf : metadataFilesInDirectory) {
+                try {
+                    final MetadataIndex.MetadataFileContent content = this.metadataIndex.readIfOutdated(vf);
+                    if (content != null) {
+                        outdatedMetadataFiles.add(content);
+                    }
+                } catch (IOException e) {
+                    result.addMetadataError(vf, e);
+                }
+            }
+            metadataFiles.put(outputDirectory, metadataFilesInDirectory);
+        }
+        return metadataFiles;
+    }
+
+    /**
+     * Add provided metadata files of a module, as parsed by the metadata index, skipping files with
+     * read or parse errors (has to be called inside a read action).
+     */
+    private void addMetadataFiles(final Module module,
+                                  final Map<VirtualFile, List<VirtualFile>> metadataFiles,
+                                  @Nullable final EnhancerDiscoveryFilter filter,
+                                  final EnhancerDiscoveryResult result) {
+        for (final Map.Entry<VirtualFile, List<VirtualFile>> entry : metadataFiles.entrySet()) {
+            final VirtualFile outputDirectory = entry.getKey();
+            final List<VirtualMetadataFile> moduleFiles = new LinkedList<VirtualMetadataFile>();
+
+            // skip non-parseable files
+            for (final VirtualFile vf : entry.getValue()) {
+                if (result.getMetadataErrors().containsKey(vf)) {
+                    continue;
+                }
+                final Set<String> classNames;
+                final long metadataHash;
+                try {
+                    classNames = this.metadataIndex.getClassNames(vf);
+                    metadataHash = this.metadataIndex.getContentHash(vf);
+                } catch (Exception e) {
+                    result.addMetadataError(vf, e);
+                    continue;
+                }
+                if (classNames != null && !classNames.isEmpty() && (filter == null || filter.acceptsMetadataFile(vf, classNames))) {
+                    final List<VirtualFile> classFiles = new ArrayList<VirtualFile>(classNames.size());
+                    for (final String className : classNames) {
+                        final String classNameAsPath = IdeaProjectUtils.packageToPath(className);
+                        final VirtualFile classFile = outputDirectory.findFileByRelativePath(classNameAsPath + ".class");
+                        classFiles.add(classFile);
+                    }
+
+                    moduleFiles.add(new VirtualMetadataFile(module, false, vf, metadataHash, classNames, classFiles));
+                }
+            }
+            result.addMetadataFiles(module, moduleFiles);
         }
+    }
 
-        final CompileScope projectCompileScope = compileScope == null
-                ? CompilerManager.getInstance(this.project).createProjectCompileScope(this.project)
-                : compileScope;
+    /**
+     * Discover persistence annotated class files in provided output directories of a module (has to be called inside a read action).
+     */
+    private void discoverAnnotatedClassFiles(final Module module,
+                                             final List<VirtualFile> outputDirectories,
+                                             final EnhancerSupport enhancerSupport,
+                                             @Nullable final EnhancerDiscoveryFilter filter,
+                                             final EnhancerDiscoveryResult result) {
+        final List<String> annotatedClasses = this.metadataIndex.getAnnotatedClassNames(enhancerSupport, module);
+        addAnnotatedClassFiles(module, outputDirectories, annotatedClasses, filter, result);
+    }
 
-        final Map<Module, List<VirtualMetadataFile>> metadataFiles = new LinkedHashMap<Module, List<VirtualMetadataFile>>();
+    /**
+     * Discover persistence annotated class files in provided output directories of a module by reading
+     * the class files, does not depend on indexes (must not be called inside a read action).
+     */
+    private static void scanAnnotatedClassFiles(final Module module,
+                                                final List<VirtualFile> outputDirectories,
+                                                final EnhancerSupport enhancerSupport,
+                                                @Nullable final EnhancerDiscoveryFilter filter,
+                                                @Nullable final ProgressIndicator progressIndicator,
+                                                final EnhancerDiscoveryResult result) {
+        final List<File> ioOutputDirectories = new ArrayList<File>(outputDirectories.size());
+        for (final VirtualFile outputDirectory : outputDirectories) {
+            ioOutputDirectories.add(VirtualFileUtils.toIOFile(outputDirectory));
+        }
 
-        final Module[] affectedModules = projectCompileScope.getAffectedModules();
+        final Collection<String> annotatedClasses;
+        try {
+            annotatedClasses = ClassFileAnnotationScanner.scan(ioOutputDirectories, enhancerSupport.getAnnotationNames(), progressIndicator);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (IDEA_LOGGER.isDebugEnabled()) {
+            IDEA_LOGGER.debug("Enhancer: indexes not ready, found " + annotatedClasses.size() + " annotated classes in class files of module " + module.getName());
+        }
 
-        final Application application = ApplicationManager.getApplication();
-        application.runReadAction(new Runnable() {
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
             public void run() {
-                if (affectedModules.length > 0) {
+                if (!module.isDisposed()) {
+                    addAnnotatedClassFiles(module, outputDirectories, annotatedClasses, filter, result);
+                }
+            }
+        });
+    }
 
-                    for (final Module module : affectedModules) {
-                        if (DNEComputable.this.state.getEnabledModules() != null && DNEComputable.this.state.getEnabledModules()
-                                                                                                            .contains(module.getName())) {
+    /**
+     * Add the class files of provided persistence annotated classes found in provided output directories
+     * of a module (has to be called inside a read action).
+     */
+    private static void addAnnotatedClassFiles(final Module module,
+                                               final List<VirtualFile> outputDirectories,
+                                               final Collection<String> annotatedClasses,
+                                               @Nullable final EnhancerDiscoveryFilter filter,
+                                               final EnhancerDiscoveryResult result) {
+        if (annotatedClasses.isEmpty()) {
+            return;
+        }
 
-                            final Collection<VirtualFile> outputDirectories = new ArrayList<VirtualFile>(2);
-                            outputDirectories.add(CompilerPaths.getModuleOutputDirectory(module, false));
-                            if (DNEComputable.this.state.isIncludeTestClasses()) {
-                                outputDirectories.add(CompilerPaths.getModuleOutputDirectory(module, true));
-                            }
+        for (final VirtualFile outputDirectory : outputDirectories) {
+            final List<VirtualMetadataFile> moduleFiles = new LinkedList<VirtualMetadataFile>();
+            // convert class names to class files in output path
+            for (final String pcClassName : annotatedClasses) {
+                if (filter != null && !filter.acceptsClass(pcClassName)) {
+                    continue;
+                }
+                // convert to path
+                final String pcClassPath = IdeaProjectUtils.packageToPath(pcClassName) + ".class";
+                // find file in output path
+                final VirtualFile pcClassFile = outputDirectory.findFileByRelativePath(pcClassPath);
+                if (pcClassFile != null && pcClassFile.exists()) {
+                    moduleFiles.add(new VirtualMetadataFile(module, true, pcClassFile, 0L,
+                                                            Collections.singletonList(pcClassName),
+                                                            Collections.singletonList(pcClassFile)));
+                }
+            }
+            result.addAnnotatedClassFiles(module, moduleFiles);
+        }
+    }
 
-                            for (final VirtualFile outputDirectory : outputDirectories) {
-
-                                if (outputDirectory == null) {
-//                            this.ctx
-//                                    .addMessage(CompilerMessageCategory.WARNING, "DataNucleus Enhancer: no " +
-//                                                                                 (count == 1 ? "test " : "") +
-//                                                                                 "output directory for module: " +
-//                                                                                 module.getName(), null, -1, -1);
-                                } else {
-
-                                    final List<VirtualMetadataFile> moduleFiles = new LinkedList<VirtualMetadataFile>();
-                                    for (final String extension : extensions) {
-                                        final List<VirtualFile> metadataFilesPerExtension =
-                                                IdeaProjectUtils.findFilesByExtension(outputDirectory, extension);
-
-                                        // remove non-parseable files
-                                        for (final VirtualFile vf : metadataFilesPerExtension) {
-                                            final Set<String> classNames;
-                                            try {
-                                                classNames = MetadataParser.parseQualifiedClassNames(vf);
-                                            } catch (Exception e) {
-                                                throw new IllegalArgumentException("parsing metadata error", e);
-                                            }
-                                            if (classNames != null && !classNames.isEmpty()) {
-                                                final List<VirtualFile> classFiles = new ArrayList<VirtualFile>(classNames.size());
-                                                for (final String className : classNames) {
-                                                    final String classNameAsPath = IdeaProjectUtils.packageToPath(className);
-                                                    final VirtualFile classFile =
-                                                            outputDirectory.findFileByRelativePath(classNameAsPath + ".class");
-                                                    classFiles.add(classFile);
-                                                }
-
-                                                moduleFiles.add(new VirtualMetadataFile(module, false, vf, classNames, classFiles));
-                                            }
-                                        }
-                                    }
-                                    if (!moduleFiles.isEmpty()) {
+    /**
+     * Create the filter restricting discovery to the classes compiled in this compile session: the
+     * class files reported as generated by the compilers, or the source files of a file based compile
+     * scope (e.g. 'Compile file'), plus the classes that failed to enhance in the previous session.
+     *
+     * @param cCtx the compile context
+     * @return discovery filter, null if all items have to be discovered (e.g. rebuild)
+     */
+    @Nullable
+    private EnhancerDiscoveryFilter getDiscoveryFilter(final CompileContext cCtx) {
+        if (cCtx.isRebuild()) {
+            return null;
+        }
+        EnhancerDiscoveryFilter filter = this.compiledFilesTracker.createFilter();
+        if (filter == null) {
+            filter = this.createScopeFilter(cCtx.getCompileScope());
+        }
+        if (filter != null) {
+            filter = filter.merge(new EnhancerDiscoveryFilter(this.compiledFilesTracker.getPendingClassNames(),
+                                                              Collections.<String>emptyList()));
+        }
+        return filter;
+    }
 
-                                        metadataFiles.put(module, moduleFiles);
-                                    }
-                                }
+    /**
+     * Create a filter for the java source files of a compile scope, if the scope does not cover
+     * complete modules (the source roots of a module do not belong to a file based scope).<br/>
+     * <br/>
+     * The top level classes are taken from the PSI, as a source file may declare several of them.
+     *
+     * @param compileScope the compile scope
+     * @return filter for the classes of the scope's source files, null if the scope covers complete modules
+     */
+    @Nullable
+    private EnhancerDiscoveryFilter createScopeFilter(final CompileScope compileScope) {
+        return ApplicationManager.getApplication().runReadAction(new Computable<EnhancerDiscoveryFilter>() {
+            public EnhancerDiscoveryFilter compute() {
+                boolean fileBased = false;
+                for (final Module module : compileScope.getAffectedModules()) {
+                    for (final VirtualFile sourceRoot : ModuleRootManager.getInstance(module).getSourceRoots()) {
+                        if (!compileScope.belongs(sourceRoot.getUrl())) {
+                            fileBased = true;
+                            break;
+                        }
+                    }
+                }
+                if (!fileBased) {
+                    return null;
+                }
+
+                final PsiManager psiManager = PsiManager.getInstance(DNEComputable.this.project);
+                final List<String> sourceClassNames = new ArrayList<String>();
+                for (final VirtualFile sourceFile : compileScope.getFiles(StdFileTypes.JAVA, true)) {
+                    final PsiFile psiFile = psiManager.findFile(sourceFile);
+                    if (psiFile instanceof PsiClassOwner) {
+                        for (final PsiClass psiClass : ((PsiClassOwner) psiFile).getClasses()) {
+                            final String className = psiClass.getQualifiedName();
+                            if (className != null) {
+                                sourceClassNames.add(className);
                             }
                         }
                     }
                 }
+                return new EnhancerDiscoveryFilter(Collections.<String>emptyList(), sourceClassNames, Collections.<String>emptyList());
+            }
+        });
+    }
+
+    /**
+     * Retrieve the dependencies of each affected module, restricted to the affected modules (including transitive
+     * ones via affected modules).
+     *
+     * @param affectedModules modules to resolve dependencies for
+     * @return mutable dependency sets per module
+     */
+    private static Map<Module, Set<Module>> getAffectedModuleDependencies(final Collection<Module> affectedModules) {
+        return ApplicationManager.getApplication().runReadAction(new Computable<Map<Module, Set<Module>>>() {
+            public Map<Module, Set<Module>> compute() {
+                final Map<Module, Set<Module>> moduleDependencies = new LinkedHashMap<Module, Set<Module>>();
+                for (final Module module : affectedModules) {
+                    final Set<Module> dependencies = new LinkedHashSet<Module>();
+                    for (final Module dependency : ModuleRootManager.getInstance(module).getDependencies()) {
+                        if (dependency != module && affectedModules.contains(dependency)) {
+                            dependencies.add(dependency);
+                        }
+                    }
+                    moduleDependencies.put(module, dependencies);
+                }
+                return moduleDependencies;
             }
         });
-        return metadataFiles;
     }
 
     private static List<Module> getAffectedModules(final CompileContext cCtx,
@@ -754,6 +1437,74 @@ class DNEComputable implements ClassPostProcessingCompiler {
         return affectedModules;
     }
 
+    /**
+     * Select the successfully processed items: class items whose class file is enhanced and metadata
+     * file items whose configured class files are all enhanced.<br/>
+     * The enhanced state of a class is taken from the enhancer results (daemon or in memory enhancement),
+     * otherwise it is read from the class file (path based enhancement, or enhanced by a previous make).
+     *
+     * @param processingItems items passed to the enhancer
+     * @param classResults    enhanced state per class file path reported by the enhancer
+     * @return successfully processed items
+     */
+    private static FileProcessingCompiler.ProcessingItem[] getSucceededItems(final FileProcessingCompiler.ProcessingItem[] processingItems,
+                                                                             final Map<String, Boolean> classResults) {
+
+        final List<FileProcessingCompiler.ProcessingItem> succeeded =
+                new ArrayList<FileProcessingCompiler.ProcessingItem>(processingItems.length);
+
+        // enhanced state per class file path, as metadata items share class files with class items
+        final Map<String, Boolean> enhancedClassFiles = new HashMap<String, Boolean>(classResults);
+
+        for (final FileProcessingCompiler.ProcessingItem processingItem : processingItems) {
+            final EnhancerItem enhancerItem = (EnhancerItem) processingItem;
+            final VirtualMetadataFile virtualMetadata = enhancerItem.getVirtualMetadata();
+            final boolean metadataFileItem = !virtualMetadata.isAnnotationBasedOnly() && enhancerItem.getFile().equals(virtualMetadata.getFile());
+            final Collection<VirtualFile> classFiles = metadataFileItem
+                    ? virtualMetadata.getClassFiles() : Collections.singletonList(enhancerItem.getFile());
+
+            boolean allEnhanced = true;
+            for (final VirtualFile classFile : classFiles) {
+                if (classFile == null || !isEnhanced(classFile, enhancedClassFiles)) {
+                    allEnhanced = false;
+                    break;
+                }
+            }
+
+            if (allEnhanced) {
+                succeeded.add(processingItem);
+            }
+        }
+
+        return succeeded.toArray(new FileProcessingCompiler.ProcessingItem[succeeded.size()]);
+    }
+
+    private static Collection<String> getFailedClassNames(final FileProcessingCompiler.ProcessingItem[] processingItems,
+                                                          final FileProcessingCompiler.ProcessingItem[] succeededItems) {
+        final Set<FileProcessingCompiler.ProcessingItem> succeeded =
+                new HashSet<FileProcessingCompiler.ProcessingItem>(Arrays.asList(succeededItems));
+        final Set<String> failedClassNames = new HashSet<String>();
+        for (final FileProcessingCompiler.ProcessingItem processingItem : processingItems) {
+            if (!succeeded.contains(processingItem)) {
+                failedClassNames.addAll(((EnhancerItem) processingItem).getVirtualMetadata().getClassNames());
+            }
+        }
+        return failedClassNames;
+    }
+
+    private static boolean isEnhanced(final VirtualFile classFile, final Map<String, Boolean> enhancedClassFiles) {
+        Boolean enhanced = enhancedClassFiles.get(classFile.getPath());
+        if (enhanced == null) {
+            try {
+                enhanced = ClassFileInfo.read(FileUtil.loadFileBytes(VirtualFileUtils.toIOFile(classFile))).isEnhanced();
+            } catch (IOException ignored) {
+                enhanced = Boolean.FALSE;
+            }
+            enhancedClassFiles.put(classFile.getPath(), enhanced);
+        }
+        return enhanced;
+    }
+
     //
     // Logging helpers
     //
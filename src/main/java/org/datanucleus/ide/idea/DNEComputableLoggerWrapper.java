@@ -19,7 +19,8 @@
 
 package org.datanucleus.ide.idea;
 
-import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
@@ -31,6 +32,12 @@ import org.datanucleus.ide.idea.util.ExceptionUtils;
 import org.jetbrains.annotations.Nullable;
 
 /**
+ * Immutable logging context (enhancer support, api and module) of one compile run or module, so each thread
+ * enhancing a module uses its own instance.<br/>
+ * <br/>
+ * Messages for the compile context are collected and delivered in one batch by {@link #flush()}.
+ * Callers should guard expensive debug messages with {@link #isDebugEnabled()}.
+ *
  * User: geri
  * Date: 11.09.12
  * Time: 05:25
@@ -39,18 +46,33 @@ public class DNEComputableLoggerWrapper {
 
     private final Logger logger;
 
-    private DNEState state = null;
-    private CompileContext cCtx = null;
-    private Module module = null;
+    private final CompileContext cCtx;
+
+    /**
+     * Message prefix, built once per context
+     */
+    private final String prefix;
+
+    /**
+     * Compile context messages not yet delivered
+     */
+    private final List<UiMessage> uiMessages = new ArrayList<UiMessage>();
 
     public DNEComputableLoggerWrapper(final Logger logger) {
-        this.logger = logger;
+        this(logger, null, null, null);
     }
 
-    void update(final DNEState state, @Nullable final CompileContext cCtx, @Nullable final Module module) {
-        this.state = state;
+    public DNEComputableLoggerWrapper(final Logger logger,
+                                      @Nullable final DNEState state,
+                                      @Nullable final CompileContext cCtx,
+                                      @Nullable final Module module) {
+        this.logger = logger;
         this.cCtx = cCtx;
-        this.module = module;
+        this.prefix = prefixForLog(state, module);
+    }
+
+    public boolean isDebugEnabled() {
+        return this.logger.isDebugEnabled();
     }
 
     public void error(final String msg) {
@@ -58,7 +80,7 @@ public class DNEComputableLoggerWrapper {
     }
 
     public void error(final String msg, @Nullable final Throwable t) {
-        final String message = msgForLog(this.state, this.module, msg);
+        final String message = this.prefix + msg;
         if (t == null) {
             this.logger.error(message);
             this.uiLogMsg(CompilerMessageCategory.ERROR, message);
@@ -70,41 +92,80 @@ public class DNEComputableLoggerWrapper {
     }
 
     public void warn(final String msg) {
-        final String message = msgForLog(this.state, this.module, msg);
+        final String message = this.prefix + msg;
         this.logger.warn(message);
         this.uiLogMsg(CompilerMessageCategory.WARNING, message);
     }
 
     public void info(final String msg) {
-        final String message = msgForLog(this.state, this.module, msg);
+        final String message = this.prefix + msg;
         this.logger.info(message);
         this.uiLogMsg(CompilerMessageCategory.INFORMATION, message);
     }
 
     public void debug(final String msg) {
-        final String message = msgForLog(this.state, this.module, msg);
-        this.logger.debug(message);
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug(this.prefix + msg);
+        }
 
         // No debug messages to ui message window
         // this.uiLogMsg(CompilerMessageCategory.INFORMATION, message);
     }
 
-    private static String msgForLog(final DNEState state, @Nullable final Module module, final String msg) {
+    /**
+     * Deliver collected messages to the compile context, in the order they were logged.
+     */
+    public void flush() {
+        final UiMessage[] messages;
+        synchronized (this.uiMessages) {
+            if (this.uiMessages.isEmpty()) {
+                return;
+            }
+            messages = this.uiMessages.toArray(new UiMessage[this.uiMessages.size()]);
+            this.uiMessages.clear();
+        }
+        // modules may be enhanced concurrently, serialize access to compile context messages (once per batch)
+        synchronized (this.cCtx) {
+            for (final UiMessage message : messages) {
+                this.cCtx.addMessage(message.category, message.message, null, -1, -1);
+            }
+        }
+    }
+
+    private static String prefixForLog(@Nullable final DNEState state, @Nullable final Module module) {
         final EnhancerSupport enhancerSupport = state == null ? null : state.getEnhancerSupport();
         final PersistenceApi persistenceApi = state == null ? null : state.getApi();
         final String eSuppName = enhancerSupport == null ? "-" : enhancerSupport.getName();
         final String persApiName = persistenceApi == null ? "-" : persistenceApi.name();
         final String modName = module == null ? "-" : module.getName();
-        return MessageFormat.format("Enhancer | {0}[{1}] |{2}| " + msg, eSuppName, persApiName, modName);
+        return "Enhancer | " + eSuppName + '[' + persApiName + "] |" + modName + "| ";
     }
 
     private void uiLogMsg(final CompilerMessageCategory cat, final String msg) {
         if (this.cCtx != null) {
-            final EnhancerSupport enhancerSupport = this.state.getEnhancerSupport();
-            this.cCtx.addMessage(cat, msg, null, -1, -1);
+            synchronized (this.uiMessages) {
+                this.uiMessages.add(new UiMessage(cat, msg));
+            }
         } else {
             this.logger.warn("UI message logger called, but no CompileContext available. Original message: " + msg);
         }
     }
 
+    //
+    // Helper classes
+    //
+
+    private static final class UiMessage {
+
+        private final CompilerMessageCategory category;
+
+        private final String message;
+
+        private UiMessage(final CompilerMessageCategory category, final String message) {
+            this.category = category;
+            this.message = message;
+        }
+
+    }
+
 }
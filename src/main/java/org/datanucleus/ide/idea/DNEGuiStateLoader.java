@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.compiler.CompileScope;
+import com.intellij.openapi.compiler.CompilerManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+
+import org.datanucleus.ide.idea.integration.EnhancerSupport;
+import org.datanucleus.ide.idea.ui.AffectedModule;
+import org.datanucleus.ide.idea.ui.MetaDataOrClassFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Cancellable background task detecting the modules affected by the enhancer and discovering their
+ * metadata and annotated class files for the configuration gui.<br/>
+ * <br/>
+ * Results are reported module by module to a {@link DNEGuiStateLoader.Listener} on the event dispatch
+ * thread, every read action covers a single module only. No results are reported after {@link #cancel()}.
+ */
+final class DNEGuiStateLoader extends Task.Backgroundable {
+
+    private final EnhancerPresenceCache enhancerPresenceCache;
+
+    private final EnhancerSupport enhancerSupport;
+
+    private final boolean dependenciesManual;
+
+    private final Set<String> enabledModules;
+
+    /**
+     * Used to discover metadata and annotated class files (null to detect modules only)
+     */
+    private final DNEComputable dNEComputable;
+
+    private final ModalityState modalityState;
+
+    private final DNEGuiStateLoader.Listener listener;
+
+    private volatile boolean cancelled = false;
+
+    private volatile ProgressIndicator progressIndicator = null;
+
+    DNEGuiStateLoader(@NotNull final Project project,
+                      @NotNull final EnhancerPresenceCache enhancerPresenceCache,
+                      @NotNull final EnhancerSupport enhancerSupport,
+                      final boolean dependenciesManual,
+                      @NotNull final Set<String> enabledModules,
+                      @Nullable final DNEComputable dNEComputable,
+                      @NotNull final ModalityState modalityState,
+                      @NotNull final DNEGuiStateLoader.Listener listener) {
+        super(project, "Loading DataNucleus Enhancer configuration", true);
+        this.enhancerPresenceCache = enhancerPresenceCache;
+        this.enhancerSupport = enhancerSupport;
+        this.dependenciesManual = dependenciesManual;
+        this.enabledModules = new LinkedHashSet<String>(enabledModules);
+        this.dNEComputable = dNEComputable;
+        this.modalityState = modalityState;
+        this.listener = listener;
+    }
+
+    /**
+     * Stop loading, no further results are reported (has to be called on the event dispatch thread).
+     */
+    void cancel() {
+        this.cancelled = true;
+        final ProgressIndicator indicator = this.progressIndicator;
+        if (indicator != null) {
+            indicator.cancel();
+        }
+    }
+
+    //
+    // Task implementation
+    //
+
+    @Override
+    public void run(@NotNull final ProgressIndicator indicator) {
+        this.progressIndicator = indicator;
+        if (this.cancelled) {
+            return;
+        }
+
+        final Project project = this.getProject();
+        final Application application = ApplicationManager.getApplication();
+        DumbService.getInstance(project).waitForSmartMode();
+
+        try {
+            //
+            // detect affected modules
+
+            indicator.setText("Detecting modules using the enhancer");
+            final Module[] modules = application.runReadAction(new Computable<Module[]>() {
+                public Module[] compute() {
+                    return CompilerManager.getInstance(project).createProjectCompileScope(project).getAffectedModules();
+                }
+            });
+
+            final List<Module> affectedModules = new ArrayList<Module>(modules.length);
+            for (int i = 0; i < modules.length; ++i) {
+                this.checkCanceled(indicator);
+                final Module module = modules[i];
+                indicator.setText2(module.getName());
+                indicator.setFraction(0.5 * i / modules.length);
+
+                final boolean affected = application.runReadAction(new Computable<Boolean>() {
+                    public Boolean compute() {
+                        return !module.isDisposed()
+                               && IdeaProjectUtils.isDefaultAffectedModule(DNEGuiStateLoader.this.enhancerPresenceCache,
+                                                                           DNEGuiStateLoader.this.enhancerSupport,
+                                                                           module,
+                                                                           DNEGuiStateLoader.this.dependenciesManual);
+                    }
+                });
+                if (affected) {
+                    affectedModules.add(module);
+                    final AffectedModule affectedModule =
+                            new AffectedModule(this.enabledModules.contains(module.getName()), module.getName());
+                    this.report(new Runnable() {
+                        public void run() {
+                            DNEGuiStateLoader.this.listener.moduleDetected(affectedModule);
+                        }
+                    });
+                }
+            }
+
+            final Collection<String> affectedModuleNames = new LinkedHashSet<String>(affectedModules.size());
+            for (final Module affectedModule : affectedModules) {
+                affectedModuleNames.add(affectedModule.getName());
+            }
+            this.report(new Runnable() {
+                public void run() {
+                    DNEGuiStateLoader.this.listener.moduleDetectionFinished(affectedModuleNames);
+                }
+            });
+
+            //
+            // discover metadata and annotated class files of enabled modules
+
+            if (this.dNEComputable != null) {
+                indicator.setText("Discovering persistent classes");
+                for (int i = 0; i < affectedModules.size(); ++i) {
+                    this.checkCanceled(indicator);
+                    final Module module = affectedModules.get(i);
+                    indicator.setText2(module.getName());
+                    indicator.setFraction(0.5 + 0.5 * i / affectedModules.size());
+
+                    if (this.enabledModules.contains(module.getName())) {
+                        final CompileScope moduleScope = application.runReadAction(new Computable<CompileScope>() {
+                            public CompileScope compute() {
+                                return CompilerManager.getInstance(project).createModulesCompileScope(new Module[]{module}, false);
+                            }
+                        });
+                        final EnhancerDiscoveryResult discovered = this.dNEComputable.discover(moduleScope, indicator);
+                        this.checkCanceled(indicator);
+
+                        final List<MetaDataOrClassFile> metadataFiles = createFilesGuiModel(discovered.getMetadataFiles());
+                        final List<MetaDataOrClassFile> annotatedClassFiles = createFilesGuiModel(discovered.getAnnotatedClassFiles());
+                        if (!metadataFiles.isEmpty() || !annotatedClassFiles.isEmpty()) {
+                            this.report(new Runnable() {
+                                public void run() {
+                                    DNEGuiStateLoader.this.listener.filesDiscovered(metadataFiles, annotatedClassFiles);
+                                }
+                            });
+                        }
+                    }
+                }
+            }
+        } catch (IndexNotReadyException ignored) {
+            // indexing started again, detection stays unfinished (gui keeps displaying the index not ready info)
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    private void checkCanceled(final ProgressIndicator indicator) {
+        if (this.cancelled) {
+            throw new ProcessCanceledException();
+        }
+        indicator.checkCanceled();
+    }
+
+    private void report(final Runnable runnable) {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                if (!DNEGuiStateLoader.this.cancelled) {
+                    runnable.run();
+                }
+            }
+        }, this.modalityState);
+    }
+
+    static List<MetaDataOrClassFile> createFilesGuiModel(final Map<Module, List<VirtualMetadataFile>> metaDataOrAnnotatedClassFiles) {
+        final List<MetaDataOrClassFile> metaDataOrClassFiles = new ArrayList<MetaDataOrClassFile>();
+        for (final Map.Entry<Module, List<VirtualMetadataFile>> moduleListEntry : metaDataOrAnnotatedClassFiles.entrySet()) {
+            for (final VirtualMetadataFile vf : moduleListEntry.getValue()) {
+                for (final String mfClassName : vf.getClassNames()) {
+                    final Module moduleListEntryKey = moduleListEntry.getKey();
+                    metaDataOrClassFiles.add(new MetaDataOrClassFile(moduleListEntryKey.getName(),
+                                                                     vf.getDisplayFilename(),
+                                                                     vf.getDisplayPath(),
+                                                                     mfClassName));
+                }
+            }
+        }
+        return metaDataOrClassFiles;
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Receives loading results, all methods are called on the event dispatch thread.
+     */
+    interface Listener {
+
+        void moduleDetected(@NotNull AffectedModule affectedModule);
+
+        void moduleDetectionFinished(@NotNull Collection<String> affectedModuleNames);
+
+        void filesDiscovered(@NotNull List<MetaDataOrClassFile> metadataFiles, @NotNull List<MetaDataOrClassFile> annotatedClassFiles);
+
+    }
+
+}
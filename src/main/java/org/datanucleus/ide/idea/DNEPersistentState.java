@@ -66,6 +66,18 @@ public class DNEPersistentState { // has to be public (for IDEA configuration ac
 
     private Collection<String> dependencies = new ArrayList<String>();
 
+    private int enhancerWorkerCount = DNEState.DEFAULT_ENHANCER_WORKER_COUNT;
+
+    private boolean enhanceInMemory = false;
+
+    private boolean enhancerDaemon = false;
+
+    private String enhancerDaemonVmOptions = DNEState.DEFAULT_ENHANCER_DAEMON_VM_OPTIONS;
+
+    private int enhancerDaemonIdleMinutes = DNEState.DEFAULT_ENHANCER_DAEMON_IDLE_MINUTES;
+
+    private String enhancerVerbosity = DNEState.DEFAULT_ENHANCER_VERBOSITY.name();
+
     //
     // Accessors
     //
@@ -148,6 +160,54 @@ public class DNEPersistentState { // has to be public (for IDEA configuration ac
         this.dependencies = new LinkedHashSet<String>(dependencies == null ? Collections.<String>emptyList() : dependencies);
     }
 
+    public int getEnhancerWorkerCount() {
+        return this.enhancerWorkerCount;
+    }
+
+    public void setEnhancerWorkerCount(final int enhancerWorkerCount) {
+        this.enhancerWorkerCount = enhancerWorkerCount;
+    }
+
+    public boolean isEnhanceInMemory() {
+        return this.enhanceInMemory;
+    }
+
+    public void setEnhanceInMemory(final boolean enhanceInMemory) {
+        this.enhanceInMemory = enhanceInMemory;
+    }
+
+    public boolean isEnhancerDaemon() {
+        return this.enhancerDaemon;
+    }
+
+    public void setEnhancerDaemon(final boolean enhancerDaemon) {
+        this.enhancerDaemon = enhancerDaemon;
+    }
+
+    public String getEnhancerDaemonVmOptions() {
+        return this.enhancerDaemonVmOptions;
+    }
+
+    public void setEnhancerDaemonVmOptions(final String enhancerDaemonVmOptions) {
+        this.enhancerDaemonVmOptions = enhancerDaemonVmOptions;
+    }
+
+    public int getEnhancerDaemonIdleMinutes() {
+        return this.enhancerDaemonIdleMinutes;
+    }
+
+    public void setEnhancerDaemonIdleMinutes(final int enhancerDaemonIdleMinutes) {
+        this.enhancerDaemonIdleMinutes = enhancerDaemonIdleMinutes;
+    }
+
+    public String getEnhancerVerbosity() {
+        return this.enhancerVerbosity;
+    }
+
+    public void setEnhancerVerbosity(final String enhancerVerbosity) {
+        this.enhancerVerbosity = enhancerVerbosity;
+    }
+
     Collection<DNEPersistentState.DependencyEntry> getDependencyEntries() {
         final Collection<DNEPersistentState.DependencyEntry> dependencyEntries =
                 new LinkedHashSet<DNEPersistentState.DependencyEntry>();
@@ -242,7 +302,14 @@ public class DNEPersistentState { // has to be public (for IDEA configuration ac
         }
 
         this.setDependencyEntries(dependencyEntries);
-        
+
+        this.enhancerWorkerCount = state.getEnhancerWorkerCount();
+        this.enhanceInMemory = state.isEnhanceInMemory();
+        this.enhancerDaemon = state.isEnhancerDaemon();
+        this.enhancerDaemonVmOptions = state.getEnhancerDaemonVmOptions();
+        this.enhancerDaemonIdleMinutes = state.getEnhancerDaemonIdleMinutes();
+        this.enhancerVerbosity = state.getEnhancerVerbosity().name();
+
         return this;
     }
 
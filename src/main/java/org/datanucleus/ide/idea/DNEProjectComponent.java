@@ -25,7 +25,6 @@ import javax.swing.JOptionPane;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -33,7 +32,9 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.intellij.ProjectTopics;
 import com.intellij.compiler.CompilerConfiguration;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.compiler.CompilerManager;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.components.PersistentStateComponent;
@@ -42,13 +43,17 @@ import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.components.StorageScheme;
 import com.intellij.openapi.extensions.ExtensionPointName;
 import com.intellij.openapi.extensions.Extensions;
-import com.intellij.openapi.module.Module;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.options.ConfigurationException;
-import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.util.messages.MessageBusConnection;
 
+import org.datanucleus.ide.idea.integration.ClassLoaderFactory;
 import org.datanucleus.ide.idea.integration.EnhancerSupport;
 import org.datanucleus.ide.idea.ui.AffectedModule;
 import org.datanucleus.ide.idea.ui.ConfigForm;
@@ -58,6 +63,7 @@ import org.datanucleus.ide.idea.ui.MetaDataOrClassFile;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Component registering the enhancer computable and handling the plugin's state
@@ -97,8 +103,39 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
      */
     private DNEComputable dNEComputable = null;
 
+    /**
+     * Persistent index of metadata files and annotated classes (created on project opening)
+     */
+    private MetadataIndex metadataIndex = null;
+
+    /**
+     * Enhancer proxy constructor generations that worked, per enhancer support
+     */
+    private final EnhancerProxyGenerations enhancerProxyGenerations = new EnhancerProxyGenerations();
+
+    /**
+     * Files generated by the compilers in the current compile session
+     */
+    private final CompiledFilesTracker compiledFilesTracker = new CompiledFilesTracker();
+
+    /**
+     * Enhancer lookup results per module (invalidated on root changes)
+     */
+    private final EnhancerPresenceCache enhancerPresenceCache = new EnhancerPresenceCache();
+
     private ConfigForm configGuiForm = null;
 
+    /**
+     * Background loader of the gui's module and file lists (null if not loading)
+     */
+    private DNEGuiStateLoader guiStateLoader = null;
+
+    /**
+     * Indicator if enabled modules have to be filtered by enhancer support after changed settings
+     * (done as soon as the affected modules are detected in background)
+     */
+    private boolean enabledModulesFilterPending = false;
+
     //
     // Constructor
     //
@@ -125,10 +162,45 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
     @Override
     public void projectOpened() {
         super.projectOpened();
-        this.dNEComputable = new DNEComputable(this.project, DNEProjectComponent.this.state);
+        this.metadataIndex = new MetadataIndex(this.project);
+        this.metadataIndex.load();
+
+        // keep index up to date
+        final MessageBusConnection connection = this.project.getMessageBus().connect(this.project);
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, this.metadataIndex);
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
+            @Override
+            public void rootsChanged(final ModuleRootEvent event) {
+                DNEProjectComponent.this.metadataIndex.invalidateAnnotatedClasses();
+                ClassLoaderFactory.invalidateCache(DNEProjectComponent.this.project);
+                DNEProjectComponent.this.enhancerProxyGenerations.invalidate();
+                DNEProjectComponent.this.enhancerPresenceCache.invalidate();
+            }
+        });
+
+        this.dNEComputable = new DNEComputable(this.project,
+                                               DNEProjectComponent.this.state,
+                                               this.metadataIndex,
+                                               this.enhancerProxyGenerations,
+                                               this.compiledFilesTracker);
         // run enhancer after compilation
         final CompilerManager compilerManager = CompilerManager.getInstance(this.project);
         compilerManager.addCompiler(this.dNEComputable);
+        // track compiled classes to restrict enhancement to those
+        compilerManager.addBeforeTask(this.compiledFilesTracker);
+        compilerManager.addCompilationStatusListener(this.compiledFilesTracker);
+    }
+
+    @Override
+    public void projectClosed() {
+        if (this.metadataIndex != null) {
+            this.metadataIndex.save();
+        }
+        this.enhancerProxyGenerations.invalidate();
+        ClassLoaderFactory.invalidateCache(this.project);
+        this.cancelGuiStateLoader();
+        CompilerManager.getInstance(this.project).removeCompilationStatusListener(this.compiledFilesTracker);
+        super.projectClosed();
     }
 
     @NonNls
@@ -234,18 +306,29 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
 
     public void reset() {
         this.configGuiForm.setData(this.getGuiState());
+        this.startGuiStateLoader(this.configGuiForm);
     }
 
     public void disposeUIResources() {
+        this.cancelGuiStateLoader();
         this.configGuiForm = null;
+        if (this.enabledModulesFilterPending) {
+            // gui closed before affected modules were detected, detect modules only
+            this.startGuiStateLoader(null);
+        }
     }
 
     //
     // Gui interface
     //
 
+    /**
+     * Get the gui state without module and file lists, those are loaded in background
+     * (see {@link #startGuiStateLoader(ConfigForm)}).
+     *
+     * @return .
+     */
     private GuiState getGuiState() {
-        boolean indexReady = false;
         final boolean enhancerEnabled = this.state.isEnhancerEnabled();
         final String metaDataExtension = getMetaDataExtensionsString(this.state.getMetaDataExtensions());
         final boolean addToCompilerResourcePatterns = this.state.isAddToCompilerResourcePatterns();
@@ -254,22 +337,9 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
         final EnhancerSupport enhancerSupport = this.state.getEnhancerSupport();
         final PersistenceApi api = this.state.getApi() == null
                 ? enhancerSupport.getDefaultPersistenceApi() : this.state.getApi();
-        List<AffectedModule> affectedModules;
-        List<MetaDataOrClassFile> metaDataFiles;
-        List<MetaDataOrClassFile> annotatedClassFiles;
-        try {
-            affectedModules = this.getAffectedModulesGuiModel();
-            metaDataFiles = this.createMetadataFilesGuiModel();
-            annotatedClassFiles = this.createAnnotatedClassFilesGuiModel();
-            indexReady = true;
-        } catch (IndexNotReadyException ignored) {
-            affectedModules = new ArrayList<AffectedModule>(0);
-            metaDataFiles = new ArrayList<MetaDataOrClassFile>(0);
-            annotatedClassFiles = new ArrayList<MetaDataOrClassFile>(0);
-        }
         final boolean dependenciesManual = this.state.isDependenciesManual();
         final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies = this.state.getDependencies();
-        return new GuiState(indexReady,
+        return new GuiState(false,
                             enhancerEnabled,
                             metaDataExtension,
                             addToCompilerResourcePatterns,
@@ -278,11 +348,14 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
                             api,
                             this.state.getEnhancerSupportRegistry(),
                             enhancerSupport,
-                            affectedModules,
-                            metaDataFiles,
-                            annotatedClassFiles,
+                            new ArrayList<AffectedModule>(0),
+                            new ArrayList<MetaDataOrClassFile>(0),
+                            new ArrayList<MetaDataOrClassFile>(0),
                             dependenciesManual,
-                            dependencies);
+                            dependencies,
+                            this.state.isEnhancerDaemon(),
+                            this.state.getEnhancerDaemonVmOptions(),
+                            this.state.getEnhancerDaemonIdleMinutes());
     }
 
     private void setGuiState(final GuiState guiState) {
@@ -293,6 +366,18 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
         final PersistenceApi api = guiState.getApi();
         final EnhancerSupport enhancerSupport = guiState.getEnhancerSupport();
         final Set<String> enabledModules = getEnabledModulesFromGuiModel(guiState.getAffectedModules());
+        if (!guiState.isIndexReady()) {
+            // module detection not finished -> keep enabled modules not (yet) displayed
+            final Set<String> displayedModules = new HashSet<String>();
+            for (final AffectedModule affectedModule : guiState.getAffectedModules()) {
+                displayedModules.add(affectedModule.getName());
+            }
+            for (final String enabledModule : this.state.getEnabledModules()) {
+                if (!displayedModules.contains(enabledModule)) {
+                    enabledModules.add(enabledModule);
+                }
+            }
+        }
         final boolean dependenciesManual = guiState.isDependenciesManual();
         final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies = guiState.getDependencies();
         final DNEState updateState =
@@ -304,44 +389,84 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
                              api,
                              enhancerSupport,
                              dependenciesManual,
-                             dependencies);
+                             dependencies,
+                             this.state.getEnhancerWorkerCount(),
+                             this.state.isEnhanceInMemory(),
+                             guiState.isEnhancerDaemon(),
+                             guiState.getEnhancerDaemonVmOptions(),
+                             guiState.getEnhancerDaemonIdleMinutes(),
+                             this.state.getEnhancerVerbosity());
+        final boolean affectedModulesUpToDate = guiState.isIndexReady()
+                && enhancerSupport.getId().equals(this.state.getEnhancerSupport().getId())
+                && dependenciesManual == this.state.isDependenciesManual();
         this.state.copyFrom(updateState);
-        // TODO: hack to filter modules not supported by enhancer (filtering only possible after updating the state with enhancer settings)
-        this.filterEnhancerSupportedModules();
+        // filter modules not supported by enhancer (filtering only possible after detecting the affected modules with
+        // the updated enhancer settings, done in background), the displayed modules are up to date otherwise
+        if (!affectedModulesUpToDate) {
+            this.enabledModulesFilterPending = true;
+        }
     }
 
     //
     // Gui model helper methods
     //
 
-    private void filterEnhancerSupportedModules() {
-        // TODO: hack to filter modules not supported by enhancer (filtering only possible after updating the state with enhancer settings)
-        final List<AffectedModule> affectedModulesGuiModel = getAffectedModulesGuiModel();
-        final Collection<String> filter = new HashSet<String>(affectedModulesGuiModel.size());
-        for (final AffectedModule affectedModule : affectedModulesGuiModel) {
-            filter.add(affectedModule.getName());
+    private void startGuiStateLoader(@Nullable final ConfigForm configForm) {
+        this.cancelGuiStateLoader();
+
+        final ModalityState modalityState = configForm == null
+                ? ModalityState.NON_MODAL : ModalityState.stateForComponent(configForm.getRootComponent());
+        final DNEGuiStateLoader loader = new DNEGuiStateLoader(this.project,
+                                                               this.enhancerPresenceCache,
+                                                               this.state.getEnhancerSupport(),
+                                                               this.state.isDependenciesManual(),
+                                                               this.state.getEnabledModules(),
+                                                               configForm == null ? null : this.dNEComputable,
+                                                               modalityState,
+                                                               new DNEGuiStateLoader.Listener() {
+            public void moduleDetected(@NotNull final AffectedModule affectedModule) {
+                if (configForm != null) {
+                    configForm.addAffectedModule(affectedModule);
+                }
+            }
+
+            public void moduleDetectionFinished(@NotNull final Collection<String> affectedModuleNames) {
+                if (DNEProjectComponent.this.enabledModulesFilterPending) {
+                    DNEProjectComponent.this.filterEnhancerSupportedModules(affectedModuleNames);
+                }
+                if (configForm != null) {
+                    configForm.setIndexReady();
+                }
+            }
+
+            public void filesDiscovered(@NotNull final List<MetaDataOrClassFile> metadataFiles,
+                                        @NotNull final List<MetaDataOrClassFile> annotatedClassFiles) {
+                if (configForm != null) {
+                    configForm.addMetadataAndClassFiles(metadataFiles, annotatedClassFiles);
+                }
+            }
+        });
+        this.guiStateLoader = loader;
+        ProgressManager.getInstance().run(loader);
+    }
+
+    private void cancelGuiStateLoader() {
+        if (this.guiStateLoader != null) {
+            this.guiStateLoader.cancel();
+            this.guiStateLoader = null;
         }
+    }
 
-        final Collection<String> enhancerSupportedModules = new LinkedHashSet<String>(affectedModulesGuiModel.size());
+    private void filterEnhancerSupportedModules(final Collection<String> affectedModuleNames) {
+        final Collection<String> enhancerSupportedModules = new LinkedHashSet<String>(affectedModuleNames.size());
         for (final String enabledModule : this.state.getEnabledModules()) {
-            if (this.state.isDependenciesManual() || filter.contains(enabledModule)) {
+            if (this.state.isDependenciesManual() || affectedModuleNames.contains(enabledModule)) {
                 enhancerSupportedModules.add(enabledModule);
             }
         }
 
         this.state.setEnabledModules(enhancerSupportedModules);
-    }
-
-    private List<AffectedModule> getAffectedModulesGuiModel() {
-        final List<AffectedModule> moduleList = new ArrayList<AffectedModule>();
-        final List<Module> affectedModules = IdeaProjectUtils.getDefaultAffectedModules(this.state.getEnhancerSupport(), this.project, this.state.isDependenciesManual());
-
-        for (final Module module : affectedModules) {
-            final Set<String> enabledModules = this.state.getEnabledModules();
-            final boolean enabled = enabledModules != null && enabledModules.contains(module.getName());
-            moduleList.add(new AffectedModule(enabled, module.getName()));
-        }
-        return moduleList;
+        this.enabledModulesFilterPending = false;
     }
 
     private static Set<String> getEnabledModulesFromGuiModel(final Iterable<AffectedModule> affectedModules) {
@@ -356,38 +481,6 @@ public class DNEProjectComponent extends AbstractProjectComponent implements Con
         return enabledModules;
     }
 
-    private List<MetaDataOrClassFile> createMetadataFilesGuiModel() {
-        final Map<Module, List<VirtualMetadataFile>> metaDataFiles =
-                this.dNEComputable == null ? new LinkedHashMap<Module, List<VirtualMetadataFile>>()
-                        : this.dNEComputable.getMetadataFiles(null);
-        return createFilesGuiModel(metaDataFiles);
-    }
-
-    private List<MetaDataOrClassFile> createAnnotatedClassFilesGuiModel() {
-        final Map<Module, List<VirtualMetadataFile>> annotatedClassFiles =
-                this.dNEComputable == null ? new LinkedHashMap<Module, List<VirtualMetadataFile>>()
-                        : this.dNEComputable.getAnnotatedClassFiles(null);
-        return createFilesGuiModel(annotatedClassFiles);
-    }
-
-    private static List<MetaDataOrClassFile> createFilesGuiModel(final Map<Module,
-            List<VirtualMetadataFile>> metaDataOrAnnotatedClassFiles) {
-
-        final List<MetaDataOrClassFile> metaDataOrClassFiles = new ArrayList<MetaDataOrClassFile>();
-        for (final Map.Entry<Module, List<VirtualMetadataFile>> moduleListEntry : metaDataOrAnnotatedClassFiles.entrySet()) {
-            for (final VirtualMetadataFile vf : moduleListEntry.getValue()) {
-                for (final String mfClassName : vf.getClassNames()) {
-                    final Module moduleListEntryKey = moduleListEntry.getKey();
-                    metaDataOrClassFiles.add(new MetaDataOrClassFile(moduleListEntryKey.getName(),
-                                                                     vf.getDisplayFilename(),
-                                                                     vf.getDisplayPath(),
-                                                                     mfClassName));
-                }
-            }
-        }
-        return metaDataOrClassFiles;
-    }
-
     private static String getMetaDataExtensionsString(final Collection<String> extensions) {
         final StringBuilder sb = new StringBuilder();
         int count = 0;
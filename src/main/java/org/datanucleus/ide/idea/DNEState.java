@@ -33,6 +33,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 
 import org.datanucleus.ide.idea.integration.EnhancerSupport;
 import org.datanucleus.ide.idea.integration.EnhancerSupportVersion;
+import org.datanucleus.ide.idea.integration.EnhancerVerbosity;
 
 /**
  * Holds plugin's actual state.<br/>
@@ -46,6 +47,26 @@ class DNEState {
      */
     static final Set<String> DEFAULT_METADATA_EXTENSIONS = new LinkedHashSet<String>(Arrays.asList("orm", "jdo"));
 
+    /**
+     * Default number of concurrently enhanced project modules
+     */
+    static final int DEFAULT_ENHANCER_WORKER_COUNT = 1;
+
+    /**
+     * Default VM options of the enhancer daemon
+     */
+    static final String DEFAULT_ENHANCER_DAEMON_VM_OPTIONS = "-Xmx512m";
+
+    /**
+     * Default minutes of inactivity after which the enhancer daemon exits
+     */
+    static final int DEFAULT_ENHANCER_DAEMON_IDLE_MINUTES = 15;
+
+    /**
+     * Default verbosity of the enhancer output
+     */
+    static final EnhancerVerbosity DEFAULT_ENHANCER_VERBOSITY = EnhancerVerbosity.BUFFERED;
+
     private boolean enhancerEnabled = true;
 
     private Set<String> metaDataExtensions = new LinkedHashSet<String>(Arrays.asList("jdo", "orm"));
@@ -70,6 +91,27 @@ class DNEState {
     private Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies =
             new LinkedHashMap<String, Map<PersistenceApi, List<VirtualFile>>>();
 
+    /**
+     * Number of project modules enhanced concurrently (1 for sequential enhancement)
+     */
+    private int enhancerWorkerCount = DEFAULT_ENHANCER_WORKER_COUNT;
+
+    /**
+     * Indicator if class files should be enhanced in memory and written once (if supported by the enhancer)
+     */
+    private boolean enhanceInMemory = false;
+
+    /**
+     * Indicator if the enhancer should run in a separate, long-lived JVM (DataNucleus enhancer only)
+     */
+    private boolean enhancerDaemon = false;
+
+    private String enhancerDaemonVmOptions = DEFAULT_ENHANCER_DAEMON_VM_OPTIONS;
+
+    private int enhancerDaemonIdleMinutes = DEFAULT_ENHANCER_DAEMON_IDLE_MINUTES;
+
+    private EnhancerVerbosity enhancerVerbosity = DEFAULT_ENHANCER_VERBOSITY;
+
     DNEState() {
     }
 
@@ -81,7 +123,13 @@ class DNEState {
              final PersistenceApi api,
              final EnhancerSupport enhancerSupport,
              final boolean dependenciesManual,
-             final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies) {
+             final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies,
+             final int enhancerWorkerCount,
+             final boolean enhanceInMemory,
+             final boolean enhancerDaemon,
+             final String enhancerDaemonVmOptions,
+             final int enhancerDaemonIdleMinutes,
+             final EnhancerVerbosity enhancerVerbosity) {
         this.enhancerEnabled = enhancerEnabled;
         this.metaDataExtensions = new LinkedHashSet<String>(metaDataExtensions);
         this.addToCompilerResourcePatterns = addToCompilerResourcePatterns;
@@ -91,6 +139,12 @@ class DNEState {
         this.enhancerSupport = enhancerSupport;
         this.dependenciesManual = dependenciesManual;
         this.dependencies = new LinkedHashMap<String, Map<PersistenceApi, List<VirtualFile>>>(dependencies);
+        this.setEnhancerWorkerCount(enhancerWorkerCount);
+        this.enhanceInMemory = enhanceInMemory;
+        this.enhancerDaemon = enhancerDaemon;
+        this.enhancerDaemonVmOptions = enhancerDaemonVmOptions;
+        this.setEnhancerDaemonIdleMinutes(enhancerDaemonIdleMinutes);
+        this.setEnhancerVerbosity(enhancerVerbosity);
     }
 
     public boolean isEnhancerEnabled() {
@@ -179,6 +233,54 @@ class DNEState {
         this.dependencies = new LinkedHashMap<String, Map<PersistenceApi, List<VirtualFile>>>(dependencies);
     }
 
+    public int getEnhancerWorkerCount() {
+        return this.enhancerWorkerCount;
+    }
+
+    public void setEnhancerWorkerCount(final int enhancerWorkerCount) {
+        this.enhancerWorkerCount = enhancerWorkerCount < 1 ? DEFAULT_ENHANCER_WORKER_COUNT : enhancerWorkerCount;
+    }
+
+    public boolean isEnhanceInMemory() {
+        return this.enhanceInMemory;
+    }
+
+    public void setEnhanceInMemory(final boolean enhanceInMemory) {
+        this.enhanceInMemory = enhanceInMemory;
+    }
+
+    public boolean isEnhancerDaemon() {
+        return this.enhancerDaemon;
+    }
+
+    public void setEnhancerDaemon(final boolean enhancerDaemon) {
+        this.enhancerDaemon = enhancerDaemon;
+    }
+
+    public String getEnhancerDaemonVmOptions() {
+        return this.enhancerDaemonVmOptions;
+    }
+
+    public void setEnhancerDaemonVmOptions(final String enhancerDaemonVmOptions) {
+        this.enhancerDaemonVmOptions = enhancerDaemonVmOptions;
+    }
+
+    public int getEnhancerDaemonIdleMinutes() {
+        return this.enhancerDaemonIdleMinutes;
+    }
+
+    public void setEnhancerDaemonIdleMinutes(final int enhancerDaemonIdleMinutes) {
+        this.enhancerDaemonIdleMinutes = enhancerDaemonIdleMinutes < 1 ? DEFAULT_ENHANCER_DAEMON_IDLE_MINUTES : enhancerDaemonIdleMinutes;
+    }
+
+    public EnhancerVerbosity getEnhancerVerbosity() {
+        return this.enhancerVerbosity;
+    }
+
+    public void setEnhancerVerbosity(final EnhancerVerbosity enhancerVerbosity) {
+        this.enhancerVerbosity = enhancerVerbosity == null ? DEFAULT_ENHANCER_VERBOSITY : enhancerVerbosity;
+    }
+
     /**
      * Copy method for instances of this class.
      *
@@ -194,6 +296,12 @@ class DNEState {
         this.setEnhancerSupport(state.enhancerSupport);
         this.dependenciesManual = state.dependenciesManual;
         this.setDependencies(state.dependencies);
+        this.setEnhancerWorkerCount(state.enhancerWorkerCount);
+        this.enhanceInMemory = state.enhanceInMemory;
+        this.enhancerDaemon = state.enhancerDaemon;
+        this.enhancerDaemonVmOptions = state.enhancerDaemonVmOptions;
+        this.setEnhancerDaemonIdleMinutes(state.enhancerDaemonIdleMinutes);
+        this.setEnhancerVerbosity(state.enhancerVerbosity);
     }
 
     /**
@@ -265,6 +373,23 @@ class DNEState {
             }
         }
         this.dependencies = newDependencies;
+
+        this.setEnhancerWorkerCount(state.getEnhancerWorkerCount());
+        this.enhanceInMemory = state.isEnhanceInMemory();
+        this.enhancerDaemon = state.isEnhancerDaemon();
+        this.enhancerDaemonVmOptions = state.getEnhancerDaemonVmOptions();
+        this.setEnhancerDaemonIdleMinutes(state.getEnhancerDaemonIdleMinutes());
+
+        final String enhancerVerbosityString = state.getEnhancerVerbosity();
+        EnhancerVerbosity enhancerVerbosity = DEFAULT_ENHANCER_VERBOSITY;
+        if (enhancerVerbosityString != null) {
+            try {
+                enhancerVerbosity = EnhancerVerbosity.valueOf(enhancerVerbosityString.trim().toUpperCase());
+            } catch (IllegalArgumentException ignored) {
+                // unknown value -> default
+            }
+        }
+        this.setEnhancerVerbosity(enhancerVerbosity);
     }
 
 }
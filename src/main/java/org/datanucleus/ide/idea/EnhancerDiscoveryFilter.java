@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.intellij.openapi.vfs.VirtualFile;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Restricts the enhancer item discovery to classes compiled in the current compile session
+ * (and metadata files generated in or referencing those).<br/>
+ * <br/>
+ * Compiled class names are binary names as derived from the compiler output paths and have to match exactly,
+ * as every nested class has its own class file and '$' is a valid character of class names.
+ * Source class names are the top level classes of compiled source files, their nested classes are accepted as well.
+ */
+final class EnhancerDiscoveryFilter {
+
+    private static final char NESTED_CLASS_SEPARATOR = '$';
+
+    private final Set<String> classNames;
+
+    private final Set<String> sourceClassNames;
+
+    private final Set<String> metadataFilePaths;
+
+    EnhancerDiscoveryFilter(final Collection<String> classNames, final Collection<String> metadataFilePaths) {
+        this(classNames, Collections.<String>emptyList(), metadataFilePaths);
+    }
+
+    /**
+     * @param classNames        binary names of compiled classes
+     * @param sourceClassNames  names of the top level classes of compiled source files
+     * @param metadataFilePaths paths of generated metadata files
+     */
+    EnhancerDiscoveryFilter(final Collection<String> classNames,
+                            final Collection<String> sourceClassNames,
+                            final Collection<String> metadataFilePaths) {
+        Validate.notNull(classNames, "classNames is null");
+        Validate.notNull(sourceClassNames, "sourceClassNames is null");
+        Validate.notNull(metadataFilePaths, "metadataFilePaths is null");
+        this.classNames = Collections.unmodifiableSet(new HashSet<String>(classNames));
+        this.sourceClassNames = Collections.unmodifiableSet(new HashSet<String>(sourceClassNames));
+        this.metadataFilePaths = Collections.unmodifiableSet(new HashSet<String>(metadataFilePaths));
+    }
+
+    /**
+     * @return compiled class names and top level class names of compiled source files
+     */
+    public Set<String> getClassNames() {
+        final Set<String> allClassNames = new HashSet<String>(this.classNames);
+        allClassNames.addAll(this.sourceClassNames);
+        return allClassNames;
+    }
+
+    public boolean isEmpty() {
+        return this.classNames.isEmpty() && this.sourceClassNames.isEmpty() && this.metadataFilePaths.isEmpty();
+    }
+
+    /**
+     * @param className binary class name (nested classes separated by '$')
+     * @return true if the class was compiled or is declared in a compiled source file
+     */
+    public boolean acceptsClass(final String className) {
+        if (this.classNames.contains(className) || this.sourceClassNames.contains(className)) {
+            return true;
+        }
+        // nested class of a compiled source file, any '$' may separate the top level class
+        for (int index = className.indexOf(NESTED_CLASS_SEPARATOR);
+             index > 0;
+             index = className.indexOf(NESTED_CLASS_SEPARATOR, index + 1)) {
+            if (this.sourceClassNames.contains(className.substring(0, index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param metadataFile metadata file
+     * @param classNames   names of the classes configured in the metadata file
+     * @return true if the metadata file was generated or references an accepted class
+     */
+    public boolean acceptsMetadataFile(final VirtualFile metadataFile, final Collection<String> classNames) {
+        if (this.metadataFilePaths.contains(metadataFile.getPath())) {
+            return true;
+        }
+        for (final String className : classNames) {
+            if (this.acceptsClass(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a filter containing the classes and metadata files of both filters.
+     *
+     * @param other the filter to merge with
+     * @return merged filter
+     */
+    public EnhancerDiscoveryFilter merge(final EnhancerDiscoveryFilter other) {
+        final Set<String> mergedClassNames = new HashSet<String>(this.classNames);
+        mergedClassNames.addAll(other.classNames);
+        final Set<String> mergedSourceClassNames = new HashSet<String>(this.sourceClassNames);
+        mergedSourceClassNames.addAll(other.sourceClassNames);
+        final Set<String> mergedMetadataFilePaths = new HashSet<String>(this.metadataFilePaths);
+        mergedMetadataFilePaths.addAll(other.metadataFilePaths);
+        return new EnhancerDiscoveryFilter(mergedClassNames, mergedSourceClassNames, mergedMetadataFilePaths);
+    }
+
+}
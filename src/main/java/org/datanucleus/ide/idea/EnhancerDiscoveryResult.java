@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Result of the enhancer item discovery (see {@link DNEComputable#discover(com.intellij.openapi.compiler.CompileScope,
+ * com.intellij.openapi.progress.ProgressIndicator)}): metadata files and annotated class files per module,
+ * in module order, and the metadata files that could not be parsed.
+ */
+final class EnhancerDiscoveryResult {
+
+    private final Map<Module, List<VirtualMetadataFile>> metadataFiles = new LinkedHashMap<Module, List<VirtualMetadataFile>>();
+
+    private final Map<Module, List<VirtualMetadataFile>> annotatedClassFiles = new LinkedHashMap<Module, List<VirtualMetadataFile>>();
+
+    private final Map<VirtualFile, Exception> metadataErrors = new LinkedHashMap<VirtualFile, Exception>();
+
+    @NotNull
+    public Map<Module, List<VirtualMetadataFile>> getMetadataFiles() {
+        return this.metadataFiles;
+    }
+
+    @NotNull
+    public Map<Module, List<VirtualMetadataFile>> getAnnotatedClassFiles() {
+        return this.annotatedClassFiles;
+    }
+
+    /**
+     * @return metadata files skipped due to read or parse errors, with the corresponding error
+     */
+    @NotNull
+    public Map<VirtualFile, Exception> getMetadataErrors() {
+        return this.metadataErrors;
+    }
+
+    synchronized void addMetadataFiles(@NotNull final Module module, @NotNull final Collection<VirtualMetadataFile> files) {
+        add(this.metadataFiles, module, files);
+    }
+
+    synchronized void addAnnotatedClassFiles(@NotNull final Module module, @NotNull final Collection<VirtualMetadataFile> files) {
+        add(this.annotatedClassFiles, module, files);
+    }
+
+    synchronized void addMetadataError(@NotNull final VirtualFile metadataFile, @NotNull final Exception error) {
+        this.metadataErrors.put(metadataFile, error);
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static void add(final Map<Module, List<VirtualMetadataFile>> moduleBasedFiles,
+                            final Module module,
+                            final Collection<VirtualMetadataFile> files) {
+        if (!files.isEmpty()) {
+            final List<VirtualMetadataFile> storedModuleFiles = moduleBasedFiles.get(module);
+            // if collection already exists, just add content
+            if (storedModuleFiles == null) {
+                moduleBasedFiles.put(module, new ArrayList<VirtualMetadataFile>(files));
+            } else {
+                storedModuleFiles.addAll(files);
+            }
+        }
+    }
+
+}
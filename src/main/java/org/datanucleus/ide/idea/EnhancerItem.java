@@ -19,24 +19,35 @@
 
 package org.datanucleus.ide.idea;
 
+import java.io.IOException;
+
 import com.intellij.openapi.compiler.FileProcessingCompiler;
-import com.intellij.openapi.compiler.TimestampValidityState;
 import com.intellij.openapi.compiler.ValidityState;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import org.apache.commons.lang.Validate;
+import org.datanucleus.ide.idea.util.ClassFileInfo;
+import org.datanucleus.ide.idea.util.DNEFileUtils;
+import org.datanucleus.ide.idea.util.VirtualFileUtils;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * File that is target or metadata source for the enhancement process.<br/>
  * This can be either a class file or a xml file containing persistence metadata.<br/>
  * <br/>
- * Acts as wrapper to handle validity state for incremental compilation/enhancement.
+ * Acts as wrapper to handle validity state for incremental compilation/enhancement
+ * (see {@link ContentHashValidityState}).
  * <p/>
  * TODO: seems hacky, do a complete review and cleanup
  */
 class EnhancerItem implements FileProcessingCompiler.ProcessingItem {
 
+    private static final Logger LOGGER = Logger.getInstance(EnhancerItem.class);
+
+    private static final String CLASS_FILE_EXTENSION = "class";
+
     private final VirtualMetadataFile virtualMetadata;
 
     private final VirtualFile classFile;
@@ -53,7 +64,29 @@ class EnhancerItem implements FileProcessingCompiler.ProcessingItem {
     }
 
     public ValidityState getValidityState() {
-        return new TimestampValidityState(this.classFile.getTimeStamp());
+        // read from disk, the enhancer writes class files bypassing the VFS
+        final byte[] content;
+        try {
+            content = FileUtil.loadFileBytes(VirtualFileUtils.toIOFile(this.classFile));
+        } catch (IOException e) {
+            LOGGER.warn("Could not read " + this.classFile.getPath() + " for validity state", e);
+            return ContentHashValidityState.unknown();
+        }
+
+        boolean enhanced = false;
+        if (CLASS_FILE_EXTENSION.equals(this.classFile.getExtension())) {
+            try {
+                enhanced = ClassFileInfo.read(content).isEnhanced();
+            } catch (IOException e) {
+                LOGGER.warn("Could not read class file " + this.classFile.getPath() + " for validity state", e);
+            }
+        }
+
+        final long metadataHash = this.virtualMetadata == null || this.virtualMetadata.isAnnotationBasedOnly()
+                ? 0L
+                : this.virtualMetadata.getMetadataHash();
+
+        return new ContentHashValidityState(DNEFileUtils.contentHash(content), enhanced, metadataHash);
     }
 
     public VirtualMetadataFile getVirtualMetadata() {
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.intellij.openapi.module.Module;
+
+import org.datanucleus.ide.idea.integration.EnhancerSupport;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Caches per module and enhancer support if the module (including its libraries) contains the enhancer.<br/>
+ * <br/>
+ * Has to be invalidated when module roots or libraries change, lookups made during an invalidation
+ * are not cached.
+ */
+final class EnhancerPresenceCache {
+
+    private final ConcurrentMap<String, Boolean> presence = new ConcurrentHashMap<String, Boolean>();
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Check if a module or its libraries contain one of the enhancer classes (has to be called inside a read action).
+     *
+     * @param enhancerSupport the enhancer to look for
+     * @param module          the module to check
+     * @return true if the enhancer was found
+     */
+    boolean containsEnhancer(@NotNull final EnhancerSupport enhancerSupport, @NotNull final Module module) {
+        final String key = enhancerSupport.getId() + ':' + module.getName();
+        Boolean contained = this.presence.get(key);
+        if (contained == null) {
+            final int lookupGeneration = this.generation.get();
+            contained = IdeaProjectUtils.containsEnhancer(enhancerSupport, module);
+            this.presence.put(key, contained);
+            if (lookupGeneration != this.generation.get()) {
+                // invalidated while looking up, result might be outdated
+                this.presence.remove(key, contained);
+            }
+        }
+        return contained;
+    }
+
+    void invalidate() {
+        this.generation.incrementAndGet();
+        this.presence.clear();
+    }
+
+}
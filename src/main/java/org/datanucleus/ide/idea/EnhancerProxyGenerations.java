@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Project level memory of which enhancer proxy constructor generation (V1.1.x or V1.0.x) worked per enhancer
+ * support, to avoid trying the failing generation on every build.<br/>
+ * <br/>
+ * Enhancer proxies themselves are not kept between builds, as an enhancer instance keeps class and metadata
+ * lookups of the ClassLoader it was used with.
+ */
+final class EnhancerProxyGenerations {
+
+    /**
+     * Enhancer proxy constructor generations
+     */
+    enum Generation {
+        V1_1_X, V1_0_X
+    }
+
+    //
+    // Members
+    //
+
+    private final Map<String, Generation> generations = new HashMap<String, Generation>();
+
+    //
+    // Constructor generation memory
+    //
+
+    @Nullable
+    synchronized Generation getGeneration(@NotNull final String enhancerSupportId) {
+        return this.generations.get(enhancerSupportId);
+    }
+
+    synchronized void setGeneration(@NotNull final String enhancerSupportId, @NotNull final Generation generation) {
+        this.generations.put(enhancerSupportId, generation);
+    }
+
+    synchronized void clearGeneration(@NotNull final String enhancerSupportId) {
+        this.generations.remove(enhancerSupportId);
+    }
+
+    /**
+     * Forget all remembered generations (e.g. after project roots changed).
+     */
+    synchronized void invalidate() {
+        this.generations.clear();
+    }
+
+}
@@ -19,25 +19,24 @@
 
 package org.datanucleus.ide.idea;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Set;
 
-import com.intellij.openapi.compiler.CompileScope;
-import com.intellij.openapi.compiler.CompilerManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
-import com.intellij.psi.search.searches.AllClassesSearch;
-import com.intellij.psi.search.searches.AnnotatedElementsSearch;
-import com.intellij.util.Query;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.util.Processor;
 
 import org.datanucleus.ide.idea.integration.EnhancerSupport;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Utility method collection for IDEA projects API.
@@ -57,128 +56,99 @@ final class IdeaProjectUtils {
     //
 
     /**
-     * Find modules containing the appropriate enhancer.
+     * Check if a module is affected by the enhancer (has to be called inside a read action).
      *
-     * @param enhancerSupport enum containing persistence implementation information, especially enhancer class names.
-     * @param project         the project to search in
-     * @return List of modules containing appropriate enhancers
+     * @param enhancerPresenceCache cache of enhancer lookup results
+     * @param enhancerSupport       enum containing persistence implementation information, especially enhancer class names.
+     * @param module                the module to check
+     * @param manualDependencies    if true, every module is affected (enhancer is provided manually)
+     * @return true if the module contains an appropriate enhancer or dependencies are manual
      */
-    static List<Module> getDefaultAffectedModules(final EnhancerSupport enhancerSupport, final Project project, final boolean manualDependencies) {
-        final CompilerManager compilerManager = CompilerManager.getInstance(project);
-        final CompileScope projectCompileScope = compilerManager.createProjectCompileScope(project);
-        final Module[] compileScopeAffectedModules = projectCompileScope.getAffectedModules();
-        final List<Module> affectedModules = new ArrayList<Module>(compileScopeAffectedModules.length);
-
-        //
-        // find enhancer class in module dependencies
-        if (compileScopeAffectedModules.length > 0) {
-            for (final Module affectedModule : compileScopeAffectedModules) {
-
-                if (manualDependencies) {
-                    affectedModules.add(affectedModule);
-                } else {
-                    // query for enhancer class
-                    final Query<PsiClass> psiClassQuery = createEnhancerClassQuery(enhancerSupport, affectedModule);
-
-                    // query returns results? -> enhancer present
-                    if (psiClassQuery.findFirst() != null) {
-                        affectedModules.add(affectedModule);
-                    }
-                }
+    static boolean isDefaultAffectedModule(final EnhancerPresenceCache enhancerPresenceCache,
+                                           final EnhancerSupport enhancerSupport,
+                                           final Module module,
+                                           final boolean manualDependencies) {
+        return manualDependencies || enhancerPresenceCache.containsEnhancer(enhancerSupport, module);
+    }
+
+    /**
+     * Check if a module or its libraries contain one of the enhancer classes by direct index lookup
+     * (has to be called inside a read action).
+     *
+     * @param enhancerSupport Determines which classes to search for (short or fully qualified names)
+     * @param module          Module to search in
+     * @return true if an enhancer class was found
+     */
+    static boolean containsEnhancer(final EnhancerSupport enhancerSupport, final Module module) {
+        final GlobalSearchScope scope = module.getModuleWithLibrariesScope();
+        final Project project = module.getProject();
+        for (final String enhancerClassName : enhancerSupport.getEnhancerClassNames()) {
+            final boolean found;
+            if (enhancerClassName.indexOf('.') >= 0) {
+                found = JavaPsiFacade.getInstance(project).findClass(enhancerClassName, scope) != null;
+            } else {
+                found = PsiShortNamesCache.getInstance(project).getClassesByName(enhancerClassName, scope).length > 0;
+            }
+            if (found) {
+                return true;
             }
         }
-        return affectedModules;
+        return false;
     }
 
     /**
-     * Find virtual files by extension by traversing the directory tree.
+     * Find virtual files matching any of the provided extensions in a single (iterative) traversal
+     * of the directory tree.<br/>
+     * <br/>
+     * Files are passed to the processor in depth first order, the traversal stops as soon as
+     * the processor returns false.
      *
-     * @param rootDir   the directory to start with
-     * @param extension the extension to search for
-     * @return List of virtual files matching the file extension
+     * @param rootDir    the directory to start with
+     * @param extensions the extensions to search for
+     * @param prune      directories matching this condition are not traversed (null to traverse all)
+     * @param processor  receives the files matching one of the extensions
      */
-    static List<VirtualFile> findFilesByExtension(final VirtualFile rootDir,
-                                                  final String extension) {
+    static void findFilesByExtension(final VirtualFile rootDir,
+                                     final Set<String> extensions,
+                                     @Nullable final Condition<VirtualFile> prune,
+                                     final Processor<VirtualFile> processor) {
 
-        final List<VirtualFile> children = new LinkedList<VirtualFile>();
+        if (extensions.isEmpty()) {
+            return;
+        }
 
-        // simply iterate directory for finding files
-        for (final VirtualFile entry : rootDir.getChildren()) {
+        final Deque<VirtualFile> stack = new ArrayDeque<VirtualFile>();
+        pushChildren(stack, rootDir);
+
+        while (!stack.isEmpty()) {
+            final VirtualFile entry = stack.pop();
             if (entry.isDirectory()) {
-                //
-                // recursive invocation for directories
-                children.addAll(findFilesByExtension(entry, extension));
+                if (prune == null || !prune.value(entry)) {
+                    pushChildren(stack, entry);
+                }
 
-            } else if (extension.equals(entry.getExtension())) {
+            } else if (extensions.contains(entry.getExtension())) {
                 //
                 // file with correct extension found
-                children.add(entry);
+                if (!processor.process(entry)) {
+                    return;
+                }
             }
         }
-
-        return children;
     }
 
     /**
-     * Find classes annotated with persistence relevant annotations (depends on {@link org.datanucleus.ide.idea.integration.datanuculeus.EnhancerSupportDatanucleus}).
+     * Find classes annotated with persistence relevant annotations (depends on {@link org.datanucleus.ide.idea.integration.datanuculeus.EnhancerSupportDatanucleus}),
+     * directly or via meta-annotations.<br/>
+     * <br/>
+     * Uses {@link PersistenceAnnotationIndex} to find candidate source files, has to be called inside a read action.
      *
      * @param enhancerSupport Enhancer integration to search classes for
      * @param module          Module to search in
      * @return List of virtual classes annotated with corresponding annotations
      */
     static List<PsiClass> findPersistenceAnnotatedClasses(final EnhancerSupport enhancerSupport, final Module module) {
-        final List<PsiClass> annotatedClasses = new ArrayList<PsiClass>();
-
-        for (final String annotationName : enhancerSupport.getAnnotationNames()) {
-            final Collection<PsiClass> psiClasses = findAnnotatedClasses(module, annotationName);
-            if (!psiClasses.isEmpty()) {
-                annotatedClasses.addAll(psiClasses);
-            }
-        }
-
-        return annotatedClasses;
-    }
-
-    /**
-     * Find classes annotated with provided annotation.
-     *
-     * @param module              Module to search in
-     * @param annotationClassName Fully qualified annotation class name
-     * @return List of virtual classes annotated with corresponding annotation
-     */
-    static Collection<PsiClass> findAnnotatedClasses(final Module module, final String annotationClassName) {
-        final PsiClass annotationPsiClass = findClassInModule(module, annotationClassName);
-        final Collection<PsiClass> found;
-        if (annotationPsiClass == null || !annotationPsiClass.isAnnotationType()) {
-            found = Collections.emptyList();
-        } else {
-            found = findAnnotatedClasses(module, annotationPsiClass);
-        }
-        return found;
-    }
-
-    /**
-     * Find classes annotated with provided annotation.
-     *
-     * @param module             Module to search in
-     * @param annotationPsiClass Virtual class for annotation to search for
-     * @return List of virtual classes annotated with corresponding annotation
-     */
-    static Collection<PsiClass> findAnnotatedClasses(final Module module, final PsiClass annotationPsiClass) {
-        final Query<PsiClass> pcQuery = AnnotatedElementsSearch.searchPsiClasses(annotationPsiClass, module.getModuleScope());
-        return pcQuery.findAll();
-    }
-
-    /**
-     * Find a class via fully qualified name in module.
-     *
-     * @param module    Module to search in
-     * @param className Fully qualified name of the class to search for
-     * @return Corresponding class or null
-     */
-    static PsiClass findClassInModule(final Module module, final String className) {
-        final JavaPsiFacade javaPsiFacade = JavaPsiFacade.getInstance(module.getProject());
-        return javaPsiFacade.findClass(className, module.getModuleWithDependenciesAndLibrariesScope(true));
+        return new ArrayList<PsiClass>(PersistenceAnnotationIndex.findAnnotatedClasses(module, enhancerSupport.getAnnotationNames()));
     }
 
     /**
@@ -195,31 +165,12 @@ final class IdeaProjectUtils {
     // Helper methods
     //
 
-    /**
-     * Create query for enhancer classes.
-     *
-     * @param enhancerSupport  Determines which classes to search for
-     * @param module           Module to search in
-     * @return the query
-     */
-    private static Query<PsiClass> createEnhancerClassQuery(final EnhancerSupport enhancerSupport, final Module module) {
-        return AllClassesSearch.search(module.getModuleWithLibrariesScope(), module.getProject(), new Condition<String>() {
-            public boolean value(final String s) {
-                final String[] enhancerClassNames = enhancerSupport.getEnhancerClassNames();
-                boolean equals = false;
-
-                if (s != null) {
-                    for (final String enhancerClassName : enhancerClassNames) {
-                        equals = equals || s.equals(enhancerClassName);
-                        if (equals) {
-                            break;
-                        }
-                    }
-                }
-
-                return equals;
-            }
-        });
+    private static void pushChildren(final Deque<VirtualFile> stack, final VirtualFile dir) {
+        final VirtualFile[] children = dir.getChildren();
+        // push in reverse order to traverse children in their natural order
+        for (int i = children.length - 1; i >= 0; --i) {
+            stack.push(children[i]);
+        }
     }
 
 }
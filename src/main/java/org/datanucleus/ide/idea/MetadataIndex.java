@@ -0,0 +1,626 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.Processor;
+
+import org.datanucleus.ide.idea.integration.EnhancerSupport;
+import org.datanucleus.ide.idea.util.DNEFileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Project level index of persistence metadata found in module output directories.<br/>
+ * <br/>
+ * Caches the metadata files per output directory, the content hash and declared class names per
+ * metadata file and the persistence annotated class names per module, so that a build without
+ * persistence relevant changes neither walks output directories nor parses metadata files nor
+ * searches for annotated classes.<br/>
+ * <br/>
+ * Output directory listings are invalidated by VFS change events, metadata file entries validate
+ * themselves via timestamp and -if the timestamp changed- content hash, annotated classes are
+ * validated via the PSI modification count.<br/>
+ * Metadata file entries are persisted in the IDEA system directory, output directory listings are
+ * not (files written while the IDE was closed are not reported by VFS events), each output directory
+ * is walked once per session.<br/>
+ * <br/>
+ * Outdated metadata files can be parsed in bulk (see {@link #readIfOutdated(VirtualFile)} and
+ * {@link #parse(Collection, ProgressIndicator)}), concurrently and without holding the read lock.
+ */
+final class MetadataIndex implements BulkFileListener {
+
+    private static final Logger LOGGER = Logger.getInstance(MetadataIndex.class);
+
+    private static final int STORE_VERSION = 2;
+
+    private static final char SEP = '/';
+
+    private static final ThreadFactory PARSER_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "DataNucleus Metadata Parser " + this.threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /**
+     * Directories ignored by IDEA (e.g. version control directories) can't contain metadata files
+     */
+    private static final Condition<VirtualFile> IGNORED_DIRECTORIES = new Condition<VirtualFile>() {
+        public boolean value(final VirtualFile directory) {
+            return FileTypeManager.getInstance().isFileIgnored(directory);
+        }
+    };
+
+    //
+    // Members
+    //
+
+    private final Project project;
+
+    private final File storeFile;
+
+    /**
+     * Metadata files per output directory path (relative to output directory, not persisted)
+     */
+    private final Map<String, RootEntry> roots = new HashMap<String, RootEntry>();
+
+    /**
+     * Metadata file content per metadata file path
+     */
+    private final Map<String, FileEntry> files = new HashMap<String, FileEntry>();
+
+    /**
+     * Annotated class names per module name
+     */
+    private final Map<String, AnnotatedClassesEntry> annotatedClasses = new HashMap<String, AnnotatedClassesEntry>();
+
+    //
+    // Constructor
+    //
+
+    MetadataIndex(@NotNull final Project project) {
+        this.project = project;
+        this.storeFile = new File(PathManager.getSystemPath(),
+                                  "datanucleus" + File.separator + project.getLocationHash() + ".index");
+    }
+
+    //
+    // Index access
+    //
+
+    /**
+     * Retrieve metadata files in provided output directory (traverses the directory tree only if
+     * the output directory is unknown in this session or changed).
+     *
+     * @param outputDirectory the output directory to search in
+     * @param extensions      metadata file extensions to search for
+     * @return metadata files found
+     */
+    synchronized List<VirtualFile> getMetadataFiles(@NotNull final VirtualFile outputDirectory, @NotNull final Set<String> extensions) {
+        final String rootPath = outputDirectory.getPath();
+        final RootEntry rootEntry = this.roots.get(rootPath);
+
+        List<VirtualFile> metadataFiles = null;
+        if (rootEntry != null && rootEntry.extensions.equals(extensions)) {
+            metadataFiles = resolve(outputDirectory, rootEntry.relativePaths);
+        }
+
+        if (metadataFiles == null) {
+            final List<VirtualFile> found = new ArrayList<VirtualFile>();
+            IdeaProjectUtils.findFilesByExtension(outputDirectory, extensions, IGNORED_DIRECTORIES, new Processor<VirtualFile>() {
+                public boolean process(final VirtualFile metadataFile) {
+                    return found.add(metadataFile);
+                }
+            });
+            metadataFiles = found;
+
+            final List<String> relativePaths = new ArrayList<String>(metadataFiles.size());
+            for (final VirtualFile metadataFile : metadataFiles) {
+                relativePaths.add(metadataFile.getPath().substring(rootPath.length() + 1));
+            }
+            this.roots.put(rootPath, new RootEntry(new LinkedHashSet<String>(extensions), relativePaths));
+        }
+
+        return metadataFiles;
+    }
+
+    /**
+     * Retrieve class names declared in provided metadata file (parses the file only if it's
+     * unknown or it's content changed).
+     *
+     * @param metadataFile the metadata file
+     * @return class names declared in metadata file
+     * @throws Exception on read or parse errors
+     */
+    synchronized Set<String> getClassNames(@NotNull final VirtualFile metadataFile) throws Exception {
+        return getFileEntry(metadataFile).classNames;
+    }
+
+    /**
+     * Retrieve the content hash of provided metadata file (see {@link #getClassNames(com.intellij.openapi.vfs.VirtualFile)}).
+     *
+     * @param metadataFile the metadata file
+     * @return content hash of metadata file
+     * @throws Exception on read or parse errors
+     */
+    synchronized long getContentHash(@NotNull final VirtualFile metadataFile) throws Exception {
+        return getFileEntry(metadataFile).hash;
+    }
+
+    /**
+     * Read the content of provided metadata file if it's unknown or changed, to be parsed via
+     * {@link #parse(Collection, ProgressIndicator)} (has to be called inside a read action).
+     *
+     * @param metadataFile the metadata file
+     * @return the file content, null if the cached entry is up to date
+     * @throws IOException on read errors
+     */
+    @Nullable
+    synchronized MetadataFileContent readIfOutdated(@NotNull final VirtualFile metadataFile) throws IOException {
+        final long timestamp = metadataFile.getTimeStamp();
+        final long length = metadataFile.getLength();
+
+        final FileEntry fileEntry = this.files.get(metadataFile.getPath());
+        if (fileEntry != null && fileEntry.timestamp == timestamp && fileEntry.length == length) {
+            return null;
+        }
+        return new MetadataFileContent(metadataFile, timestamp, length, metadataFile.contentsToByteArray());
+    }
+
+    /**
+     * Parse provided metadata file contents concurrently (bounded by the number of processors) and
+     * update the index, parsing is done without holding the index lock and must not be called inside a read action.
+     *
+     * @param contents          metadata file contents as read by {@link #readIfOutdated(VirtualFile)}
+     * @param progressIndicator checked for cancellation (null if not cancellable)
+     * @return parse errors per metadata file in the order of provided contents, files with errors are not updated
+     * @throws InterruptedException if interrupted while waiting for the parser threads
+     */
+    @NotNull
+    Map<VirtualFile, Exception> parse(@NotNull final Collection<MetadataFileContent> contents,
+                                      @Nullable final ProgressIndicator progressIndicator) throws InterruptedException {
+        final Map<VirtualFile, Exception> errors = new LinkedHashMap<VirtualFile, Exception>();
+        if (contents.isEmpty()) {
+            return errors;
+        }
+
+        final int workerCount = Math.max(1, Math.min(contents.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount, PARSER_THREAD_FACTORY);
+        try {
+            final Map<MetadataFileContent, Future<?>> futures = new LinkedHashMap<MetadataFileContent, Future<?>>();
+            for (final MetadataFileContent content : contents) {
+                futures.put(content, executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        if (progressIndicator == null || !progressIndicator.isCanceled()) {
+                            MetadataIndex.this.update(content);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Map.Entry<MetadataFileContent, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    errors.put(future.getKey().file, cause instanceof Exception ? (Exception) cause : e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return errors;
+    }
+
+    /**
+     * Retrieve fully qualified names of classes annotated with persistence related annotations
+     * (searches only if the PSI modification count changed, which unlike the java structure modification
+     * count includes annotation edits, the search itself is a {@link PersistenceAnnotationIndex} lookup).<br/>
+     * <br/>
+     * Has to be called inside a read action.
+     *
+     * @param enhancerSupport enhancer support providing the annotations to search for
+     * @param module          the module to search in
+     * @return fully qualified class names
+     */
+    synchronized List<String> getAnnotatedClassNames(@NotNull final EnhancerSupport enhancerSupport, @NotNull final Module module) {
+        final long modificationCount = PsiManager.getInstance(this.project).getModificationTracker().getModificationCount();
+        final String enhancerSupportId = enhancerSupport.getId();
+        final AnnotatedClassesEntry entry = this.annotatedClasses.get(module.getName());
+
+        if (entry != null && entry.modificationCount == modificationCount && entry.enhancerSupportId.equals(enhancerSupportId)) {
+            return entry.classNames;
+        }
+
+        final List<PsiClass> psiClasses = IdeaProjectUtils.findPersistenceAnnotatedClasses(enhancerSupport, module);
+        final List<String> classNames = new ArrayList<String>(psiClasses.size());
+        for (final PsiClass psiClass : psiClasses) {
+            classNames.add(psiClass.getQualifiedName());
+        }
+        final List<String> unmodifiableClassNames = Collections.unmodifiableList(classNames);
+        this.annotatedClasses.put(module.getName(), new AnnotatedClassesEntry(modificationCount, enhancerSupportId, unmodifiableClassNames));
+
+        return unmodifiableClassNames;
+    }
+
+    /**
+     * Drop cached annotated classes (e.g. after module roots changed).
+     */
+    synchronized void invalidateAnnotatedClasses() {
+        this.annotatedClasses.clear();
+    }
+
+    //
+    // BulkFileListener interface implementation
+    //
+
+    public void before(@NotNull final List<? extends VFileEvent> events) {
+        // nothing to do
+    }
+
+    public synchronized void after(@NotNull final List<? extends VFileEvent> events) {
+        if (this.roots.isEmpty() && this.files.isEmpty()) {
+            return;
+        }
+        for (final VFileEvent event : events) {
+            if (event instanceof VFileContentChangeEvent) {
+                // file entries validate themselves, listing unaffected
+                continue;
+            }
+
+            if (event instanceof VFileCreateEvent) {
+                final VFileCreateEvent createEvent = (VFileCreateEvent) event;
+                this.invalidate(createEvent.getPath(), createEvent.isDirectory());
+
+            } else if (event instanceof VFileDeleteEvent) {
+                final VirtualFile file = ((VFileDeleteEvent) event).getFile();
+                this.invalidate(event.getPath(), file.isDirectory());
+
+            } else if (event instanceof VFileCopyEvent) {
+                final VFileCopyEvent copyEvent = (VFileCopyEvent) event;
+                final String newPath = copyEvent.getNewParent().getPath() + SEP + copyEvent.getNewChildName();
+                this.invalidate(newPath, copyEvent.getFile().isDirectory());
+
+            } else if (event instanceof VFileMoveEvent) {
+                final VFileMoveEvent moveEvent = (VFileMoveEvent) event;
+                final VirtualFile file = moveEvent.getFile();
+                this.invalidate(moveEvent.getOldParent().getPath() + SEP + file.getName(), file.isDirectory());
+                this.invalidate(moveEvent.getNewParent().getPath() + SEP + file.getName(), file.isDirectory());
+
+            } else if (event instanceof VFilePropertyChangeEvent) {
+                final VFilePropertyChangeEvent propertyChangeEvent = (VFilePropertyChangeEvent) event;
+                if (VirtualFile.PROP_NAME.equals(propertyChangeEvent.getPropertyName())) {
+                    final VirtualFile file = propertyChangeEvent.getFile();
+                    final VirtualFile parent = file.getParent();
+                    if (parent != null) {
+                        this.invalidate(parent.getPath() + SEP + propertyChangeEvent.getOldValue(), file.isDirectory());
+                    }
+                    this.invalidate(event.getPath(), file.isDirectory());
+                }
+            }
+        }
+    }
+
+    //
+    // Persistence
+    //
+
+    /**
+     * Load persisted index (errors are logged and lead to an empty index), output directory listings
+     * are dropped and rebuilt on first access.
+     */
+    synchronized void load() {
+        this.roots.clear();
+        this.files.clear();
+        if (!this.storeFile.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.storeFile)));
+            if (in.readInt() != STORE_VERSION) {
+                return;
+            }
+
+            final int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; ++i) {
+                final String path = in.readUTF();
+                final long timestamp = in.readLong();
+                final long length = in.readLong();
+                final long hash = in.readLong();
+                final Set<String> classNames = Collections.unmodifiableSet(new LinkedHashSet<String>(readStrings(in)));
+                this.files.put(path, new FileEntry(timestamp, length, hash, classNames));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not load metadata index from " + this.storeFile + ", rebuilding", e);
+            this.files.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Persist index (errors are logged).
+     */
+    synchronized void save() {
+        final File storeDir = this.storeFile.getParentFile();
+        if (!storeDir.isDirectory() && !storeDir.mkdirs()) {
+            LOGGER.warn("Could not create metadata index directory " + storeDir);
+            return;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.storeFile)));
+            out.writeInt(STORE_VERSION);
+
+            out.writeInt(this.files.size());
+            for (final Map.Entry<String, FileEntry> fileEntry : this.files.entrySet()) {
+                final FileEntry entry = fileEntry.getValue();
+                out.writeUTF(fileEntry.getKey());
+                out.writeLong(entry.timestamp);
+                out.writeLong(entry.length);
+                out.writeLong(entry.hash);
+                writeStrings(out, entry.classNames);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not save metadata index to " + this.storeFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    private void update(final MetadataFileContent content) throws Exception {
+        final String path = content.file.getPath();
+        final long hash = DNEFileUtils.contentHash(content.content);
+
+        final FileEntry fileEntry;
+        synchronized (this) {
+            fileEntry = this.files.get(path);
+        }
+        final Set<String> classNames;
+        if (fileEntry != null && fileEntry.hash == hash) {
+            classNames = fileEntry.classNames;
+        } else {
+            classNames = Collections.unmodifiableSet(MetadataParser.parseQualifiedClassNames(new ByteArrayInputStream(content.content)));
+        }
+        synchronized (this) {
+            this.files.put(path, new FileEntry(content.timestamp, content.length, hash, classNames));
+        }
+    }
+
+    private FileEntry getFileEntry(final VirtualFile metadataFile) throws Exception {
+        final String path = metadataFile.getPath();
+        final long timestamp = metadataFile.getTimeStamp();
+        final long length = metadataFile.getLength();
+
+        final FileEntry fileEntry = this.files.get(path);
+        if (fileEntry != null && fileEntry.timestamp == timestamp && fileEntry.length == length) {
+            return fileEntry;
+        }
+
+        final byte[] content = metadataFile.contentsToByteArray();
+        final long hash = DNEFileUtils.contentHash(content);
+
+        final Set<String> classNames;
+        if (fileEntry != null && fileEntry.hash == hash) {
+            classNames = fileEntry.classNames;
+        } else {
+            classNames = Collections.unmodifiableSet(MetadataParser.parseQualifiedClassNames(new ByteArrayInputStream(content)));
+        }
+        final FileEntry newEntry = new FileEntry(timestamp, length, hash, classNames);
+        this.files.put(path, newEntry);
+
+        return newEntry;
+    }
+
+    private void invalidate(final String path, final boolean directory) {
+        final String prefix = path + SEP;
+
+        if (!directory) {
+            this.files.remove(path);
+        } else {
+            for (final Iterator<String> it = this.files.keySet().iterator(); it.hasNext();) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+
+        for (final Iterator<Map.Entry<String, RootEntry>> it = this.roots.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, RootEntry> rootEntry = it.next();
+            final String rootPath = rootEntry.getKey();
+            final boolean inRoot = path.startsWith(rootPath + SEP);
+            final boolean containsRoot = directory && (rootPath.equals(path) || rootPath.startsWith(prefix));
+            if (containsRoot || (inRoot && (directory || rootEntry.getValue().extensions.contains(extensionOf(path))))) {
+                it.remove();
+            }
+        }
+    }
+
+    private static List<VirtualFile> resolve(final VirtualFile outputDirectory, final Collection<String> relativePaths) {
+        final List<VirtualFile> resolved = new ArrayList<VirtualFile>(relativePaths.size());
+        for (final String relativePath : relativePaths) {
+            final VirtualFile file = outputDirectory.findFileByRelativePath(relativePath);
+            if (file == null || !file.isValid()) {
+                // stale listing
+                return null;
+            }
+            resolved.add(file);
+        }
+        return resolved;
+    }
+
+    private static String extensionOf(final String path) {
+        final int nameIndex = path.lastIndexOf(SEP) + 1;
+        final int extensionIndex = path.lastIndexOf('.');
+        return extensionIndex > nameIndex ? path.substring(extensionIndex + 1) : "";
+    }
+
+    private static List<String> readStrings(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        final List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(final DataOutputStream out, final Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Content of a metadata file to be parsed, see {@link #readIfOutdated(VirtualFile)}.
+     */
+    static final class MetadataFileContent {
+
+        private final VirtualFile file;
+
+        private final long timestamp;
+
+        private final long length;
+
+        private final byte[] content;
+
+        private MetadataFileContent(final VirtualFile file, final long timestamp, final long length, final byte[] content) {
+            this.file = file;
+            this.timestamp = timestamp;
+            this.length = length;
+            this.content = content;
+        }
+    }
+
+    private static final class RootEntry {
+
+        private final Set<String> extensions;
+
+        private final List<String> relativePaths;
+
+        private RootEntry(final Set<String> extensions, final List<String> relativePaths) {
+            this.extensions = extensions;
+            this.relativePaths = relativePaths;
+        }
+    }
+
+    private static final class FileEntry {
+
+        private final long timestamp;
+
+        private final long length;
+
+        private final long hash;
+
+        private final Set<String> classNames;
+
+        private FileEntry(final long timestamp, final long length, final long hash, final Set<String> classNames) {
+            this.timestamp = timestamp;
+            this.length = length;
+            this.hash = hash;
+            this.classNames = classNames;
+        }
+    }
+
+    private static final class AnnotatedClassesEntry {
+
+        private final long modificationCount;
+
+        private final String enhancerSupportId;
+
+        private final List<String> classNames;
+
+        private AnnotatedClassesEntry(final long modificationCount, final String enhancerSupportId, final List<String> classNames) {
+            this.modificationCount = modificationCount;
+            this.enhancerSupportId = enhancerSupportId;
+            this.classNames = classNames;
+        }
+    }
+
+}
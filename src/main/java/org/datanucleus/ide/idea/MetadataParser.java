@@ -19,37 +19,47 @@
 
 package org.datanucleus.ide.idea;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.intellij.openapi.vfs.VirtualFile;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
 /**
  * Utility methods for parsing persistence metadata files (JDO and JPA).<br/>
  * <br/>
+ * Metadata files are read in a single forward pass with a StAX reader (no DOM is built),
+ * DTDs and external entities are not resolved.<br/>
+ * <br/>
  * This does not include JPA 'persistence.xml' files (see {@link #parseQualifiedClassNames(com.intellij.openapi.vfs.VirtualFile)}).
  */
 final class MetadataParser {
 
-    private static final String[] JDO_METADATA_ROOT_NODES = {"jdo", "orm"};
+    private static final Collection<String> JDO_METADATA_ROOT_NODES = new HashSet<String>(Arrays.asList("jdo", "orm"));
+
+    private static final String JDO_PACKAGE_NODE = "package";
+
+    private static final String JDO_CLASS_NODE = "class";
+
+    private static final String JDO_NAME_ATTRIBUTE = "name";
+
+    private static final String JPA_METADATA_ROOT_NODE = "entity-mappings";
+
+    private static final Collection<String> JPA_METADATA_CLASS_NODES = new HashSet<String>(Arrays.asList("entity", "mapped-superclass", "embeddable"));
 
-    private static final String[] JPA_METADATA_ROOT_NODES = {"entity", "mapped-superclass", "embeddable"};
+    private static final String JPA_CLASS_ATTRIBUTE = "class";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
 
     private MetadataParser() {
         // no instantiation allowed
@@ -59,144 +69,103 @@ final class MetadataParser {
     // Utility methods
     //
 
-    /**
-     * Load a file's content into String.
-     *
-     * @param file the file to load from
-     * @return {@link java.lang.String} containing file's content
-     * @throws IOException .
-     */
-    static String loadStringFromFile(final VirtualFile file) throws IOException {
-        return new String(file.contentsToByteArray(), file.getCharset());
-    }
-
     /**
      * Get qualified class names from metadata file (either JDO '.jdo' and '.orm' or JPA '.xml' orm file (not 'persistence.xml'!)).
      *
      * @param file the metadata file.
      * @return Unique collection of class names configured in metadata file
-     * @throws ParserConfigurationException .
-     * @throws IOException                  .
-     * @throws SAXException                 .
-     * @throws XPathExpressionException     .
+     * @throws IOException        .
+     * @throws XMLStreamException .
      */
-    static Set<String> parseQualifiedClassNames(final VirtualFile file)
-            throws ParserConfigurationException, IOException, SAXException, XPathExpressionException {
-
-        final String xml = loadStringFromFile(file);
+    static Set<String> parseQualifiedClassNames(final VirtualFile file) throws IOException, XMLStreamException {
 
-        final Document doc = createDocumentBuilderFactory(xml);
-
-        final Set<String> qualifiedClassNames = new LinkedHashSet<String>();
-
-        //
-        // parse metadata files (intentionally kept simple - no patterns)
-
-        final Set<String> qualifiedClassNamesJdo = parseQualifiedClassNamesJdo(doc);
-
-        if (qualifiedClassNamesJdo.isEmpty()) {
-            final Set<String> qualifiedClassNamesJpa = parseQualifiedClassNamesJpa(doc);
-            if (!qualifiedClassNamesJpa.isEmpty()) {
-                qualifiedClassNames.addAll(qualifiedClassNamesJpa);
-            }
-        } else {
-            qualifiedClassNames.addAll(qualifiedClassNamesJdo);
+        final InputStream in = file.getInputStream();
+        try {
+            return parseQualifiedClassNames(in);
+        } finally {
+            in.close();
         }
-
-        return qualifiedClassNames;
     }
 
-    //
-    // Helper methods
-    //
-
-    private static Set<String> parseQualifiedClassNamesJdo(final Document doc)
-            throws XPathExpressionException {
-
-        final Set<String> jpaClassNames = new LinkedHashSet<String>();
+    /**
+     * Get qualified class names from metadata file content (see {@link #parseQualifiedClassNames(com.intellij.openapi.vfs.VirtualFile)}).<br/>
+     * <br/>
+     * JDO class names are collected from 'jdo|orm/package/class' elements, JPA class names from
+     * 'entity-mappings/entity|mapped-superclass|embeddable' elements. If a file contains JDO classes,
+     * JPA classes are ignored.
+     *
+     * @param in the metadata file content, character encoding is detected by the xml parser
+     * @return Unique collection of class names configured in metadata file
+     * @throws XMLStreamException .
+     */
+    static Set<String> parseQualifiedClassNames(final InputStream in) throws XMLStreamException {
 
-        for (final String jdoMetadataRootNode : JDO_METADATA_ROOT_NODES) {
-            final Set<String> classNames = parseQualifiedClassNamesJdoInternal(doc, jdoMetadataRootNode);
-            if (!classNames.isEmpty()) {
-                jpaClassNames.addAll(classNames);
-            }
+        final XMLStreamReader reader;
+        synchronized (XML_INPUT_FACTORY) {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
         }
-        return jpaClassNames;
-    }
-
-    private static Set<String> parseQualifiedClassNamesJdoInternal(final Document doc, final String rootNodeName)
-            throws XPathExpressionException {
-
-
-        final XPathFactory factory = XPathFactory.newInstance();
-        final XPath xpath = factory.newXPath();
-        final XPathExpression expr1 = xpath.compile("//" + rootNodeName + "/package/@name");
-
-        final NodeList packageNodes = (NodeList) expr1.evaluate(doc, XPathConstants.NODESET);
 
-        final Set<String> packageAndClasses = new LinkedHashSet<String>();
-        for (int i = 0; i < packageNodes.getLength(); ++i) {
-            final Node packageNode = packageNodes.item(i);
-            final String packageName = packageNode.getNodeValue();
-
-            final XPathExpression expr2 = xpath.compile("//" + rootNodeName + "/package[@name=\"" + packageName + "\"]/class/@name");
-            final NodeList classNodes = (NodeList) expr2.evaluate(doc, XPathConstants.NODESET);
-
-            for (int j = 0; j < packageNodes.getLength(); ++j) {
-                final Node classNodeItem = classNodes.item(j);
-                final String className = classNodeItem.getNodeValue();
-
-                if (className != null) {
-                    packageAndClasses.add(packageName + '.' + className);
+        final Set<String> qualifiedClassNamesJdo = new LinkedHashSet<String>();
+        final Set<String> qualifiedClassNamesJpa = new LinkedHashSet<String>();
+
+        try {
+            // local names of all currently open elements
+            final List<String> path = new ArrayList<String>();
+            // name of the currently open JDO package (only valid at packageDepth)
+            String packageName = null;
+            int packageDepth = -1;
+            boolean jpaRoot = false;
+
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String name = reader.getLocalName();
+                    final int depth = path.size();
+                    final String parent = depth == 0 ? null : path.get(depth - 1);
+
+                    if (depth == 0) {
+                        jpaRoot = JPA_METADATA_ROOT_NODE.equals(name);
+                    } else if (JDO_PACKAGE_NODE.equals(name) && JDO_METADATA_ROOT_NODES.contains(parent)) {
+                        packageName = reader.getAttributeValue(null, JDO_NAME_ATTRIBUTE);
+                        packageDepth = depth;
+                    } else if (JDO_CLASS_NODE.equals(name) && packageName != null && depth == packageDepth + 1) {
+                        final String className = reader.getAttributeValue(null, JDO_NAME_ATTRIBUTE);
+                        if (className != null) {
+                            qualifiedClassNamesJdo.add(packageName + '.' + className);
+                        }
+                    } else if (jpaRoot && depth == 1 && JPA_METADATA_CLASS_NODES.contains(name)) {
+                        final String className = reader.getAttributeValue(null, JPA_CLASS_ATTRIBUTE);
+                        if (className != null) {
+                            qualifiedClassNamesJpa.add(className);
+                        }
+                    }
+                    path.add(name);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    path.remove(path.size() - 1);
+                    if (path.size() == packageDepth) {
+                        packageName = null;
+                        packageDepth = -1;
+                    }
                 }
             }
+        } finally {
+            reader.close();
         }
 
-        return packageAndClasses;
-    }
-
-    private static Set<String> parseQualifiedClassNamesJpa(final Document doc)
-            throws XPathExpressionException {
-
-        final Set<String> jpaClassNames = new LinkedHashSet<String>();
-
-        for (final String jpaMetadataRootNode : JPA_METADATA_ROOT_NODES) {
-            final Set<String> classNames = parseQualifiedClassNamesJpaInternal(doc, jpaMetadataRootNode);
-            if (!classNames.isEmpty()) {
-                jpaClassNames.addAll(classNames);
-            }
-        }
-        return jpaClassNames;
+        return qualifiedClassNamesJdo.isEmpty() ? qualifiedClassNamesJpa : qualifiedClassNamesJdo;
     }
 
-    private static Set<String> parseQualifiedClassNamesJpaInternal(final Document doc, final String rootNodeName)
-            throws XPathExpressionException {
-
-
-        final XPathFactory factory = XPathFactory.newInstance();
-        final XPath xpath = factory.newXPath();
-        final XPathExpression expr1 = xpath.compile("/entity-mappings/" + rootNodeName + "/@class");
-
-        final NodeList classNodes = (NodeList) expr1.evaluate(doc, XPathConstants.NODESET);
-
-        final Set<String> packageAndClasses = new LinkedHashSet<String>();
-        for (int i = 0; i < classNodes.getLength(); ++i) {
-            final Node classNodeItem = classNodes.item(i);
-            final String className = classNodeItem.getNodeValue();
-
-            if (className != null) {
-                packageAndClasses.add(className);
-            }
-        }
-
-        return packageAndClasses;
-    }
+    //
+    // Helper methods
+    //
 
-    private static Document createDocumentBuilderFactory(final String xmlMetadata)
-            throws ParserConfigurationException, SAXException, IOException {
-        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        final DocumentBuilder db = dbf.newDocumentBuilder();
-        return db.parse(new InputSource(new StringReader(xmlMetadata)));
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        return factory;
     }
 
 }
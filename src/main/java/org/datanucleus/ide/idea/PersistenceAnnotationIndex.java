@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassOwner;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.indexing.ScalarIndexExtension;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * File based index of the annotation (short) names used in java source files.<br/>
+ * <br/>
+ * Used to find the source files possibly declaring persistence annotated classes with one index query
+ * per annotation, the annotations of the classes in those files are then resolved via PSI. Annotation types
+ * annotated with a persistence annotation (meta-annotations) are followed as well: annotations used in files
+ * declaring an annotation type are additionally indexed with a separate key, so only these files are searched
+ * outside of the module.<br/>
+ * <br/>
+ * The index is updated by IDEA with every file change, so results are always up to date (outside dumb mode).
+ */
+public final class PersistenceAnnotationIndex extends ScalarIndexExtension<String> {
+
+    public static final ID<String, Void> NAME = ID.create("org.datanucleus.ide.idea.PersistenceAnnotationIndex");
+
+    private static final int VERSION = 2;
+
+    /**
+     * Prefix of the keys of annotations used in files declaring an annotation type (possible meta-annotations)
+     */
+    private static final String ANNOTATION_TYPE_KEY_PREFIX = "@interface:";
+
+    /**
+     * Matches annotation usages (simple or qualified), may match inside comments or strings (verified via PSI)
+     */
+    private static final Pattern ANNOTATION_PATTERN =
+            Pattern.compile("@\\s*([\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*(?:\\s*\\.\\s*[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)*)");
+
+    private static final Pattern QUALIFIER_PATTERN = Pattern.compile(".*[\\s.]");
+
+    private static final String ANNOTATION_TYPE_KEYWORD = "interface";
+
+    private static final DataIndexer<String, Void, FileContent> INDEXER = new DataIndexer<String, Void, FileContent>() {
+        @NotNull
+        public Map<String, Void> map(final FileContent inputData) {
+            final Matcher matcher = ANNOTATION_PATTERN.matcher(inputData.getContentAsText());
+            Map<String, Void> annotationNames = null;
+            boolean annotationType = false;
+            while (matcher.find()) {
+                final String annotationName = shortName(matcher.group(1));
+                if (ANNOTATION_TYPE_KEYWORD.equals(annotationName)) {
+                    annotationType = true;
+                } else {
+                    if (annotationNames == null) {
+                        annotationNames = new HashMap<String, Void>();
+                    }
+                    annotationNames.put(annotationName, null);
+                }
+            }
+            if (annotationNames == null) {
+                return Collections.emptyMap();
+            }
+            if (annotationType) {
+                for (final String annotationName : annotationNames.keySet().toArray(new String[annotationNames.size()])) {
+                    annotationNames.put(ANNOTATION_TYPE_KEY_PREFIX + annotationName, null);
+                }
+            }
+            return annotationNames;
+        }
+    };
+
+    private static final FileBasedIndex.InputFilter INPUT_FILTER = new FileBasedIndex.InputFilter() {
+        public boolean acceptInput(final VirtualFile file) {
+            return file.getFileType() == StdFileTypes.JAVA;
+        }
+    };
+
+    //
+    // ScalarIndexExtension implementation
+    //
+
+    @NotNull
+    @Override
+    public ID<String, Void> getName() {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, Void, FileContent> getIndexer() {
+        return INDEXER;
+    }
+
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor() {
+        return new EnumeratorStringDescriptor();
+    }
+
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+        return INPUT_FILTER;
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    //
+    // Index access
+    //
+
+    /**
+     * Find classes of a module annotated with one of provided annotations, directly or via an annotation type
+     * annotated with one of them (has to be called inside a read action, not in dumb mode).
+     *
+     * @param module          the module to search in
+     * @param annotationNames fully qualified annotation class names
+     * @return annotated (non annotation type) classes of the module, including inner classes
+     */
+    static Collection<PsiClass> findAnnotatedClasses(@NotNull final Module module, @NotNull final Collection<String> annotationNames) {
+        final FileBasedIndex fileBasedIndex = FileBasedIndex.getInstance();
+        final PsiManager psiManager = PsiManager.getInstance(module.getProject());
+
+        // meta-annotations might be declared in dependent modules, only files declaring annotation types are searched there
+        final GlobalSearchScope annotationScope = module.getModuleWithDependenciesScope();
+        final Set<String> knownAnnotationNames = new LinkedHashSet<String>(annotationNames);
+        final Deque<String> pendingAnnotationNames = new ArrayDeque<String>(annotationNames);
+        while (!pendingAnnotationNames.isEmpty()) {
+            final String annotationName = pendingAnnotationNames.poll();
+            final Collection<VirtualFile> files =
+                    fileBasedIndex.getContainingFiles(NAME, ANNOTATION_TYPE_KEY_PREFIX + shortName(annotationName), annotationScope);
+            for (final PsiClass psiClass : getClasses(psiManager, files)) {
+                collectAnnotationTypes(psiClass, annotationName, knownAnnotationNames, pendingAnnotationNames);
+            }
+        }
+
+        // candidate files of the module, each one is resolved once for all annotations it might use
+        final GlobalSearchScope moduleScope = module.getModuleScope();
+        final Map<VirtualFile, Collection<String>> annotationNamesByFile = new LinkedHashMap<VirtualFile, Collection<String>>();
+        for (final String annotationName : knownAnnotationNames) {
+            for (final VirtualFile file : fileBasedIndex.getContainingFiles(NAME, shortName(annotationName), moduleScope)) {
+                Collection<String> fileAnnotationNames = annotationNamesByFile.get(file);
+                if (fileAnnotationNames == null) {
+                    fileAnnotationNames = new HashSet<String>();
+                    annotationNamesByFile.put(file, fileAnnotationNames);
+                }
+                fileAnnotationNames.add(annotationName);
+            }
+        }
+
+        final Set<PsiClass> annotatedClasses = new LinkedHashSet<PsiClass>();
+        for (final Map.Entry<VirtualFile, Collection<String>> entry : annotationNamesByFile.entrySet()) {
+            for (final PsiClass psiClass : getClasses(psiManager, Collections.singleton(entry.getKey()))) {
+                collectAnnotatedClasses(psiClass, entry.getValue(), annotatedClasses);
+            }
+        }
+        return annotatedClasses;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static Collection<PsiClass> getClasses(final PsiManager psiManager, final Collection<VirtualFile> files) {
+        final Collection<PsiClass> classes = new LinkedHashSet<PsiClass>();
+        for (final VirtualFile file : files) {
+            final PsiFile psiFile = psiManager.findFile(file);
+            if (psiFile instanceof PsiClassOwner) {
+                Collections.addAll(classes, ((PsiClassOwner) psiFile).getClasses());
+            }
+        }
+        return classes;
+    }
+
+    private static void collectAnnotationTypes(final PsiClass psiClass,
+                                               final String annotationName,
+                                               final Set<String> knownAnnotationNames,
+                                               final Deque<String> pendingAnnotationNames) {
+        if (psiClass.isAnnotationType() && isAnnotated(psiClass, annotationName)) {
+            final String metaAnnotationName = psiClass.getQualifiedName();
+            if (metaAnnotationName != null && knownAnnotationNames.add(metaAnnotationName)) {
+                pendingAnnotationNames.add(metaAnnotationName);
+            }
+        }
+        for (final PsiClass innerClass : psiClass.getInnerClasses()) {
+            collectAnnotationTypes(innerClass, annotationName, knownAnnotationNames, pendingAnnotationNames);
+        }
+    }
+
+    private static void collectAnnotatedClasses(final PsiClass psiClass,
+                                                final Collection<String> annotationNames,
+                                                final Set<PsiClass> annotatedClasses) {
+        if (!psiClass.isAnnotationType()) {
+            for (final String annotationName : annotationNames) {
+                if (isAnnotated(psiClass, annotationName)) {
+                    annotatedClasses.add(psiClass);
+                    break;
+                }
+            }
+        }
+        for (final PsiClass innerClass : psiClass.getInnerClasses()) {
+            collectAnnotatedClasses(innerClass, annotationNames, annotatedClasses);
+        }
+    }
+
+    private static boolean isAnnotated(final PsiClass psiClass, final String annotationName) {
+        final PsiModifierList modifierList = psiClass.getModifierList();
+        return modifierList != null && modifierList.findAnnotation(annotationName) != null;
+    }
+
+    private static String shortName(final String annotationName) {
+        return QUALIFIER_PATTERN.matcher(annotationName).replaceFirst("");
+    }
+
+}
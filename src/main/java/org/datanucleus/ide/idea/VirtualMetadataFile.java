@@ -48,6 +48,8 @@ class VirtualMetadataFile {
 
     private final VirtualFile file;
 
+    private final long metadataHash;
+
     private final Collection<String> classNames;
 
     private final Collection<VirtualFile> classFiles;
@@ -59,6 +61,7 @@ class VirtualMetadataFile {
     VirtualMetadataFile(final Module module,
                                final boolean annotationBasedOnly,
                                final VirtualFile file,
+                               final long metadataHash,
                                final Collection<String> classNames,
                                final Collection<VirtualFile> classFiles) {
         Validate.notNull(module, "module is null");
@@ -68,6 +71,7 @@ class VirtualMetadataFile {
         this.module = module;
         this.annotationBasedOnly = annotationBasedOnly;
         this.file = file;
+        this.metadataHash = metadataHash;
         this.classNames = Collections.unmodifiableCollection(classNames);
         this.classFiles = Collections.unmodifiableCollection(classFiles);
 
@@ -124,10 +128,18 @@ class VirtualMetadataFile {
         return this.file;
     }
 
+    public long getMetadataHash() {
+        return this.metadataHash;
+    }
+
     public Collection<String> getClassNames() {
         return new ArrayList<String>(this.classNames);
     }
 
+    public Collection<VirtualFile> getClassFiles() {
+        return new ArrayList<VirtualFile>(this.classFiles);
+    }
+
     public String getDisplayFilename() {
         return this.displayFilename;
     }
@@ -21,30 +21,49 @@ package org.datanucleus.ide.idea.integration;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderEnumerator;
 import com.intellij.openapi.roots.ProjectRootsTraversing;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.PathUtil;
 import com.intellij.util.PathsList;
+import com.intellij.util.Processor;
 import com.intellij.util.lang.UrlClassLoader;
 
+import org.datanucleus.ide.idea.util.ClassFileInfo;
 import org.datanucleus.ide.idea.util.DNEFileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * Factory for creating ClassLoaders restricted to each provided module's dependency scope.
+ * Factory for creating ClassLoaders restricted to each provided module's dependency scope.<br/>
+ * <br/>
+ * ClassLoaders are organized in three levels: a shared ClassLoader for the plugin, enhancer and persistence
+ * API jars and the libraries they depend on (reused by all modules with the same set of these jars), a ClassLoader per module for the remaining
+ * libraries and a new ClassLoader per build for the output directories of the module and the modules it depends on.<br/>
+ * All of them look up classes only in the classpath entries containing their package, see {@link PackageIndexedClassLoader}.
  */
 public abstract class ClassLoaderFactory {
 
@@ -56,6 +75,26 @@ public abstract class ClassLoaderFactory {
 
     private static final Pattern[] VERSION_PATTERNS = {VERSION_PATTERN1, VERSION_PATTERN2, VERSION_PATTERN3};
 
+    /**
+     * Libraries containing classes in one of these packages are loaded by the shared enhancer ClassLoader,
+     * together with the libraries they reference (transitively, e.g. joda-time for datanucleus-jodatime)
+     */
+    private static final String[] ENHANCER_LIBRARY_PACKAGES = {
+            "org/datanucleus/",
+            "org/apache/openjpa/",
+            "org/objectweb/asm/",
+            "javax/jdo/",
+            "javax/persistence/",
+            "jakarta/persistence/",
+            "javax/transaction/"};
+
+    /**
+     * Library information per library fingerprint (path, size and modification time)
+     */
+    private static final Map<String, LibraryInfo> LIBRARY_INFOS = new ConcurrentHashMap<String, LibraryInfo>();
+
+    private static final LibraryInfo NO_LIBRARY_INFO = new LibraryInfo(null, false, Collections.<String>emptySet());
+
 
     private ClassLoaderFactory() {
         // prohibit instantiation
@@ -72,7 +111,16 @@ public abstract class ClassLoaderFactory {
     /**
      * Creates a new {@link ClassLoader} that includes only the dependencies
      * and output dirs in the current module's compile context (includes module dependencies
-     * and external jar dependencies).
+     * and external jar dependencies).<br/>
+     * <br/>
+     * The plugin's, the enhancer's and the persistence API jars (plus the jars they reference) are loaded by a shared ClassLoader, the module's
+     * other jar dependencies by a child of it, both are reused as long as none of their jars changes
+     * (see {@link #invalidateCache(Project)}). Output dirs are loaded by a new child ClassLoader.<br/>
+     * <br/>
+     * The returned ClassLoader has to be released via {@link #releaseClassLoader(ClassLoader)} after use.<br/>
+     * <br/>
+     * Same as {@link #newClassLoader(Project, EnhancerClasspath)} with the result of
+     * {@link #newClasspath(CompileContext, Module, Class, Collection, Collection)}.
      *
      * @param compileContext       .
      * @param module               .
@@ -82,62 +130,322 @@ public abstract class ClassLoaderFactory {
      * @return .
      * @throws java.io.IOException .
      */
-    @SuppressWarnings("deprecation") // want to stay backwards compatible at any cost
     public static ClassLoader newClassLoader(@NotNull final CompileContext compileContext,
                                              @NotNull final Module module,
                                              @Nullable final Class<?> proxyClass,
                                              @Nullable final Collection<String> excludedDependencies,
                                              @Nullable final Collection<String> enhancerDependencies) throws IOException {
 
+        return newClassLoader(module.getProject(), newClasspath(compileContext, module, proxyClass, excludedDependencies, enhancerDependencies));
+    }
+
+    /**
+     * Resolve the classpath of a ClassLoader as created by
+     * {@link #newClassLoader(CompileContext, Module, Class, Collection, Collection)}, without creating any ClassLoader.
+     *
+     * @param compileContext       .
+     * @param module               .
+     * @param proxyClass           the class of the proxy instantiating a new ClassLoader
+     * @param excludedDependencies manually excluded dependencies
+     * @param enhancerDependencies enhancer specific dependencies (equivalents in module dependencies will be excluded by simple base name approach)
+     * @return .
+     * @throws java.io.IOException .
+     */
+    @SuppressWarnings("deprecation") // want to stay backwards compatible at any cost
+    public static EnhancerClasspath newClasspath(@NotNull final CompileContext compileContext,
+                                                 @NotNull final Module module,
+                                                 @Nullable final Class<?> proxyClass,
+                                                 @Nullable final Collection<String> excludedDependencies,
+                                                 @Nullable final Collection<String> enhancerDependencies) throws IOException {
+
         final Set<String> excludedDeps = createExcludedDependencies(excludedDependencies, enhancerDependencies);
         final Set<String> excludedEnhancerDepBaseNames = createExcludedEnhancerDepBaseNames(enhancerDependencies);
 
-        final Collection<URL> urls = new LinkedList<URL>();
+        final Collection<URL> sharedUrls = new LinkedList<URL>();
+        final Collection<URL> libraryUrls = new LinkedList<URL>();
 
-        // get urls from actual class loader to be able to instantiate executors
-        final UrlClassLoader loader = (UrlClassLoader) (proxyClass == null ? ClassLoaderFactory.class.getClassLoader() : proxyClass.getClassLoader());
-        urls.addAll(loader.getUrls());
+        // get urls from actual class loader to be able to instantiate executors, executors of this plugin
+        // only need the plugin jar (other plugins' loaders might contain their enhancer libraries)
+        final ClassLoader pluginLoader = ClassLoaderFactory.class.getClassLoader();
+        final ClassLoader loader = proxyClass == null ? pluginLoader : proxyClass.getClassLoader();
+        if (loader == pluginLoader) {
+            final String pluginJarPath = PathUtil.getJarPathForClass(proxyClass == null ? ClassLoaderFactory.class : proxyClass);
+            sharedUrls.add(new File(pluginJarPath).toURI().toURL());
+        } else {
+            sharedUrls.addAll(((UrlClassLoader) loader).getUrls());
+        }
 
         final PathsList paths = ProjectRootsTraversing.collectRoots(module, ProjectRootsTraversing.PROJECT_LIBRARIES);
 
+        final Map<File, LibraryInfo> libraries = new LinkedHashMap<File, LibraryInfo>();
         for (final VirtualFile vf : paths.getVirtualFiles()) {
             final File f = new File(vf.getPath());
 
             final String normalized = DNEFileUtils.normalizePath(f.getAbsolutePath());
             final String baseNameWithoutVersion = toBasenameWithoutVersion(normalized);
             if (!excludedDeps.contains(normalized) && !excludedEnhancerDepBaseNames.contains(baseNameWithoutVersion)) {
-                final URI uri = f.toURI();
-                final URL url = uri.toURL();
-                urls.add(url);
+                libraries.put(f, getLibraryInfo(f));
+            }
+        }
+
+        final Collection<File> enhancerDependencyFiles = new LinkedList<File>();
+        if (enhancerDependencies != null && !enhancerDependencies.isEmpty()) {
+            for (final String enhancerDependency : enhancerDependencies) {
+                final File file = new File(enhancerDependency);
+                enhancerDependencyFiles.add(file.getCanonicalFile());
             }
         }
 
-        for (final VirtualFile vf : compileContext.getAllOutputDirectories()) {
+        final Set<File> sharedLibraries = resolveSharedLibraries(libraries, enhancerDependencyFiles);
+        for (final File library : libraries.keySet()) {
+            final URI uri = library.toURI();
+            final URL url = uri.toURL();
+            if (sharedLibraries.contains(library)) {
+                sharedUrls.add(url);
+            } else {
+                libraryUrls.add(url);
+            }
+        }
+        for (final File enhancerDependencyFile : enhancerDependencyFiles) {
+            final URI uri = enhancerDependencyFile.toURI();
+            final URL url = uri.toURL();
+            sharedUrls.add(url);
+        }
+
+        final Collection<URL> outputUrls = new LinkedList<URL>();
+        for (final VirtualFile vf : getOutputDirectories(compileContext, module)) {
             final File file = new File(vf.getPath());
             final File canonicalFile = file.getCanonicalFile();
             final URI uri = canonicalFile.toURI();
             final URL url = uri.toURL();
-            urls.add(url);
+            outputUrls.add(url);
         }
 
-        if (enhancerDependencies != null && !enhancerDependencies.isEmpty()) {
-            for (final String enhancerDependency : enhancerDependencies) {
-                final File file = new File(enhancerDependency);
-                final File canonicalFile = file.getCanonicalFile();
-                final URI uri = canonicalFile.toURI();
-                final URL url = uri.toURL();
-                urls.add(url);
+        return new EnhancerClasspath(sharedUrls, libraryUrls, outputUrls);
+    }
+
+    /**
+     * Creates a new {@link ClassLoader} for provided classpath, reusing the cached jar dependency ClassLoaders
+     * (see {@link #newClassLoader(CompileContext, Module, Class, Collection, Collection)}).<br/>
+     * <br/>
+     * The returned ClassLoader has to be released via {@link #releaseClassLoader(ClassLoader)} after use.
+     *
+     * @param project   the project the ClassLoaders are cached for
+     * @param classpath classpath resolved by {@link #newClasspath(CompileContext, Module, Class, Collection, Collection)}
+     * @return .
+     */
+    public static ClassLoader newClassLoader(@NotNull final Project project, @NotNull final EnhancerClasspath classpath) {
+        // about one library ClassLoader per module plus the shared ones
+        final int maxCachedClassLoaders = ModuleManager.getInstance(project).getModules().length + 1;
+
+        final ClassLoader sharedClassLoader =
+                EnhancerClassLoaderCache.acquire(project, classpath.getSharedUrls(), ClassLoader.getSystemClassLoader(), maxCachedClassLoaders);
+        final ClassLoader libraryClassLoader = classpath.getLibraryUrls().isEmpty()
+                ? sharedClassLoader
+                : EnhancerClassLoaderCache.acquire(project, classpath.getLibraryUrls(), sharedClassLoader, maxCachedClassLoaders);
+
+        LOGGER.info("ClassLoaderFactory: creating ClassLoader with classpath: " + classpath.getOutputUrls());
+        return new PackageIndexedClassLoader(classpath.getOutputUrls(), libraryClassLoader);
+    }
+
+    /**
+     * Release a ClassLoader created by {@link #newClassLoader(CompileContext, Module, Class, Collection, Collection)}
+     * after the enhancement run (ignored for other ClassLoaders).<br/>
+     * <br/>
+     * The module output ClassLoader is closed, the cached library ClassLoaders are closed once no enhancement uses them.
+     *
+     * @param classLoader the ClassLoader
+     */
+    public static void releaseClassLoader(@Nullable final ClassLoader classLoader) {
+        if (classLoader instanceof PackageIndexedClassLoader) {
+            try {
+                ((PackageIndexedClassLoader) classLoader).close();
+            } catch (IOException e) {
+                LOGGER.debug("ClassLoaderFactory: could not close ClassLoader " + classLoader, e);
             }
         }
+        for (ClassLoader current = classLoader; current != null; current = current.getParent()) {
+            EnhancerClassLoaderCache.release(current);
+        }
+    }
 
-        LOGGER.info("ClassLoaderFactory: creating ClassLoader with classpath: " + urls);
-        return new URLClassLoader(urls.toArray(new URL[urls.size()]));
+    /**
+     * Drop the reused jar dependency ClassLoaders of provided project, e.g. after its libraries or roots changed.
+     * ClassLoaders in use by a running enhancement are closed after it finished.<br/>
+     * <br/>
+     * Enhancer daemons are not affected, they are keyed by the fingerprints of their jars and exit when idle.
+     *
+     * @param project the project
+     */
+    public static void invalidateCache(@NotNull final Project project) {
+        EnhancerClassLoaderCache.invalidate(project);
     }
 
     //
     // Helper methods
     //
 
+    /**
+     * Output directories (production and test) of provided module and all modules it depends on (transitively).
+     */
+    private static Collection<VirtualFile> getOutputDirectories(final CompileContext compileContext, final Module module) {
+        final Collection<Module> modules = new LinkedHashSet<Module>();
+        OrderEnumerator.orderEntries(module).recursively().forEachModule(new Processor<Module>() {
+            public boolean process(final Module dependency) {
+                modules.add(dependency);
+                return true;
+            }
+        });
+        // the module itself is part of its order entries, but make sure its output comes first
+        modules.remove(module);
+
+        final Collection<VirtualFile> outputDirectories = new LinkedHashSet<VirtualFile>();
+        addOutputDirectories(compileContext, module, outputDirectories);
+        for (final Module dependency : modules) {
+            addOutputDirectories(compileContext, dependency, outputDirectories);
+        }
+        return outputDirectories;
+    }
+
+    private static void addOutputDirectories(final CompileContext compileContext, final Module module, final Collection<VirtualFile> outputDirectories) {
+        final VirtualFile outputDirectory = compileContext.getModuleOutputDirectory(module);
+        if (outputDirectory != null) {
+            outputDirectories.add(outputDirectory);
+        }
+        final VirtualFile testOutputDirectory = compileContext.getModuleOutputDirectoryForTests(module);
+        if (testOutputDirectory != null) {
+            outputDirectories.add(testOutputDirectory);
+        }
+    }
+
+    /**
+     * Libraries for the shared ClassLoader: the enhancer libraries and the libraries defining packages referenced
+     * by them or by the enhancer dependencies (transitively), so that e.g. a DataNucleus plugin jar in the shared
+     * ClassLoader can resolve its third party dependency.
+     */
+    private static Set<File> resolveSharedLibraries(final Map<File, LibraryInfo> libraries, final Collection<File> enhancerDependencyFiles) {
+        final Set<File> sharedLibraries = new HashSet<File>();
+        final Set<String> referencedPackages = new HashSet<String>();
+        for (final Map.Entry<File, LibraryInfo> entry : libraries.entrySet()) {
+            if (entry.getValue().isEnhancerLibrary()) {
+                sharedLibraries.add(entry.getKey());
+                referencedPackages.addAll(entry.getValue().getReferencedPackages());
+            }
+        }
+        for (final File enhancerDependencyFile : enhancerDependencyFiles) {
+            referencedPackages.addAll(getLibraryInfo(enhancerDependencyFile).getReferencedPackages());
+        }
+
+        boolean changed = !referencedPackages.isEmpty();
+        while (changed) {
+            changed = false;
+            for (final Map.Entry<File, LibraryInfo> entry : libraries.entrySet()) {
+                final LibraryInfo libraryInfo = entry.getValue();
+                if (!sharedLibraries.contains(entry.getKey()) && !Collections.disjoint(referencedPackages, libraryInfo.getPackages())) {
+                    LOGGER.debug("ClassLoaderFactory: library referenced by enhancer libraries, sharing: " + entry.getKey());
+                    sharedLibraries.add(entry.getKey());
+                    referencedPackages.addAll(libraryInfo.getReferencedPackages());
+                    changed = true;
+                }
+            }
+        }
+        return sharedLibraries;
+    }
+
+    /**
+     * Packages of provided library and whether it contains enhancer or persistence API classes (results are cached per library fingerprint).
+     */
+    private static LibraryInfo getLibraryInfo(final File library) {
+        if (!library.isFile()) {
+            return NO_LIBRARY_INFO;
+        }
+        final String fingerprint = library.getPath() + '|' + library.length() + '|' + library.lastModified();
+        LibraryInfo libraryInfo = LIBRARY_INFOS.get(fingerprint);
+        if (libraryInfo == null) {
+            libraryInfo = readLibraryInfo(library);
+            LIBRARY_INFOS.put(fingerprint, libraryInfo);
+        }
+        return libraryInfo;
+    }
+
+    private static LibraryInfo readLibraryInfo(final File library) {
+        boolean enhancerLibrary = false;
+        final Set<String> packages = new HashSet<String>();
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(library);
+            for (final Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                final String name = entries.nextElement().getName();
+                for (final String enhancerLibraryPackage : ENHANCER_LIBRARY_PACKAGES) {
+                    if (name.startsWith(enhancerLibraryPackage)) {
+                        enhancerLibrary = true;
+                    }
+                }
+                if (name.endsWith(".class")) {
+                    packages.add(packageOf(name));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("ClassLoaderFactory: could not read library " + library, e);
+        } finally {
+            if (jarFile != null) {
+                try {
+                    jarFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return new LibraryInfo(library, enhancerLibrary, packages);
+    }
+
+    /**
+     * Packages of the classes referenced by the classes of provided library, except its own packages.
+     */
+    private static Set<String> readReferencedPackages(final File library, final Set<String> ownPackages) {
+        final Set<String> referencedPackages = new HashSet<String>();
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(library);
+            for (final Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                final JarEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                final InputStream in = jarFile.getInputStream(entry);
+                try {
+                    for (final String referencedClassName : ClassFileInfo.read(FileUtil.loadBytes(in)).getReferencedClassNames()) {
+                        final String referencedPackage = packageOf(referencedClassName.substring(referencedClassName.lastIndexOf('[') + 1));
+                        if (!ownPackages.contains(referencedPackage)) {
+                            referencedPackages.add(referencedPackage);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("ClassLoaderFactory: could not read class " + entry.getName() + " of library " + library, e);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("ClassLoaderFactory: could not read library " + library, e);
+        } finally {
+            if (jarFile != null) {
+                try {
+                    jarFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return referencedPackages;
+    }
+
+    /**
+     * @return package of provided class file or (array) class name in internal form, e.g. 'org/joda/time/'
+     */
+    private static String packageOf(final String name) {
+        final String className = name.startsWith("L") && name.endsWith(";") ? name.substring(1, name.length() - 1) : name;
+        return className.substring(0, className.lastIndexOf('/') + 1);
+    }
+
     private static Set<String> createExcludedDependencies(final Collection<String> excludedDependencies,
                                                           final Collection<String> enhancerDependencies) {
         Set<String> excluded = null;
@@ -211,4 +519,48 @@ public abstract class ClassLoaderFactory {
         return reduced;
     }
 
+    //
+    // Helper classes
+    //
+
+    /**
+     * Packages of a library jar, the packages referenced by its classes are only read for enhancer and shared libraries.
+     */
+    private static final class LibraryInfo {
+
+        private final File library;
+
+        private final boolean enhancerLibrary;
+
+        private final Set<String> packages;
+
+        private volatile Set<String> referencedPackages;
+
+        private LibraryInfo(final File library, final boolean enhancerLibrary, final Set<String> packages) {
+            this.library = library;
+            this.enhancerLibrary = enhancerLibrary;
+            this.packages = packages;
+        }
+
+        boolean isEnhancerLibrary() {
+            return this.enhancerLibrary;
+        }
+
+        Set<String> getPackages() {
+            return this.packages;
+        }
+
+        Set<String> getReferencedPackages() {
+            Set<String> referencedPackages = this.referencedPackages;
+            if (referencedPackages == null) {
+                referencedPackages = this.library == null
+                        ? Collections.<String>emptySet()
+                        : readReferencedPackages(this.library, this.packages);
+                this.referencedPackages = referencedPackages;
+            }
+            return referencedPackages;
+        }
+
+    }
+
 }
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Cache of enhancer ClassLoaders for library (jar) classpaths per project, keyed by a fingerprint of the
+ * classpath (paths, sizes and modification times of all entries) and of the parent ClassLoader's classpath.<br/>
+ * <br/>
+ * Reusing a ClassLoader keeps the enhancer classes loaded (and JIT compiled) between builds.
+ * Module output directories must not be part of cached ClassLoaders as their content changes
+ * with every build.<br/>
+ * <br/>
+ * ClassLoaders are reference counted: each {@link #acquire(Project, Collection, ClassLoader, int)} has to be
+ * followed by a {@link #release(ClassLoader)} once the enhancement run is done. The cache of a project is
+ * bounded by the size requested on acquire (e.g. one entry per module), only unused ClassLoaders are evicted.
+ * Evicted or invalidated ClassLoaders are closed as soon as they are not used anymore.
+ */
+final class EnhancerClassLoaderCache {
+
+    private static final Logger LOGGER = Logger.getInstance(EnhancerClassLoaderCache.class.getName());
+
+    private static final int MIN_ENTRIES = 8;
+
+    /**
+     * Cached ClassLoaders per project, in access order
+     */
+    private static final Map<Project, Map<String, Entry>> CACHES = new HashMap<Project, Map<String, Entry>>();
+
+    /**
+     * Entries of all ClassLoaders not closed yet (cached or retired but still in use)
+     */
+    private static final Map<ClassLoader, Entry> ENTRIES = new IdentityHashMap<ClassLoader, Entry>();
+
+    private EnhancerClassLoaderCache() {
+        // prohibit instantiation
+    }
+
+    /**
+     * Get a cached ClassLoader for provided classpath and parent or create a new one if the classpath
+     * is unknown, one of its entries changed or the cached ClassLoader has another parent instance
+     * (e.g. the parent was evicted and recreated). The ClassLoader is in use until it is released.
+     *
+     * @param project    the project the ClassLoader is used for
+     * @param urls       the classpath
+     * @param parent     the parent ClassLoader (usually a cached one)
+     * @param maxEntries max. number of ClassLoaders cached for the project
+     * @return ClassLoader for provided classpath
+     */
+    @NotNull
+    static synchronized ClassLoader acquire(@NotNull final Project project,
+                                            @NotNull final Collection<URL> urls,
+                                            @NotNull final ClassLoader parent,
+                                            final int maxEntries) {
+        Map<String, Entry> cache = CACHES.get(project);
+        if (cache == null) {
+            cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+            CACHES.put(project, cache);
+        }
+
+        final String fingerprint = parent instanceof URLClassLoader && parent != ClassLoader.getSystemClassLoader()
+                ? fingerprint(Arrays.asList(((URLClassLoader) parent).getURLs())) + '>' + fingerprint(urls)
+                : fingerprint(urls);
+        Entry entry = cache.get(fingerprint);
+        if (entry != null && entry.classLoader.getParent() != parent) {
+            cache.remove(fingerprint);
+            retire(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            LOGGER.info("EnhancerClassLoaderCache: creating ClassLoader with classpath: " + urls);
+            entry = new Entry(new PackageIndexedClassLoader(urls, parent));
+            cache.put(fingerprint, entry);
+            ENTRIES.put(entry.classLoader, entry);
+            evict(cache, Math.max(maxEntries, MIN_ENTRIES));
+        }
+        ++entry.references;
+        return entry.classLoader;
+    }
+
+    /**
+     * Release a ClassLoader after use (ignored for ClassLoaders not provided by this cache).
+     *
+     * @param classLoader the ClassLoader
+     */
+    static synchronized void release(@Nullable final ClassLoader classLoader) {
+        final Entry entry = classLoader == null ? null : ENTRIES.get(classLoader);
+        if (entry != null && entry.references > 0) {
+            --entry.references;
+            if (entry.references == 0 && entry.retired) {
+                close(entry);
+            }
+        }
+    }
+
+    /**
+     * Remove all cached ClassLoaders of provided project (e.g. after its roots changed or it was closed),
+     * ClassLoaders still in use are closed when released.
+     *
+     * @param project the project
+     */
+    static synchronized void invalidate(@NotNull final Project project) {
+        final Map<String, Entry> cache = CACHES.remove(project);
+        if (cache != null) {
+            for (final Entry entry : cache.values()) {
+                retire(entry);
+            }
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    static String fingerprint(final Collection<URL> urls) {
+        final StringBuilder sb = new StringBuilder();
+        for (final URL url : urls) {
+            sb.append(url.toExternalForm());
+            final File file = toFile(url);
+            if (file != null) {
+                sb.append('|').append(file.length()).append('|').append(file.lastModified());
+            }
+            sb.append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Evict least recently used ClassLoaders not in use until the cache fits provided size.
+     */
+    private static void evict(final Map<String, Entry> cache, final int maxEntries) {
+        for (final Iterator<Entry> it = cache.values().iterator(); it.hasNext() && cache.size() > maxEntries;) {
+            final Entry entry = it.next();
+            if (entry.references == 0) {
+                it.remove();
+                retire(entry);
+            }
+        }
+    }
+
+    private static void retire(final Entry entry) {
+        entry.retired = true;
+        if (entry.references == 0) {
+            close(entry);
+        }
+    }
+
+    private static void close(final Entry entry) {
+        ENTRIES.remove(entry.classLoader);
+        try {
+            entry.classLoader.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close enhancer ClassLoader", e);
+        }
+    }
+
+    private static File toFile(final URL url) {
+        File file = null;
+        if ("file".equals(url.getProtocol())) {
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException ignored) {
+                file = new File(url.getPath());
+            } catch (IllegalArgumentException ignored) {
+                file = new File(url.getPath());
+            }
+        }
+        return file;
+    }
+
+    //
+    // Helper classes
+    //
+
+    private static final class Entry {
+
+        private final URLClassLoader classLoader;
+
+        /**
+         * Number of enhancement runs using the ClassLoader
+         */
+        private int references = 0;
+
+        /**
+         * Removed from the cache, closed when not used anymore
+         */
+        private boolean retired = false;
+
+        private Entry(final URLClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Classpath of a module's enhancer ClassLoader as resolved by {@link ClassLoaderFactory}, split into
+ * the levels of the ClassLoader hierarchy (shared enhancer jars, other module libraries, output directories).<br/>
+ * <br/>
+ * Creating it does not open any ClassLoader, so an enhancer daemon can be chosen (and sent the paths)
+ * before any in-process ClassLoader is built.
+ */
+public final class EnhancerClasspath {
+
+    private final Collection<URL> sharedUrls;
+
+    private final Collection<URL> libraryUrls;
+
+    private final Collection<URL> outputUrls;
+
+    EnhancerClasspath(@NotNull final Collection<URL> sharedUrls,
+                      @NotNull final Collection<URL> libraryUrls,
+                      @NotNull final Collection<URL> outputUrls) {
+        this.sharedUrls = Collections.unmodifiableCollection(new ArrayList<URL>(sharedUrls));
+        this.libraryUrls = Collections.unmodifiableCollection(new ArrayList<URL>(libraryUrls));
+        this.outputUrls = Collections.unmodifiableCollection(new ArrayList<URL>(outputUrls));
+    }
+
+    /**
+     * @return plugin, enhancer and persistence API jars plus the libraries they reference
+     */
+    @NotNull
+    public Collection<URL> getSharedUrls() {
+        return this.sharedUrls;
+    }
+
+    /**
+     * @return the module's other libraries
+     */
+    @NotNull
+    public Collection<URL> getLibraryUrls() {
+        return this.libraryUrls;
+    }
+
+    /**
+     * @return output directories of the module and the modules it depends on
+     */
+    @NotNull
+    public Collection<URL> getOutputUrls() {
+        return this.outputUrls;
+    }
+
+    @Override
+    public String toString() {
+        return "EnhancerClasspath{" +
+               "sharedUrls=" + this.sharedUrls +
+               ", libraryUrls=" + this.libraryUrls +
+               ", outputUrls=" + this.outputUrls +
+               '}';
+    }
+
+}
@@ -43,17 +43,30 @@ public final class EnhancerContext {
 
     private final ClassLoader classLoader;
 
+    private final EnhancerVerbosity verbosity;
+
     public EnhancerContext(@NotNull final PersistenceApi persistenceApi,
                            @NotNull final Module module,
                            @NotNull final CompileContext compileContext,
                            @Nullable final String persistenceUnitName,
                            @NotNull final ClassLoader classLoader) {
 
+        this(persistenceApi, module, compileContext, persistenceUnitName, classLoader, EnhancerVerbosity.CONSOLE);
+    }
+
+    public EnhancerContext(@NotNull final PersistenceApi persistenceApi,
+                           @NotNull final Module module,
+                           @NotNull final CompileContext compileContext,
+                           @Nullable final String persistenceUnitName,
+                           @NotNull final ClassLoader classLoader,
+                           @NotNull final EnhancerVerbosity verbosity) {
+
         this.compileContext = compileContext;
         this.persistenceApi = persistenceApi;
         this.module = module;
         this.persistenceUnitName = persistenceUnitName;
         this.classLoader = classLoader;
+        this.verbosity = verbosity;
     }
 
     public PersistenceApi getPersistenceApi() {
@@ -76,4 +89,8 @@ public final class EnhancerContext {
         return this.classLoader;
     }
 
+    public EnhancerVerbosity getVerbosity() {
+        return this.verbosity;
+    }
+
 }
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.PathUtil;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Handle of a running enhancer daemon process (see {@link EnhancerDaemonMain}).<br/>
+ * <br/>
+ * Requests are serialized, the daemon processes one enhancement batch at a time. A shutdown waits
+ * for the request in progress, requests after the shutdown fail.
+ */
+final class EnhancerDaemon {
+
+    private static final Logger LOGGER = Logger.getInstance(EnhancerDaemon.class.getName());
+
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
+    private final Process process;
+
+    private final int port;
+
+    private final String token;
+
+    /**
+     * Kept open, the daemon exits as soon as its stdin is closed
+     */
+    private final Writer stdin;
+
+    private boolean shutdown = false;
+
+    private EnhancerDaemon(final Process process, final int port, final String token, final Writer stdin) {
+        this.process = process;
+        this.port = port;
+        this.token = token;
+        this.stdin = stdin;
+    }
+
+    /**
+     * Launch a new daemon process.
+     *
+     * @param enhancerUrls       classpath of the enhancer and its dependencies (shared by all requests)
+     * @param vmOptions          additional VM options (whitespace separated)
+     * @param idleTimeoutMinutes minutes of inactivity after which the daemon exits
+     * @return handle of the started daemon
+     * @throws IOException if the daemon could not be started
+     */
+    @NotNull
+    static EnhancerDaemon start(@NotNull final Collection<URL> enhancerUrls,
+                                final String vmOptions,
+                                final int idleTimeoutMinutes) throws IOException {
+        Validate.isTrue(idleTimeoutMinutes > 0, "idleTimeoutMinutes must be positive!");
+
+        final List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (!StringUtils.isBlank(vmOptions)) {
+            for (final String vmOption : WHITESPACE_PATTERN.split(vmOptions.trim())) {
+                command.add(vmOption);
+            }
+        }
+        command.add("-cp");
+        command.add(PathUtil.getJarPathForClass(EnhancerDaemonMain.class)
+                    + File.pathSeparator
+                    + PathUtil.getJarPathForClass(Validate.class));
+        command.add(EnhancerDaemonMain.class.getName());
+        command.add(String.valueOf(TimeUnit.MINUTES.toSeconds(idleTimeoutMinutes)));
+
+        LOGGER.info("EnhancerDaemon: starting daemon: " + command);
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        final String token = new BigInteger(130, new SecureRandom()).toString(32);
+        final Writer stdin = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+        final BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        final int port;
+        try {
+            stdin.write(token + '\n');
+            stdin.write(String.valueOf(enhancerUrls.size()) + '\n');
+            for (final URL enhancerUrl : enhancerUrls) {
+                stdin.write(enhancerUrl.toExternalForm() + '\n');
+            }
+            stdin.flush();
+
+            String line;
+            while ((line = stdout.readLine()) != null && !line.startsWith(EnhancerDaemonProtocol.PORT_PREFIX)) {
+                LOGGER.info("EnhancerDaemon: " + line);
+            }
+            if (line == null) {
+                throw new IOException("Enhancer daemon exited during startup");
+            }
+            port = Integer.parseInt(line.substring(EnhancerDaemonProtocol.PORT_PREFIX.length()).trim());
+        } catch (IOException e) {
+            process.destroy();
+            throw e;
+        } catch (NumberFormatException e) {
+            process.destroy();
+            throw new IOException("Enhancer daemon announced invalid port", e);
+        }
+
+        final Thread outputDrainer = new Thread("DNE enhancer daemon output") {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = stdout.readLine()) != null) {
+                        LOGGER.debug("EnhancerDaemon: " + line);
+                    }
+                } catch (IOException ignored) {
+                    // daemon gone
+                }
+            }
+        };
+        outputDrainer.setDaemon(true);
+        outputDrainer.start();
+
+        LOGGER.info("EnhancerDaemon: daemon listening on port " + port);
+        return new EnhancerDaemon(process, port, token, stdin);
+    }
+
+    boolean isAlive() {
+        try {
+            this.process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException ignored) {
+            return true;
+        }
+    }
+
+    /**
+     * Enhance provided files in the daemon.
+     *
+     * @param api           persistence api name
+     * @param libraries     module library paths (not part of the enhancer classpath)
+     * @param outputDirs    module output directories (classpath of the classes to enhance)
+     * @param metadataFiles paths of metadata files
+     * @param classFiles    paths of class files
+     * @return the daemon's result
+     * @throws IOException if the daemon is not reachable or was shut down
+     */
+    @NotNull
+    synchronized EnhancerDaemonProtocol.Result enhance(@NotNull final String api,
+                                                       @NotNull final Collection<String> libraries,
+                                                       @NotNull final Collection<String> outputDirs,
+                                                       @NotNull final Collection<String> metadataFiles,
+                                                       @NotNull final Collection<String> classFiles) throws IOException {
+        if (this.shutdown) {
+            throw new IOException("Enhancer daemon was shut down");
+        }
+        final Socket socket = connect();
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(this.token);
+            out.writeInt(EnhancerDaemonProtocol.COMMAND_ENHANCE);
+            out.writeUTF(api);
+            EnhancerDaemonProtocol.writeStrings(out, libraries);
+            EnhancerDaemonProtocol.writeStrings(out, outputDirs);
+            EnhancerDaemonProtocol.writeStrings(out, metadataFiles);
+            EnhancerDaemonProtocol.writeStrings(out, classFiles);
+            out.flush();
+
+            return EnhancerDaemonProtocol.readResult(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Ask the daemon to exit and terminate the process, after the request in progress (if any) is done.
+     */
+    synchronized void shutdown() {
+        this.shutdown = true;
+        try {
+            if (isAlive()) {
+                final Socket socket = connect();
+                try {
+                    final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeUTF(this.token);
+                    out.writeInt(EnhancerDaemonProtocol.COMMAND_SHUTDOWN);
+                    out.flush();
+                } finally {
+                    socket.close();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("EnhancerDaemon: shutdown request failed", e);
+        } finally {
+            try {
+                this.stdin.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+            this.process.destroy();
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+}
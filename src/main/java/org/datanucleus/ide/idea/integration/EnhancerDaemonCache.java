@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Cache of running enhancer daemons, keyed by the fingerprint of the shared enhancer classpath
+ * (see {@link EnhancerClassLoaderCache}) and the daemon settings. Module libraries are not part of the
+ * key, they are sent with each request.<br/>
+ * <br/>
+ * The cache is bounded, evicted or discarded daemons are shut down outside of the cache lock, the shutdown
+ * waits for a request in progress. Daemons which exited on their own (idle timeout) are restarted on demand.
+ */
+final class EnhancerDaemonCache {
+
+    private static final Logger LOGGER = Logger.getInstance(EnhancerDaemonCache.class.getName());
+
+    private static final int MAX_ENTRIES = 4;
+
+    private static final Map<String, EnhancerDaemon> CACHE = new LinkedHashMap<String, EnhancerDaemon>(8, 0.75f, true);
+
+    private EnhancerDaemonCache() {
+        // prohibit instantiation
+    }
+
+    /**
+     * Get a running daemon for provided classpath and settings or start a new one.
+     *
+     * @param enhancerUrls       classpath of the enhancer and its dependencies
+     * @param vmOptions          additional VM options of the daemon
+     * @param idleTimeoutMinutes minutes of inactivity after which the daemon exits
+     * @return running daemon
+     * @throws IOException if a new daemon could not be started
+     */
+    @NotNull
+    static EnhancerDaemon getDaemon(@NotNull final Collection<URL> enhancerUrls,
+                                    final String vmOptions,
+                                    final int idleTimeoutMinutes) throws IOException {
+        final String key = EnhancerClassLoaderCache.fingerprint(enhancerUrls) + '|' + vmOptions + '|' + idleTimeoutMinutes;
+        final Collection<EnhancerDaemon> evicted = new ArrayList<EnhancerDaemon>();
+        final EnhancerDaemon daemon;
+        synchronized (CACHE) {
+            EnhancerDaemon cached = CACHE.get(key);
+            if (cached != null && !cached.isAlive()) {
+                LOGGER.info("EnhancerDaemonCache: daemon exited, restarting");
+                CACHE.remove(key);
+                cached = null;
+            }
+            if (cached == null) {
+                cached = EnhancerDaemon.start(enhancerUrls, vmOptions, idleTimeoutMinutes);
+                CACHE.put(key, cached);
+                for (final Iterator<EnhancerDaemon> it = CACHE.values().iterator(); CACHE.size() > MAX_ENTRIES && it.hasNext();) {
+                    evicted.add(it.next());
+                    it.remove();
+                }
+            }
+            daemon = cached;
+        }
+        for (final EnhancerDaemon evictedDaemon : evicted) {
+            evictedDaemon.shutdown();
+        }
+        return daemon;
+    }
+
+    /**
+     * Shut down and remove a daemon which is not usable anymore (e.g. not reachable).
+     *
+     * @param daemon the daemon to discard
+     */
+    static void discard(@NotNull final EnhancerDaemon daemon) {
+        synchronized (CACHE) {
+            for (final Iterator<EnhancerDaemon> it = CACHE.values().iterator(); it.hasNext();) {
+                if (it.next() == daemon) {
+                    it.remove();
+                }
+            }
+        }
+        daemon.shutdown();
+    }
+
+}
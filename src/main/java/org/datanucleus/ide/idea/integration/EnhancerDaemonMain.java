@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.ide.idea.integration.datanuculeus.DataNucleusEnhancerInvoker;
+import org.datanucleus.ide.idea.util.ClassFileInfo;
+
+/**
+ * Entry point of the enhancer daemon, a separate JVM keeping the enhancer and its dependencies
+ * loaded (and JIT compiled) between builds, isolated from the ASM/DataNucleus versions bundled
+ * with the IDE.<br/>
+ * <br/>
+ * Startup (stdin): secret token, number of enhancer classpath entries, the enhancer classpath entries
+ * (one per line). The daemon then announces its loopback port on stdout
+ * ({@link EnhancerDaemonProtocol#PORT_PREFIX}) and serves one request per connection.<br/>
+ * <br/>
+ * The module libraries sent with a request are loaded in a child of the enhancer ClassLoader, these
+ * ClassLoaders are kept for the next requests (bounded) to keep the daemon warm across modules.<br/>
+ * <br/>
+ * The daemon exits if it is idle for longer than the timeout passed as only argument (in seconds),
+ * on request, or as soon as stdin is closed (IDE process ended).
+ */
+public final class EnhancerDaemonMain {
+
+    private static final int MAX_LIBRARY_CLASS_LOADERS = 32;
+
+    /**
+     * Module library ClassLoaders by library paths, only accessed by the (single) request thread.
+     */
+    private static final Map<List<String>, URLClassLoader> LIBRARY_CLASS_LOADERS =
+            new LinkedHashMap<List<String>, URLClassLoader>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<List<String>, URLClassLoader> eldest) {
+                    final boolean remove = size() > MAX_LIBRARY_CLASS_LOADERS;
+                    if (remove) {
+                        closeQuietly(eldest.getValue());
+                    }
+                    return remove;
+                }
+            };
+
+    private EnhancerDaemonMain() {
+        // prohibit instantiation
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[0]));
+
+        final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        final String token = stdin.readLine();
+        final int enhancerUrlCount = Integer.parseInt(stdin.readLine().trim());
+        final URL[] enhancerUrls = new URL[enhancerUrlCount];
+        for (int i = 0; i < enhancerUrlCount; ++i) {
+            enhancerUrls[i] = new URL(stdin.readLine());
+        }
+
+        final Thread parentWatcher = new Thread("DNE enhancer daemon parent watcher") {
+            @Override
+            public void run() {
+                try {
+                    while (stdin.read() >= 0) {
+                        // ignore
+                    }
+                } catch (IOException ignored) {
+                    // parent gone
+                }
+                System.exit(0);
+            }
+        };
+        parentWatcher.setDaemon(true);
+        parentWatcher.start();
+
+        // parent of the application ClassLoader: JDK classes only (including java.sql on Java 9+)
+        final URLClassLoader enhancerClassLoader = new URLClassLoader(enhancerUrls, ClassLoader.getSystemClassLoader().getParent());
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        serverSocket.setSoTimeout((int) Math.min(idleTimeoutMillis, Integer.MAX_VALUE));
+
+        System.out.println(EnhancerDaemonProtocol.PORT_PREFIX + serverSocket.getLocalPort());
+        System.out.flush();
+
+        boolean running = true;
+        while (running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketTimeoutException ignored) {
+                System.out.println("Enhancer daemon idle timeout reached, exiting");
+                break;
+            }
+            try {
+                running = handle(socket, token, enhancerClassLoader);
+            } catch (IOException e) {
+                System.out.println("Enhancer daemon request failed: " + e);
+            } finally {
+                socket.close();
+            }
+        }
+
+        serverSocket.close();
+        for (final URLClassLoader libraryClassLoader : LIBRARY_CLASS_LOADERS.values()) {
+            closeQuietly(libraryClassLoader);
+        }
+        enhancerClassLoader.close();
+        System.exit(0);
+    }
+
+    //
+    // Helper methods
+    //
+
+    /**
+     * @return false if the daemon should shut down
+     */
+    private static boolean handle(final Socket socket, final String token, final ClassLoader enhancerClassLoader) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (!token.equals(in.readUTF())) {
+            System.out.println("Enhancer daemon: rejected connection with invalid token");
+            return true;
+        }
+
+        final int command = in.readInt();
+        if (command == EnhancerDaemonProtocol.COMMAND_SHUTDOWN) {
+            return false;
+        }
+        if (command != EnhancerDaemonProtocol.COMMAND_ENHANCE) {
+            EnhancerDaemonProtocol.writeResult(out, EnhancerDaemonProtocol.Result.failed("Unknown command: " + command));
+            out.flush();
+            return true;
+        }
+
+        final String api = in.readUTF();
+        final List<String> libraries = EnhancerDaemonProtocol.readStrings(in);
+        final List<String> outputDirs = EnhancerDaemonProtocol.readStrings(in);
+        final List<String> metadataFiles = EnhancerDaemonProtocol.readStrings(in);
+        final List<String> classFiles = EnhancerDaemonProtocol.readStrings(in);
+
+        EnhancerDaemonProtocol.writeResult(out, enhance(enhancerClassLoader, api, libraries, outputDirs, metadataFiles, classFiles));
+        out.flush();
+        return true;
+    }
+
+    private static EnhancerDaemonProtocol.Result enhance(final ClassLoader enhancerClassLoader,
+                                                         final String api,
+                                                         final List<String> libraries,
+                                                         final List<String> outputDirs,
+                                                         final List<String> metadataFiles,
+                                                         final List<String> classFiles) {
+        final long start = System.currentTimeMillis();
+
+        URLClassLoader classLoader = null;
+        try {
+            classLoader = new URLClassLoader(toUrls(outputDirs), getLibraryClassLoader(enhancerClassLoader, libraries));
+
+            final long enhanceStart = System.currentTimeMillis();
+            final int enhancedCount = DataNucleusEnhancerInvoker.enhance(classLoader, api, metadataFiles, classFiles);
+            final long enhanceMillis = System.currentTimeMillis() - enhanceStart;
+
+            final Map<String, Boolean> classResults = new LinkedHashMap<String, Boolean>(classFiles.size());
+            for (final String classFile : classFiles) {
+                classResults.put(classFile, isEnhanced(classFile));
+            }
+
+            return new EnhancerDaemonProtocol.Result(enhancedCount,
+                                                     enhanceMillis,
+                                                     System.currentTimeMillis() - start,
+                                                     classResults,
+                                                     null);
+        } catch (Throwable t) {
+            final Throwable cause = t.getCause() == null ? t : t.getCause();
+            final StringWriter stackTrace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(stackTrace));
+            return EnhancerDaemonProtocol.Result.failed(stackTrace.toString());
+        } finally {
+            if (classLoader != null) {
+                closeQuietly(classLoader);
+            }
+        }
+    }
+
+    private static ClassLoader getLibraryClassLoader(final ClassLoader enhancerClassLoader, final List<String> libraries)
+            throws IOException {
+        if (libraries.isEmpty()) {
+            return enhancerClassLoader;
+        }
+        URLClassLoader libraryClassLoader = LIBRARY_CLASS_LOADERS.get(libraries);
+        if (libraryClassLoader == null) {
+            libraryClassLoader = new URLClassLoader(toUrls(libraries), enhancerClassLoader);
+            LIBRARY_CLASS_LOADERS.put(libraries, libraryClassLoader);
+        }
+        return libraryClassLoader;
+    }
+
+    private static URL[] toUrls(final List<String> paths) throws IOException {
+        final URL[] urls = new URL[paths.size()];
+        for (int i = 0; i < urls.length; ++i) {
+            urls[i] = new File(paths.get(i)).toURI().toURL();
+        }
+        return urls;
+    }
+
+    private static void closeQuietly(final URLClassLoader classLoader) {
+        try {
+            classLoader.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    private static boolean isEnhanced(final String classFile) {
+        try {
+            return ClassFileInfo.read(Files.readAllBytes(new File(classFile).toPath())).isEnhanced();
+        } catch (IOException ignored) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wire protocol between the plugin and the enhancer daemon (see {@link EnhancerDaemonMain}).<br/>
+ * <br/>
+ * The daemon announces its (loopback) port on stdout, each request is sent over a new socket
+ * connection and starts with the secret token passed to the daemon via stdin.<br/>
+ * <br/>
+ * Enhance request: token, command, api, module library paths, output directories, metadata files, class files.<br/>
+ * <br/>
+ * Only depends on JDK classes, as it is loaded in the daemon JVM.
+ */
+final class EnhancerDaemonProtocol {
+
+    /**
+     * Prefix of the stdout line announcing the daemon's port
+     */
+    static final String PORT_PREFIX = "DNE-ENHANCER-DAEMON-PORT ";
+
+    static final int COMMAND_ENHANCE = 1;
+
+    static final int COMMAND_SHUTDOWN = 2;
+
+    /**
+     * Maximum length of error messages (stays within the limits of {@link DataOutputStream#writeUTF(String)})
+     */
+    private static final int MAX_MESSAGE_LENGTH = 16000;
+
+    private EnhancerDaemonProtocol() {
+        // prohibit instantiation
+    }
+
+    static void writeStrings(final DataOutputStream out, final Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    static List<String> readStrings(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        final List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    static void writeResult(final DataOutputStream out, final Result result) throws IOException {
+        out.writeBoolean(result.error == null);
+        if (result.error == null) {
+            out.writeInt(result.enhancedCount);
+            out.writeLong(result.enhanceMillis);
+            out.writeLong(result.totalMillis);
+            out.writeInt(result.classResults.size());
+            for (final Map.Entry<String, Boolean> classResult : result.classResults.entrySet()) {
+                out.writeUTF(classResult.getKey());
+                out.writeBoolean(classResult.getValue());
+            }
+        } else {
+            out.writeUTF(result.error.length() > MAX_MESSAGE_LENGTH ? result.error.substring(0, MAX_MESSAGE_LENGTH) : result.error);
+        }
+    }
+
+    static Result readResult(final DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return Result.failed(in.readUTF());
+        }
+        final int enhancedCount = in.readInt();
+        final long enhanceMillis = in.readLong();
+        final long totalMillis = in.readLong();
+        final int classCount = in.readInt();
+        final Map<String, Boolean> classResults = new LinkedHashMap<String, Boolean>(classCount);
+        for (int i = 0; i < classCount; ++i) {
+            classResults.put(in.readUTF(), in.readBoolean());
+        }
+        return new Result(enhancedCount, enhanceMillis, totalMillis, classResults, null);
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Result of an enhancement batch.
+     */
+    static final class Result {
+
+        private final int enhancedCount;
+
+        private final long enhanceMillis;
+
+        private final long totalMillis;
+
+        private final Map<String, Boolean> classResults;
+
+        private final String error;
+
+        Result(final int enhancedCount,
+               final long enhanceMillis,
+               final long totalMillis,
+               final Map<String, Boolean> classResults,
+               final String error) {
+            this.enhancedCount = enhancedCount;
+            this.enhanceMillis = enhanceMillis;
+            this.totalMillis = totalMillis;
+            this.classResults = Collections.unmodifiableMap(classResults);
+            this.error = error;
+        }
+
+        static Result failed(final String error) {
+            return new Result(0, 0L, 0L, Collections.<String, Boolean>emptyMap(), error);
+        }
+
+        int getEnhancedCount() {
+            return this.enhancedCount;
+        }
+
+        /**
+         * @return time spent in the enhancer itself
+         */
+        long getEnhanceMillis() {
+            return this.enhanceMillis;
+        }
+
+        /**
+         * @return time spent in the daemon (including enhancer creation and result collection)
+         */
+        long getTotalMillis() {
+            return this.totalMillis;
+        }
+
+        /**
+         * @return enhanced state of each class file (by path) after the enhancement
+         */
+        Map<String, Boolean> getClassResults() {
+            return this.classResults;
+        }
+
+        String getError() {
+            return this.error;
+        }
+    }
+
+}
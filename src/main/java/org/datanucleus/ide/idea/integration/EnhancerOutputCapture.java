@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Captures System.out output of the current thread (e.g. verbose enhancer output) in a buffer keeping
+ * the last lines only.<br/>
+ * <br/>
+ * While captures are active System.out is replaced by a stream dispatching output of threads with an
+ * active capture to their capture and all other output to the original System.out, which is restored
+ * when the last capture stops.
+ */
+public final class EnhancerOutputCapture {
+
+    private static final ThreadLocal<EnhancerOutputCapture> CAPTURES = new ThreadLocal<EnhancerOutputCapture>();
+
+    private static PrintStream originalOut = null;
+
+    private static PrintStream installedOut = null;
+
+    private static int activeCount = 0;
+
+    private final int maxLines;
+
+    private final Deque<String> lines = new ArrayDeque<String>();
+
+    private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+
+    private int droppedLineCount = 0;
+
+    private boolean stopped = false;
+
+    private EnhancerOutputCapture(final int maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    //
+    // Capture control
+    //
+
+    /**
+     * Start capturing System.out output of the current thread.
+     *
+     * @param maxLines number of (last) lines to keep
+     * @return the capture, has to be stopped via {@link #stop()}
+     */
+    @NotNull
+    public static EnhancerOutputCapture start(final int maxLines) {
+        install();
+        final EnhancerOutputCapture capture = new EnhancerOutputCapture(maxLines);
+        CAPTURES.set(capture);
+        return capture;
+    }
+
+    /**
+     * Stop capturing, output of the current thread goes to System.out again.
+     */
+    public void stop() {
+        if (CAPTURES.get() == this) {
+            CAPTURES.remove();
+        }
+        synchronized (this) {
+            if (this.stopped) {
+                return;
+            }
+            this.stopped = true;
+        }
+        uninstall();
+    }
+
+    //
+    // Captured output
+    //
+
+    /**
+     * @return the captured lines (at most the configured number of last lines)
+     */
+    @NotNull
+    public synchronized List<String> getLines() {
+        final List<String> result = new ArrayList<String>(this.lines);
+        if (this.currentLine.size() > 0) {
+            result.add(this.currentLine.toString());
+        }
+        return result;
+    }
+
+    /**
+     * @return number of lines dropped because the buffer was full
+     */
+    public synchronized int getDroppedLineCount() {
+        return this.droppedLineCount;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        final int droppedLineCount = this.getDroppedLineCount();
+        if (droppedLineCount > 0) {
+            sb.append("[").append(droppedLineCount).append(" lines omitted]\n");
+        }
+        for (final String line : this.getLines()) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static synchronized void install() {
+        if (activeCount++ == 0) {
+            originalOut = System.out;
+            installedOut = new PrintStream(new DispatchingOutputStream(originalOut), true);
+            System.setOut(installedOut);
+        }
+    }
+
+    private static synchronized void uninstall() {
+        if (--activeCount == 0) {
+            // leave System.out alone if it was replaced by someone else in the meantime
+            if (System.out == installedOut) {
+                System.setOut(originalOut);
+            }
+            originalOut = null;
+            installedOut = null;
+        }
+    }
+
+    private synchronized void write(final byte[] bytes, final int offset, final int length) {
+        for (int i = offset; i < offset + length; ++i) {
+            final byte b = bytes[i];
+            if (b == '\n') {
+                this.addLine();
+            } else if (b != '\r') {
+                this.currentLine.write(b);
+            }
+        }
+    }
+
+    private void addLine() {
+        if (this.lines.size() >= this.maxLines) {
+            this.lines.removeFirst();
+            ++this.droppedLineCount;
+        }
+        this.lines.addLast(this.currentLine.toString());
+        this.currentLine.reset();
+    }
+
+    //
+    // Helper classes
+    //
+
+    private static final class DispatchingOutputStream extends OutputStream {
+
+        private final OutputStream target;
+
+        private DispatchingOutputStream(final OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull final byte[] bytes, final int offset, final int length) throws IOException {
+            final EnhancerOutputCapture capture = CAPTURES.get();
+            if (capture == null) {
+                this.target.write(bytes, offset, length);
+            } else {
+                capture.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (CAPTURES.get() == null) {
+                this.target.flush();
+            }
+        }
+    }
+
+}
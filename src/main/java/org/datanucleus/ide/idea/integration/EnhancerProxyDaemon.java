@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+
+import org.datanucleus.ide.idea.PersistenceApi;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Enhancer proxy delegating the enhancement to a long-lived enhancer daemon (see {@link EnhancerDaemonMain}),
+ * which keeps the enhancer loaded between builds and isolates it from the libraries of the IDE process.<br/>
+ * <br/>
+ * Only supports the DataNucleus enhancer and file classpaths resolved by {@link ClassLoaderFactory}, no
+ * in-process ClassLoader is created for the enhancement.<br/>
+ * <br/>
+ * The daemon is started with the classpath of the shared enhancer ClassLoader only, so all modules using the same
+ * enhancer share one daemon. The module's other libraries and output directories are sent with each request.
+ */
+public final class EnhancerProxyDaemon implements EnhancerProxy {
+
+    private static final Logger LOGGER = Logger.getInstance(EnhancerProxyDaemon.class.getName());
+
+    private final PersistenceApi persistenceApi;
+
+    private final Module module;
+
+    private final Collection<URL> enhancerUrls;
+
+    private final Collection<String> libraries;
+
+    private final Collection<String> outputDirs;
+
+    private final String vmOptions;
+
+    private final int idleTimeoutMinutes;
+
+    private final List<String> metadataFiles = new ArrayList<String>();
+
+    private final List<String> classFiles = new ArrayList<String>();
+
+    private Map<String, Boolean> classResults = Collections.emptyMap();
+
+    private EnhancerProxyDaemon(final PersistenceApi persistenceApi,
+                                final Module module,
+                                final Collection<URL> enhancerUrls,
+                                final Collection<String> libraries,
+                                final Collection<String> outputDirs,
+                                final String vmOptions,
+                                final int idleTimeoutMinutes) {
+        this.persistenceApi = persistenceApi;
+        this.module = module;
+        this.enhancerUrls = enhancerUrls;
+        this.libraries = libraries;
+        this.outputDirs = outputDirs;
+        this.vmOptions = vmOptions;
+        this.idleTimeoutMinutes = idleTimeoutMinutes;
+    }
+
+    /**
+     * Create a daemon enhancer proxy for provided module classpath.
+     *
+     * @param persistenceApi     .
+     * @param module             .
+     * @param classpath          the module's enhancer classpath, the shared jars make up the daemon's classpath
+     * @param vmOptions          additional VM options of the daemon
+     * @param idleTimeoutMinutes minutes of inactivity after which the daemon exits
+     * @return the proxy or null if the classpath contains non file urls
+     */
+    @Nullable
+    public static EnhancerProxyDaemon create(@NotNull final PersistenceApi persistenceApi,
+                                             @NotNull final Module module,
+                                             @NotNull final EnhancerClasspath classpath,
+                                             final String vmOptions,
+                                             final int idleTimeoutMinutes) {
+        final Collection<URL> enhancerUrls = classpath.getSharedUrls();
+        final Collection<String> libraries = toPaths(classpath.getLibraryUrls());
+        final Collection<String> outputDirs = toPaths(classpath.getOutputUrls());
+        if (enhancerUrls.isEmpty() || toPaths(enhancerUrls) == null || libraries == null || outputDirs == null) {
+            return null;
+        }
+
+        return new EnhancerProxyDaemon(persistenceApi, module, enhancerUrls, libraries, outputDirs, vmOptions, idleTimeoutMinutes);
+    }
+
+    //
+    // EnhancerProxy interface implementation
+    //
+
+    @Override
+    public void addClasses(final String... classNames) {
+        this.classFiles.addAll(Arrays.asList(classNames));
+    }
+
+    @Override
+    public void addMetadataFiles(final String... metadataFiles) {
+        this.metadataFiles.addAll(Arrays.asList(metadataFiles));
+    }
+
+    @Override
+    public int enhance() throws InvocationTargetException {
+        final String api = this.persistenceApi.name();
+
+        EnhancerDaemonProtocol.Result result;
+        EnhancerDaemon daemon = getDaemon();
+        try {
+            result = daemon.enhance(api, this.libraries, this.outputDirs, this.metadataFiles, this.classFiles);
+        } catch (IOException e) {
+            // daemon probably exited (idle timeout) just now, retry once with a new one
+            LOGGER.info("EnhancerProxyDaemon: daemon not reachable, restarting: " + e);
+            EnhancerDaemonCache.discard(daemon);
+            daemon = getDaemon();
+            try {
+                result = daemon.enhance(api, this.libraries, this.outputDirs, this.metadataFiles, this.classFiles);
+            } catch (IOException e2) {
+                EnhancerDaemonCache.discard(daemon);
+                throw new InvocationTargetException(e2, "Enhancer daemon not reachable");
+            }
+        }
+
+        if (result.getError() != null) {
+            throw new InvocationTargetException(new IllegalStateException(result.getError()), "Enhancer daemon failed");
+        }
+
+        LOGGER.info("EnhancerProxyDaemon: enhanced " + result.getEnhancedCount() + " class(es) in module '"
+                    + this.module.getName() + "', enhancer: " + result.getEnhanceMillis()
+                    + " ms, daemon total: " + result.getTotalMillis() + " ms");
+        this.classResults = result.getClassResults();
+        return result.getEnhancedCount();
+    }
+
+    //
+    // Accessors
+    //
+
+    /**
+     * @return enhanced state of each added class file (by path) after the last {@link #enhance()}
+     */
+    public Map<String, Boolean> getClassResults() {
+        return this.classResults;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private EnhancerDaemon getDaemon() throws InvocationTargetException {
+        try {
+            return EnhancerDaemonCache.getDaemon(this.enhancerUrls, this.vmOptions, this.idleTimeoutMinutes);
+        } catch (IOException e) {
+            throw new InvocationTargetException(e, "Could not start enhancer daemon");
+        }
+    }
+
+    /**
+     * @return file paths of provided urls or null if one of them is not a file url
+     */
+    @Nullable
+    private static Collection<String> toPaths(final Collection<URL> urls) {
+        final Collection<String> paths = new ArrayList<String>(urls.size());
+        for (final URL url : urls) {
+            final File file = toFile(url);
+            if (file == null) {
+                return null;
+            }
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+    private static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ignored) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException ignored) {
+            return new File(url.getPath());
+        }
+    }
+
+}
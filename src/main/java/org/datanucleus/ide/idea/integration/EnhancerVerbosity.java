@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+/**
+ * Verbosity of the enhancer's own output (e.g. the DataNucleus enhancer's per class messages).
+ */
+public enum EnhancerVerbosity {
+
+    /**
+     * No verbose enhancer output
+     */
+    QUIET,
+
+    /**
+     * Verbose enhancer output is captured in a bounded buffer per module (see {@link EnhancerOutputCapture}),
+     * reported if enhancement fails or debug logging is enabled
+     */
+    BUFFERED,
+
+    /**
+     * Verbose enhancer output is printed to System.out
+     */
+    CONSOLE
+
+}
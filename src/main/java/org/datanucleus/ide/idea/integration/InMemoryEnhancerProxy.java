@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Optional extension of {@link EnhancerProxy} for proxies whose enhancer can enhance class bytes
+ * in memory instead of reading and rewriting class files itself.<br/>
+ * <br/>
+ * Classes added via {@link #addClass(String, byte[])} are not written by the enhancer, the caller
+ * has to retrieve the result via {@link #getEnhancedClassBytes(String)} after {@link #enhance()}.
+ */
+public interface InMemoryEnhancerProxy extends EnhancerProxy {
+
+    /**
+     * Check if the underlying enhancer provides a byte level api (depends on the enhancer version,
+     * e.g. DataNucleus' addClass(String, byte[]) and getEnhancedBytes(String)).
+     *
+     * @return true if {@link #addClass(String, byte[])} and {@link #getEnhancedClassBytes(String)} can be used
+     */
+    public boolean isInMemoryEnhancementSupported();
+
+    /**
+     * Add a class to be enhanced by its (unenhanced) bytes.
+     *
+     * @param className Fully qualified name of the class to be enhanced
+     * @param bytes     Bytes of the class file
+     * @throws InvocationTargetException .
+     * @throws IllegalAccessException    .
+     * @throws NoSuchMethodException     .
+     */
+    public void addClass(String className, byte[] bytes) throws InvocationTargetException, IllegalAccessException, NoSuchMethodException;
+
+    /**
+     * Get the enhanced bytes of a class added via {@link #addClass(String, byte[])}.
+     *
+     * @param className Fully qualified name of the class
+     * @return enhanced bytes or null if the class was not enhanced
+     * @throws InvocationTargetException .
+     * @throws IllegalAccessException    .
+     * @throws NoSuchMethodException     .
+     */
+    public byte[] getEnhancedClassBytes(String className) throws InvocationTargetException, IllegalAccessException, NoSuchMethodException;
+
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+package org.datanucleus.ide.idea.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+/**
+ * URLClassLoader knowing which of its classpath entries contain which packages, classes and resources
+ * are only looked up in the entries containing their package.<br/>
+ * <br/>
+ * As enhancer ClassLoaders are organized parent first, every class of a child ClassLoader is looked up
+ * in all parents before, which otherwise means probing every jar and directory of the parents.<br/>
+ * <br/>
+ * The packages of jars are indexed on construction, directories (module output directories, changing with
+ * every build) are not walked, a package is looked up in them on first use. If the classpath contains entries
+ * which can't be indexed (non file URLs, jars referencing other jars via manifest 'Class-Path') the index is not used.
+ */
+final class PackageIndexedClassLoader extends URLClassLoader {
+
+    private static final Logger LOGGER = Logger.getInstance(PackageIndexedClassLoader.class.getName());
+
+    private static final char SEP = '/';
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+
+    /**
+     * Classpath entries in classpath order, null if the index is not used
+     */
+    private final List<Root> roots;
+
+    /**
+     * Classpath entries containing a package, by package path (e.g. 'org/datanucleus', '' for the default package)
+     */
+    private final Map<String, List<Root>> rootsByPackage = new ConcurrentHashMap<String, List<Root>>();
+
+    PackageIndexedClassLoader(final Collection<URL> urls, final ClassLoader parent) {
+        super(urls.toArray(new URL[urls.size()]), parent);
+        this.roots = createRoots(urls);
+    }
+
+    //
+    // ClassLoader overrides
+    //
+
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        if (this.roots == null) {
+            return super.findClass(name);
+        }
+        final String path = name.replace('.', SEP) + CLASS_FILE_SUFFIX;
+        for (final Root root : this.getRoots(path)) {
+            final InputStream in = root.finder.getResourceAsStream(path);
+            if (in != null) {
+                try {
+                    return this.defineClass(name, FileUtil.loadBytes(in), root.url, root.manifest);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    public URL findResource(final String name) {
+        if (this.roots == null) {
+            return super.findResource(name);
+        }
+        for (final Root root : this.getRoots(name)) {
+            final URL resource = root.finder.findResource(name);
+            if (resource != null) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+        if (this.roots == null) {
+            return super.findResources(name);
+        }
+        final List<URL> resources = new ArrayList<URL>();
+        for (final Root root : this.getRoots(name)) {
+            final URL resource = root.finder.findResource(name);
+            if (resource != null) {
+                resources.add(resource);
+            }
+        }
+        return Collections.enumeration(resources);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.roots != null) {
+            for (final Root root : this.roots) {
+                root.finder.close();
+            }
+        }
+        super.close();
+    }
+
+    //
+    // Helper methods
+    //
+
+    /**
+     * @return classpath entries containing the package of provided class or resource path, in classpath order
+     * (all entries for directory names like 'org/', which are no member of a package)
+     */
+    private List<Root> getRoots(final String path) {
+        if (path.isEmpty() || path.charAt(path.length() - 1) == SEP) {
+            return this.roots;
+        }
+        final String packagePath = packageOf(path);
+        List<Root> packageRoots = this.rootsByPackage.get(packagePath);
+        if (packageRoots == null) {
+            packageRoots = new ArrayList<Root>(1);
+            for (final Root root : this.roots) {
+                if (root.containsPackage(packagePath)) {
+                    packageRoots.add(root);
+                }
+            }
+            this.rootsByPackage.put(packagePath, packageRoots);
+        }
+        return packageRoots;
+    }
+
+    private Class<?> defineClass(final String name, final byte[] classBytes, final URL url, final Manifest manifest) {
+        final int index = name.lastIndexOf('.');
+        if (index > 0) {
+            final String packageName = name.substring(0, index);
+            if (this.getPackage(packageName) == null) {
+                try {
+                    if (manifest == null) {
+                        this.definePackage(packageName, null, null, null, null, null, null, null);
+                    } else {
+                        this.definePackage(packageName, manifest, url);
+                    }
+                } catch (IllegalArgumentException ignored) {
+                    // defined concurrently
+                }
+            }
+        }
+        return this.defineClass(name, classBytes, 0, classBytes.length, new CodeSource(url, (CodeSigner[]) null));
+    }
+
+    private static String packageOf(final String path) {
+        final int index = path.lastIndexOf(SEP);
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    private static List<Root> createRoots(final Collection<URL> urls) {
+        final List<Root> roots = new ArrayList<Root>(urls.size());
+        for (final URL url : urls) {
+            final File file = toFile(url);
+            try {
+                if (file == null) {
+                    LOGGER.debug("PackageIndexedClassLoader: can't index " + url + ", not using package index");
+                    return null;
+                }
+                if (file.isFile()) {
+                    final Root root = indexJar(url);
+                    if (root == null) {
+                        LOGGER.debug("PackageIndexedClassLoader: can't index " + url + ", not using package index");
+                        return null;
+                    }
+                    roots.add(root);
+                } else if (file.isDirectory()) {
+                    roots.add(new Root(url, file, null, null));
+                }
+            } catch (IOException e) {
+                LOGGER.debug("PackageIndexedClassLoader: can't index " + url + ", not using package index", e);
+                return null;
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * @return null if the jar can't be indexed (references other jars)
+     */
+    private static Root indexJar(final URL url) throws IOException {
+        final JarFile jarFile = new JarFile(toFile(url));
+        try {
+            final Manifest manifest = jarFile.getManifest();
+            if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+                return null;
+            }
+            final Set<String> packages = new HashSet<String>();
+            for (final Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                final JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    packages.add(packageOf(entry.getName()));
+                }
+            }
+            return new Root(url, null, packages, manifest);
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ignored) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException ignored) {
+            return new File(url.getPath());
+        }
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Classpath entry, either a jar with its indexed packages or a directory (packages are checked on demand).
+     */
+    private static final class Root {
+
+        private final URL url;
+
+        private final File directory;
+
+        private final Set<String> packages;
+
+        private final Manifest manifest;
+
+        /**
+         * Looks up classes and resources in this entry only
+         */
+        private final URLClassLoader finder;
+
+        private Root(final URL url, final File directory, final Set<String> packages, final Manifest manifest) {
+            this.url = url;
+            this.directory = directory;
+            this.packages = packages;
+            this.manifest = manifest;
+            this.finder = new URLClassLoader(new URL[] {url}, null);
+        }
+
+        private boolean containsPackage(final String packagePath) {
+            return this.directory == null
+                    ? this.packages.contains(packagePath)
+                    : new File(this.directory, packagePath.replace(SEP, File.separatorChar)).isDirectory();
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.integration.datanuculeus;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.datanucleus.ide.idea.util.InternalReflectionHelper;
+
+/**
+ * Runs the DataNucleus enhancer found in a provided ClassLoader on class- and metadata files.<br/>
+ * <br/>
+ * Only depends on JDK classes, as it is also used outside of the IDEA process (enhancer daemon,
+ * external build).
+ */
+public final class DataNucleusEnhancerInvoker {
+
+    private static final Class[] NO_PARAMETER_TYPES = {};
+
+    private static final Class[] FILES_PARAMETER_TYPES = {String[].class};
+
+    private static final Class[] ADD_CLASS_PARAMETER_TYPES = {String.class, byte[].class};
+
+    private static final Class[] CLASS_NAME_PARAMETER_TYPES = {String.class};
+
+    private DataNucleusEnhancerInvoker() {
+        // prohibit instantiation
+    }
+
+    /**
+     * Enhance provided files (the current thread's context ClassLoader is set to provided ClassLoader
+     * while enhancing).
+     *
+     * @param classLoader   ClassLoader containing the enhancer, its dependencies and the classes to enhance
+     * @param api           persistence api name ('JDO' or 'JPA')
+     * @param metadataFiles paths of metadata files
+     * @param classFiles    paths of class files
+     * @return number of enhanced classes
+     * @throws ClassNotFoundException    if the enhancer is not in provided ClassLoader
+     * @throws NoSuchMethodException     if the enhancer version is not supported
+     * @throws InvocationTargetException if the enhancer failed
+     * @throws IllegalAccessException    .
+     * @throws InstantiationException    .
+     */
+    public static int enhance(final ClassLoader classLoader,
+                              final String api,
+                              final Collection<String> metadataFiles,
+                              final Collection<String> classFiles)
+            throws ClassNotFoundException,
+                   NoSuchMethodException,
+                   InvocationTargetException,
+                   IllegalAccessException,
+                   InstantiationException {
+
+        final Thread currentThread = Thread.currentThread();
+        final ClassLoader previousCL = currentThread.getContextClassLoader();
+        try {
+            currentThread.setContextClassLoader(classLoader);
+
+            final Object enhancer = newEnhancer(classLoader, api, metadataFiles);
+            if (!classFiles.isEmpty()) {
+                invokeMethod(enhancer, "addFiles", FILES_PARAMETER_TYPES, (Object) classFiles.toArray(new String[classFiles.size()]));
+            }
+
+            return (Integer) invokeMethod(enhancer, "enhance", NO_PARAMETER_TYPES);
+        } finally {
+            currentThread.setContextClassLoader(previousCL);
+        }
+    }
+
+    /**
+     * Check if the enhancer found in provided ClassLoader can enhance class file contents in memory
+     * (DataNucleus 3.1+, see {@link #enhance(ClassLoader, String, Collection, Map)}).
+     *
+     * @param classLoader ClassLoader containing the enhancer
+     * @return true if addClass(String, byte[]) and getEnhancedBytes(String) are available
+     * @throws ClassNotFoundException if the enhancer is not in provided ClassLoader
+     */
+    public static boolean isInMemoryEnhancementSupported(final ClassLoader classLoader) throws ClassNotFoundException {
+        final Class<?> enhancerClass = Class.forName(EnhancerProxyDataNucleus.NUCLEUS_GENERIC_ENHANCER_CLASS_FQ, false, classLoader);
+        try {
+            enhancerClass.getMethod("addClass", ADD_CLASS_PARAMETER_TYPES);
+            enhancerClass.getMethod("getEnhancedBytes", CLASS_NAME_PARAMETER_TYPES);
+            return true;
+        } catch (NoSuchMethodException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Enhance provided class file contents in memory (the current thread's context ClassLoader is set to
+     * provided ClassLoader while enhancing).<br/>
+     * <br/>
+     * Classes only referenced by the metadata files are enhanced in place, like in
+     * {@link #enhance(ClassLoader, String, Collection, Collection)}.
+     *
+     * @param classLoader   ClassLoader containing the enhancer, its dependencies and the classes to enhance
+     * @param api           persistence api name ('JDO' or 'JPA')
+     * @param metadataFiles paths of metadata files
+     * @param classContents class file contents by fully qualified class name
+     * @return enhanced class file contents by fully qualified class name, only containing changed classes
+     * @throws ClassNotFoundException    if the enhancer is not in provided ClassLoader
+     * @throws NoSuchMethodException     if the enhancer version does not support in-memory enhancement
+     * @throws InvocationTargetException if the enhancer failed
+     * @throws IllegalAccessException    .
+     * @throws InstantiationException    .
+     */
+    public static Map<String, byte[]> enhance(final ClassLoader classLoader,
+                                              final String api,
+                                              final Collection<String> metadataFiles,
+                                              final Map<String, byte[]> classContents)
+            throws ClassNotFoundException,
+                   NoSuchMethodException,
+                   InvocationTargetException,
+                   IllegalAccessException,
+                   InstantiationException {
+
+        final Thread currentThread = Thread.currentThread();
+        final ClassLoader previousCL = currentThread.getContextClassLoader();
+        try {
+            currentThread.setContextClassLoader(classLoader);
+
+            final Object enhancer = newEnhancer(classLoader, api, metadataFiles);
+            for (final Map.Entry<String, byte[]> classContent : classContents.entrySet()) {
+                invokeMethod(enhancer, "addClass", ADD_CLASS_PARAMETER_TYPES, classContent.getKey(), classContent.getValue());
+            }
+            invokeMethod(enhancer, "enhance", NO_PARAMETER_TYPES);
+
+            final Map<String, byte[]> enhancedContents = new LinkedHashMap<String, byte[]>();
+            for (final Map.Entry<String, byte[]> classContent : classContents.entrySet()) {
+                final byte[] enhancedContent;
+                try {
+                    enhancedContent = (byte[]) invokeMethod(enhancer, "getEnhancedBytes", CLASS_NAME_PARAMETER_TYPES, classContent.getKey());
+                } catch (InvocationTargetException ignored) {
+                    // enhancer throws if the class was not enhanced (not persistence capable)
+                    continue;
+                }
+                if (enhancedContent != null && !Arrays.equals(enhancedContent, classContent.getValue())) {
+                    enhancedContents.put(classContent.getKey(), enhancedContent);
+                }
+            }
+            return enhancedContents;
+        } finally {
+            currentThread.setContextClassLoader(previousCL);
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static Object newEnhancer(final ClassLoader classLoader, final String api, final Collection<String> metadataFiles)
+            throws ClassNotFoundException,
+                   NoSuchMethodException,
+                   InvocationTargetException,
+                   IllegalAccessException,
+                   InstantiationException {
+
+        final Class<?> enhancerClass = Class.forName(EnhancerProxyDataNucleus.NUCLEUS_GENERIC_ENHANCER_CLASS_FQ, true, classLoader);
+        final Object enhancer = newEnhancer(enhancerClass, api);
+        invokeMethod(enhancer, "setClassLoader", new Class[] {ClassLoader.class}, classLoader);
+        if (!metadataFiles.isEmpty()) {
+            invokeMethod(enhancer, "addFiles", FILES_PARAMETER_TYPES, (Object) metadataFiles.toArray(new String[metadataFiles.size()]));
+        }
+        return enhancer;
+    }
+
+    private static Object newEnhancer(final Class<?> enhancerClass, final String api)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
+        for (final Constructor<?> constructor : enhancerClass.getConstructors()) {
+            final Class<?>[] parameterTypes = constructor.getParameterTypes();
+            // since 3.1
+            if (parameterTypes.length == 1 && String.class.isAssignableFrom(parameterTypes[0])) {
+                return constructor.newInstance(api);
+            }
+            // since 3.2
+            if (parameterTypes.length == 2 && parameterTypes[0] == String.class && parameterTypes[1] == Properties.class) {
+                return constructor.newInstance(api, new Properties());
+            }
+        }
+        return enhancerClass.getConstructor(String.class, String.class).newInstance(api, "ASM");
+    }
+
+    private static Object invokeMethod(final Object enhancer, final String methodName, final Class[] parameterTypes, final Object... parameters)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        return InternalReflectionHelper.invokeMethod(enhancer, methodName, parameterTypes, parameters);
+    }
+
+}
@@ -20,21 +20,34 @@
 package org.datanucleus.ide.idea.integration.datanuculeus;
 
 import java.io.IOException;
-import java.lang.reflect.Array;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Properties;
 
 import org.datanucleus.ide.idea.PersistenceApi;
 import org.datanucleus.ide.idea.integration.AbstractEnhancerProxy;
 import org.datanucleus.ide.idea.integration.EnhancerContext;
+import org.datanucleus.ide.idea.integration.EnhancerVerbosity;
+import org.datanucleus.ide.idea.integration.InMemoryEnhancerProxy;
 import org.datanucleus.ide.idea.util.InternalReflectionHelper;
 
 /**
- * Proxy for the DataNucleus enhancer.
+ * Proxy for the DataNucleus enhancer.<br/>
+ * <br/>
+ * A new enhancer instance is created per proxy (i.e. per build), so no class, resource or metadata lookup
+ * of a previous build's ClassLoader is kept. The enhancer constructor and the methods invoked per build are
+ * resolved only once per enhancer class (see {@link EnhancerMethods}).<br/>
+ * <br/>
+ * In memory enhancement uses the enhancer's addClass(String, byte[]) and getEnhancedBytes(String)
+ * methods, which are not available in all enhancer versions.<br/>
+ * <br/>
+ * The enhancer methods are invoked via MethodHandles (no per call method lookup and parameter array conversion).
  */
-public class EnhancerProxyDataNucleus extends AbstractEnhancerProxy {
-
-    private static final Class[] NO_PARAMETER_TYPES = {};
+public class EnhancerProxyDataNucleus extends AbstractEnhancerProxy implements InMemoryEnhancerProxy {
 
     public static final String NUCLEUS_ENHANCER_CLASS            = "JDODataNucleusEnhancer";
 
@@ -44,8 +57,24 @@ public class EnhancerProxyDataNucleus extends AbstractEnhancerProxy {
 
     public static final String NUCLEUS_GENERIC_ENHANCER_CLASS_FQ = "org.datanucleus.enhancer." + NUCLEUS_GENERIC_ENHANCER_CLASS;
 
+    private static final Class[] ADD_CLASS_PARAMETER_TYPES = {String.class, byte[].class};
+
+    private static final Class[] GET_ENHANCED_BYTES_PARAMETER_TYPES = {String.class};
+
+    /**
+     * Resolved enhancer constructor and methods, stored with the enhancer class (released with its ClassLoader)
+     */
+    private static final ClassValue<EnhancerMethods> ENHANCER_METHODS = new ClassValue<EnhancerMethods>() {
+        @Override
+        protected EnhancerMethods computeValue(final Class<?> enhancerClass) {
+            return new EnhancerMethods(enhancerClass);
+        }
+    };
+
     private final Object enhancer;
 
+    private final EnhancerMethods methods;
+
     //
     // Constructor
     //
@@ -65,19 +94,24 @@ public class EnhancerProxyDataNucleus extends AbstractEnhancerProxy {
         final PersistenceApi persistenceApi = enhancerContext.getPersistenceApi();
 
         final Class<?> enhancerClass = Class.forName(NUCLEUS_GENERIC_ENHANCER_CLASS_FQ, true, classLoader);
-        final boolean is31 = is31(enhancerClass);
-        if (is31) {
-            final Constructor<?> constructor = enhancerClass.getConstructor(String.class);
-            this.enhancer = constructor.newInstance(persistenceApi.name());
-        } else {
-            final Constructor<?> constructor = enhancerClass.getConstructor(String.class, String.class);
-            this.enhancer = constructor.newInstance(persistenceApi.name(), "ASM");
-        }
-        // log to system out
-        this.invokeMethod("setVerbose", new Class[] {Boolean.TYPE}, true);
-
-        this.invokeMethod("setSystemOut", new Class[] {Boolean.TYPE}, true);
-        this.invokeMethod("setClassLoader", new Class[] {ClassLoader.class}, classLoader);
+        this.methods = ENHANCER_METHODS.get(enhancerClass);
+        if (this.methods.resolveException != null) {
+            throw new NoSuchMethodException(this.methods.resolveException.getMessage());
+        }
+        switch (this.methods.constructorParameters) {
+            case 1:
+                this.enhancer = this.methods.constructor.newInstance(persistenceApi.name());
+                break;
+            case 2:
+                this.enhancer = this.methods.constructor.newInstance(persistenceApi.name(), new Properties());
+                break;
+            default:
+                this.enhancer = this.methods.constructor.newInstance(persistenceApi.name(), "ASM");
+                break;
+        }
+
+        this.setVerbosity(enhancerContext.getVerbosity());
+        this.setClassLoader(classLoader);
     }
 
     //
@@ -85,21 +119,60 @@ public class EnhancerProxyDataNucleus extends AbstractEnhancerProxy {
     //
 
     public void addClasses(final String... classNames) throws InvocationTargetException, IllegalAccessException, NoSuchMethodException {
-        final Object parameter = convertVarargsParameter(classNames);
-        final Object parameterClassesArray = Array.newInstance(String.class, 0);
-
-        invokeMethod("addClasses", new Class[]{parameterClassesArray.getClass()}, parameter);
+        try {
+            this.methods.addClassesHandle.invokeExact(this.enhancer, classNames);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
     }
 
     public void addMetadataFiles(final String... metadataFiles) throws InvocationTargetException, IllegalAccessException, NoSuchMethodException {
-        final Object parameter = convertVarargsParameter(metadataFiles);
-        final Object parameterClassesArray = Array.newInstance(String.class, 0);
+        try {
+            this.methods.addFilesHandle.invokeExact(this.enhancer, metadataFiles);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
 
-        invokeMethod("addFiles", new Class[]{parameterClassesArray.getClass()}, parameter);
+    public boolean isInMemoryEnhancementSupported() {
+        return this.methods.addClassHandle != null;
+    }
+
+    public void addClass(final String className, final byte[] bytes)
+            throws InvocationTargetException, IllegalAccessException, NoSuchMethodException {
+
+        if (this.methods.addClassHandle == null) {
+            throw new NoSuchMethodException("addClass");
+        }
+        try {
+            this.methods.addClassHandle.invokeExact(this.enhancer, className, bytes);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public byte[] getEnhancedClassBytes(final String className)
+            throws InvocationTargetException, IllegalAccessException, NoSuchMethodException {
+
+        if (this.methods.getEnhancedBytesHandle == null) {
+            throw new NoSuchMethodException("getEnhancedBytes");
+        }
+        try {
+            return (byte[]) this.methods.getEnhancedBytesHandle.invokeExact(this.enhancer, className);
+        } catch (RuntimeException ignored) {
+            // the enhancer throws if it has no enhanced bytes for the class (e.g. not persistable)
+            return null;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
     }
 
     public int enhance() throws InvocationTargetException, IllegalAccessException, NoSuchMethodException {
-        return (Integer) invokeMethod("enhance", NO_PARAMETER_TYPES);
+        try {
+            return (int) this.methods.enhanceHandle.invokeExact(this.enhancer);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
     }
 
     @Override
@@ -122,18 +195,140 @@ public class EnhancerProxyDataNucleus extends AbstractEnhancerProxy {
         return false;
     }
 
+    private static boolean is32(final Class<?> enhancerClass) {
+        try {
+            enhancerClass.getConstructor(String.class, Properties.class);
+            return true;
+        } catch (NoSuchMethodException ignored) {
+            return false;
+        }
+    }
+
+    private static boolean hasMethod(final Class<?> clazz, final String methodName, final Class[] parameterTypes) {
+        try {
+            clazz.getMethod(methodName, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException ignored) {
+            return false;
+        }
+    }
+
     private Object invokeMethod(final String methodName, final Class[] parameterTypes, final Object... parameters)
             throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
 
         return InternalReflectionHelper.invokeMethod(this.enhancer, methodName, parameterTypes, parameters);
     }
 
-    private static Object convertVarargsParameter(final String[] metadataFiles) {
-        final Object parameter = Array.newInstance(String.class, metadataFiles.length);
-        for (int i = 0; i < metadataFiles.length; ++i) {
-            Array.set(parameter, i, metadataFiles[i]);
+    /**
+     * Verbose output is logged to system out (captured by the caller if buffered), or disabled.
+     */
+    private void setVerbosity(final EnhancerVerbosity verbosity)
+            throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+
+        final boolean verbose = verbosity != EnhancerVerbosity.QUIET;
+        this.invokeMethod("setVerbose", new Class[] {Boolean.TYPE}, verbose);
+        this.invokeMethod("setSystemOut", new Class[] {Boolean.TYPE}, verbose);
+    }
+
+    private void setClassLoader(final ClassLoader classLoader) throws InvocationTargetException {
+        try {
+            this.methods.setClassLoaderHandle.invokeExact(this.enhancer, classLoader);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
         }
-        return parameter;
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Constructor and MethodHandles of an enhancer class, the handles take the enhancer instance as first parameter.
+     */
+    private static final class EnhancerMethods {
+
+        private Constructor<?> constructor;
+
+        /**
+         * Number of constructor parameters: 1 (since 3.1: api), 2 (since 3.2: api and properties), 0 (api and "ASM")
+         */
+        private int constructorParameters;
+
+        private MethodHandle addClassesHandle;
+
+        private MethodHandle addFilesHandle;
+
+        private MethodHandle enhanceHandle;
+
+        private MethodHandle setClassLoaderHandle;
+
+        /**
+         * null if in memory enhancement is not supported
+         */
+        private MethodHandle addClassHandle;
+
+        /**
+         * null if in memory enhancement is not supported
+         */
+        private MethodHandle getEnhancedBytesHandle;
+
+        /**
+         * Failure to resolve the constructor or methods, thrown on every proxy construction
+         */
+        private NoSuchMethodException resolveException;
+
+        private EnhancerMethods(final Class<?> enhancerClass) {
+            try {
+                if (is31(enhancerClass)) {
+                    this.constructor = enhancerClass.getConstructor(String.class);
+                    this.constructorParameters = 1;
+                } else if (is32(enhancerClass)) {
+                    this.constructor = enhancerClass.getConstructor(String.class, Properties.class);
+                    this.constructorParameters = 2;
+                } else {
+                    this.constructor = enhancerClass.getConstructor(String.class, String.class);
+                    this.constructorParameters = 0;
+                }
+
+                this.addClassesHandle = findMethodHandle(enhancerClass, "addClasses", MethodType.methodType(void.class, String[].class));
+                this.addFilesHandle = findMethodHandle(enhancerClass, "addFiles", MethodType.methodType(void.class, String[].class));
+                this.enhanceHandle = findMethodHandle(enhancerClass, "enhance", MethodType.methodType(int.class));
+                this.setClassLoaderHandle = findMethodHandle(enhancerClass, "setClassLoader", MethodType.methodType(void.class, ClassLoader.class));
+                if (hasMethod(enhancerClass, "addClass", ADD_CLASS_PARAMETER_TYPES)
+                        && hasMethod(enhancerClass, "getEnhancedBytes", GET_ENHANCED_BYTES_PARAMETER_TYPES)) {
+                    this.addClassHandle = findMethodHandle(enhancerClass, "addClass", MethodType.methodType(void.class, ADD_CLASS_PARAMETER_TYPES));
+                    this.getEnhancedBytesHandle = findMethodHandle(enhancerClass, "getEnhancedBytes",
+                                                                   MethodType.methodType(byte[].class, GET_ENHANCED_BYTES_PARAMETER_TYPES));
+                }
+            } catch (NoSuchMethodException e) {
+                this.resolveException = e;
+            } catch (IllegalAccessException e) {
+                this.resolveException = new NoSuchMethodException(e.toString());
+            }
+        }
+
+        /**
+         * Resolve an enhancer method (found the same way as by {@link InternalReflectionHelper}) to a MethodHandle
+         * adapted to provided type with the enhancer instance (as Object) as additional first parameter
+         * (return values are dropped for void).
+         */
+        private static MethodHandle findMethodHandle(final Class<?> enhancerClass, final String methodName, final MethodType type)
+                throws NoSuchMethodException, IllegalAccessException {
+
+            Method method = null;
+            for (Class<?> clazz = enhancerClass; method == null && clazz != null; clazz = clazz.getSuperclass()) {
+                try {
+                    method = clazz.getDeclaredMethod(methodName, type.parameterArray());
+                } catch (NoSuchMethodException ignored) {
+                }
+            }
+            if (method == null) {
+                throw new NoSuchMethodException(enhancerClass.getName() + '.' + methodName + type);
+            }
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method).asType(type.insertParameterTypes(0, Object.class));
+        }
+
     }
 
 }
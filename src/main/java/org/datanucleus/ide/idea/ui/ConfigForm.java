@@ -20,6 +20,7 @@
 package org.datanucleus.ide.idea.ui;
 
 import javax.swing.JComponent;
+import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -39,4 +40,25 @@ public interface ConfigForm {
 
     boolean isModified();
 
+    /**
+     * Add a module detected after {@link #setData(GuiState)} (background loading).
+     *
+     * @param affectedModule the detected module
+     */
+    void addAffectedModule(@NotNull AffectedModule affectedModule);
+
+    /**
+     * Mark module detection as finished (background loading).
+     */
+    void setIndexReady();
+
+    /**
+     * Add metadata and annotated class files discovered after {@link #setData(GuiState)} (background loading).
+     *
+     * @param metadataFiles       discovered metadata files
+     * @param annotatedClassFiles discovered annotated class files
+     */
+    void addMetadataAndClassFiles(@NotNull List<MetaDataOrClassFile> metadataFiles,
+                                  @NotNull List<MetaDataOrClassFile> annotatedClassFiles);
+
 }
@@ -138,6 +138,15 @@ public class DNEConfigForm implements ConfigForm {
     private final DependenciesAddDeletePanel dependenciesAddDeletePanel;
     private JPanel modifiersPanel;
 
+    // daemon tab
+    private JPanel daemonPanel;
+
+    private JCheckBox enhancerDaemonCheckBox;
+
+    private JTextField enhancerDaemonVmOptionsTextField;
+
+    private JTextField enhancerDaemonIdleMinutesTextField;
+
     public DNEConfigForm(@NotNull final GuiState guiState, @Nullable final VirtualFile projectRootDir) {
         this.guiStateBeforeChanges = guiState;
 
@@ -177,7 +186,7 @@ public class DNEConfigForm implements ConfigForm {
         //
         // Basic panels
         this.indexNotReadyPanel.setVisible(!data.isIndexReady());
-        this.contentPanel.setVisible(data.isIndexReady());
+        this.contentPanel.setVisible(data.isIndexReady() || !data.getAffectedModules().isEmpty());
 
         //
         // Enable enhancer checkbox
@@ -248,19 +257,7 @@ public class DNEConfigForm implements ConfigForm {
         //
         // Table displaying affected files/classes/.. if enhancer is initialized
 
-        final TableModel metadataOrClassFilesRowModel =
-                new MetadataOrClassFilesRowModel(data.getMetadataFiles(), data.getAnnotatedClassFiles());
-        // files affected by class enhancement
-        this.metadataAndClassesTable.setModel(metadataOrClassFilesRowModel);
-        // set column appearance
-        this.metadataAndClassesTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-
-        // adjust column sizes (after being rendered the first time - necessary for ColumnAdjuster to work)
-        final ColumnAdjuster columnAdjuster = new ColumnAdjuster(this.metadataAndClassesTable);
-        //columnAdjuster.setOnlyAdjustLarger(false);
-        columnAdjuster.setDynamicAdjustment(true);
-        columnAdjuster.adjustColumns();
-        setPreferredTableHeight(this.metadataAndClassesTable, this.metadataAndClassesTable.getRowCount());
+        this.setMetadataAndClassFilesTableData(data.getMetadataFiles(), data.getAnnotatedClassFiles());
 
         this.metadataAndClassesTable.setVisible(data.isEnhancerInitialized());
 
@@ -280,6 +277,12 @@ public class DNEConfigForm implements ConfigForm {
         }
 
         this.dependenciesAddDeletePanel.resetDependencyList(enhancerSupport.getId(), persistenceApi, data.getDependencies());
+
+        //
+        // Enhancer daemon settings
+        this.enhancerDaemonCheckBox.setSelected(data.isEnhancerDaemon());
+        this.enhancerDaemonVmOptionsTextField.setText(data.getEnhancerDaemonVmOptions());
+        this.enhancerDaemonIdleMinutesTextField.setText(String.valueOf(data.getEnhancerDaemonIdleMinutes()));
     }
 
     public void getData(@NotNull final GuiState data) {
@@ -302,10 +305,16 @@ public class DNEConfigForm implements ConfigForm {
         final PersistenceApi supportedApi = apiSupported ? selectedApi : enhancerSupport.getDefaultPersistenceApi();
         data.setApi(supportedApi);
         data.setAffectedModules(((AffectedModulesRowModel) this.affectedModulesTable.getModel()).getAffectedModules());
+        data.setIndexReady(this.guiStateBeforeChanges.isIndexReady());
 
         data.setDependenciesManual(this.depManualRadioButton.isSelected());
 
         data.setDependencies(this.dependenciesAddDeletePanel.getDependencies());
+
+        data.setEnhancerDaemon(this.enhancerDaemonCheckBox.isSelected());
+        data.setEnhancerDaemonVmOptions(this.enhancerDaemonVmOptionsTextField.getText().trim());
+        data.setEnhancerDaemonIdleMinutes(
+                parseMinutes(this.enhancerDaemonIdleMinutesTextField.getText(), this.guiStateBeforeChanges.getEnhancerDaemonIdleMinutes()));
     }
 
     public boolean isModified() {
@@ -352,6 +361,17 @@ public class DNEConfigForm implements ConfigForm {
             return true;
         }
 
+        if (before.isEnhancerDaemon() != this.enhancerDaemonCheckBox.isSelected()) {
+            return true;
+        }
+        if (!this.enhancerDaemonVmOptionsTextField.getText().trim().equals(before.getEnhancerDaemonVmOptions())) {
+            return true;
+        }
+        if (parseMinutes(this.enhancerDaemonIdleMinutesTextField.getText(), before.getEnhancerDaemonIdleMinutes())
+                != before.getEnhancerDaemonIdleMinutes()) {
+            return true;
+        }
+
         final AffectedModulesRowModel affectedModulesRowModel =
                 (AffectedModulesRowModel) this.affectedModulesTable.getModel();
         final List<AffectedModule> affectedModules = affectedModulesRowModel.getAffectedModules();
@@ -359,6 +379,41 @@ public class DNEConfigForm implements ConfigForm {
                 ? !affectedModules.equals(before.getAffectedModules()) : before.getAffectedModules() != null;
     }
 
+    public void addAffectedModule(@NotNull final AffectedModule affectedModule) {
+        this.guiStateBeforeChanges.addAffectedModule(new AffectedModule(affectedModule.isEnabled(), affectedModule.getName()));
+        ((AffectedModulesRowModel) this.affectedModulesTable.getModel()).addAffectedModule(affectedModule);
+        setPreferredTableHeight(this.affectedModulesTable, this.affectedModulesTable.getRowCount());
+        this.contentPanel.setVisible(true);
+    }
+
+    public void setIndexReady() {
+        this.guiStateBeforeChanges.setIndexReady(true);
+        this.indexNotReadyPanel.setVisible(false);
+        this.contentPanel.setVisible(true);
+    }
+
+    public void addMetadataAndClassFiles(@NotNull final List<MetaDataOrClassFile> metadataFiles,
+                                         @NotNull final List<MetaDataOrClassFile> annotatedClassFiles) {
+        this.guiStateBeforeChanges.addMetadataAndClassFiles(metadataFiles, annotatedClassFiles);
+        this.setMetadataAndClassFilesTableData(this.guiStateBeforeChanges.getMetadataFiles(), this.guiStateBeforeChanges.getAnnotatedClassFiles());
+    }
+
+    private void setMetadataAndClassFilesTableData(final List<MetaDataOrClassFile> metadataFiles,
+                                                   final List<MetaDataOrClassFile> annotatedClassFiles) {
+        final TableModel metadataOrClassFilesRowModel = new MetadataOrClassFilesRowModel(metadataFiles, annotatedClassFiles);
+        // files affected by class enhancement
+        this.metadataAndClassesTable.setModel(metadataOrClassFilesRowModel);
+        // set column appearance
+        this.metadataAndClassesTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+
+        // adjust column sizes (after being rendered the first time - necessary for ColumnAdjuster to work)
+        final ColumnAdjuster columnAdjuster = new ColumnAdjuster(this.metadataAndClassesTable);
+        //columnAdjuster.setOnlyAdjustLarger(false);
+        columnAdjuster.setDynamicAdjustment(true);
+        columnAdjuster.adjustColumns();
+        setPreferredTableHeight(this.metadataAndClassesTable, this.metadataAndClassesTable.getRowCount());
+    }
+
     private void createUIComponents() {
         //
         // ComboBox for selecting persistence implementation
@@ -517,6 +572,18 @@ public class DNEConfigForm implements ConfigForm {
         return ret;
     }
 
+    /**
+     * @return the minutes entered or provided fallback if not a positive number
+     */
+    private static int parseMinutes(final String text, final int fallback) {
+        try {
+            final int minutes = Integer.parseInt(text.trim());
+            return minutes > 0 ? minutes : fallback;
+        } catch (NumberFormatException ignored) {
+            return fallback;
+        }
+    }
+
     private static boolean containsDisabledTokens(final String extensionsString) {
         boolean contains = false;
 
@@ -554,7 +621,7 @@ public class DNEConfigForm implements ConfigForm {
         indexNotReadyPanel.setLayout(new GridLayoutManager(1, 1, new Insets(0, 0, 0, 0), -1, -1));
         configPanel.add(indexNotReadyPanel, new GridConstraints(3, 0, 1, 3, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, 1, null, null, null, 0, false));
         final JLabel label1 = new JLabel();
-        label1.setText("Please wait until indexing is finished");
+        label1.setText("Please wait until indexing and module detection are finished");
         indexNotReadyPanel.add(label1, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         contentPanel = new JPanel();
         contentPanel.setLayout(new GridLayoutManager(2, 1, new Insets(0, 0, 0, 0), -1, -1));
@@ -626,6 +693,24 @@ public class DNEConfigForm implements ConfigForm {
         label4.setText("Using Enhancer and it's Dependencies from Project Module");
         manualDependenciesDisabledInfoPanel.add(label4, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         dependenciesPanel.add(dependenciesAddDeletePanel, new GridConstraints(2, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, null, null, 0, false));
+        daemonPanel = new JPanel();
+        daemonPanel.setLayout(new GridLayoutManager(4, 2, new Insets(6, 2, 2, 2), -1, -1));
+        configTabbedPane.addTab("Enhancer Daemon", daemonPanel);
+        enhancerDaemonCheckBox = new JCheckBox();
+        enhancerDaemonCheckBox.setText("Enhance in a separate daemon process (DataNucleus enhancer only)");
+        daemonPanel.add(enhancerDaemonCheckBox, new GridConstraints(0, 0, 1, 2, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        final JLabel label5 = new JLabel();
+        label5.setText(" Daemon VM options (heap, GC)");
+        daemonPanel.add(label5, new GridConstraints(1, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        enhancerDaemonVmOptionsTextField = new JTextField();
+        daemonPanel.add(enhancerDaemonVmOptionsTextField, new GridConstraints(1, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
+        final JLabel label6 = new JLabel();
+        label6.setText(" Idle timeout (minutes)");
+        daemonPanel.add(label6, new GridConstraints(2, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        enhancerDaemonIdleMinutesTextField = new JTextField();
+        daemonPanel.add(enhancerDaemonIdleMinutesTextField, new GridConstraints(2, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
+        final Spacer spacer3 = new Spacer();
+        daemonPanel.add(spacer3, new GridConstraints(3, 0, 1, 2, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_VERTICAL, 1, GridConstraints.SIZEPOLICY_WANT_GROW, null, null, null, 0, false));
         generalPanel = new JPanel();
         generalPanel.setLayout(new GridLayoutManager(1, 3, new Insets(0, 0, 0, 0), -1, -1));
         parentPanel.add(generalPanel, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_NORTH, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, null, null, null, 0, false));
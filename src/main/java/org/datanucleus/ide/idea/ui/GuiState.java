@@ -69,6 +69,15 @@ public class GuiState {
 
     private Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies;
 
+    private boolean enhancerDaemon = false;
+
+    /**
+     * Additional VM options of the enhancer daemon (e.g. heap size and garbage collector)
+     */
+    private String enhancerDaemonVmOptions = "";
+
+    private int enhancerDaemonIdleMinutes;
+
     //
     // Constructors
     //
@@ -87,7 +96,10 @@ public class GuiState {
              new ArrayList<MetaDataOrClassFile>(0),
              new ArrayList<MetaDataOrClassFile>(0),
              true,
-             new LinkedHashMap<String, Map<PersistenceApi, List<VirtualFile>>>());
+             new LinkedHashMap<String, Map<PersistenceApi, List<VirtualFile>>>(),
+             false,
+             "",
+             0);
     }
 
     public GuiState(final boolean indexReady,
@@ -103,7 +115,10 @@ public class GuiState {
                     final List<MetaDataOrClassFile> metadataFiles,
                     final List<MetaDataOrClassFile> annotatedClassFiles,
                     final boolean dependenciesManual,
-                    final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies) {
+                    final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies,
+                    final boolean enhancerDaemon,
+                    final String enhancerDaemonVmOptions,
+                    final int enhancerDaemonIdleMinutes) {
 
         this.indexReady = indexReady;
         this.enhancerEnabled = enhancerEnabled;
@@ -119,6 +134,9 @@ public class GuiState {
         this.metadataFiles = new ArrayList<MetaDataOrClassFile>(metadataFiles);
         this.dependenciesManual = enhancerSupport.getVersion() == EnhancerSupportVersion.V1_1_X && dependenciesManual;
         this.dependencies = deepCopyDependencies(dependencies);
+        this.enhancerDaemon = enhancerDaemon;
+        this.enhancerDaemonVmOptions = enhancerDaemonVmOptions;
+        this.enhancerDaemonIdleMinutes = enhancerDaemonIdleMinutes;
     }
 
     public GuiState(final GuiState data) {
@@ -135,17 +153,27 @@ public class GuiState {
              data.getMetadataFiles(),
              data.getAnnotatedClassFiles(),
              data.isDependenciesManual(),
-             deepCopyDependencies(data.getDependencies()));
+             deepCopyDependencies(data.getDependencies()),
+             data.isEnhancerDaemon(),
+             data.getEnhancerDaemonVmOptions(),
+             data.getEnhancerDaemonIdleMinutes());
     }
 
     //
     // Methods
     //
 
+    /**
+     * @return true if the affected modules are completely detected (index ready, detection finished)
+     */
     public boolean isIndexReady() {
         return this.indexReady;
     }
 
+    public void setIndexReady(final boolean indexReady) {
+        this.indexReady = indexReady;
+    }
+
     public boolean isEnhancerEnabled() {
         return this.enhancerEnabled;
     }
@@ -214,6 +242,10 @@ public class GuiState {
         this.affectedModules = new ArrayList<AffectedModule>(affectedModules);
     }
 
+    public void addAffectedModule(final AffectedModule affectedModule) {
+        this.affectedModules.add(affectedModule);
+    }
+
     public List<MetaDataOrClassFile> getMetadataFiles() {
         return new ArrayList<MetaDataOrClassFile>(this.metadataFiles);
     }
@@ -222,6 +254,12 @@ public class GuiState {
         return new ArrayList<MetaDataOrClassFile>(this.annotatedClassFiles);
     }
 
+    public void addMetadataAndClassFiles(final Collection<MetaDataOrClassFile> metadataFiles,
+                                         final Collection<MetaDataOrClassFile> annotatedClassFiles) {
+        this.metadataFiles.addAll(metadataFiles);
+        this.annotatedClassFiles.addAll(annotatedClassFiles);
+    }
+
     public boolean isDependenciesManual() {
         return this.dependenciesManual;
     }
@@ -237,6 +275,30 @@ public class GuiState {
     public void setDependencies(final Map<String, Map<PersistenceApi, List<VirtualFile>>> dependencies) {
         this.dependencies = deepCopyDependencies(dependencies);
     }
+
+    public boolean isEnhancerDaemon() {
+        return this.enhancerDaemon;
+    }
+
+    public void setEnhancerDaemon(final boolean enhancerDaemon) {
+        this.enhancerDaemon = enhancerDaemon;
+    }
+
+    public String getEnhancerDaemonVmOptions() {
+        return this.enhancerDaemonVmOptions;
+    }
+
+    public void setEnhancerDaemonVmOptions(final String enhancerDaemonVmOptions) {
+        this.enhancerDaemonVmOptions = enhancerDaemonVmOptions;
+    }
+
+    public int getEnhancerDaemonIdleMinutes() {
+        return this.enhancerDaemonIdleMinutes;
+    }
+
+    public void setEnhancerDaemonIdleMinutes(final int enhancerDaemonIdleMinutes) {
+        this.enhancerDaemonIdleMinutes = enhancerDaemonIdleMinutes;
+    }
 //
     // java.lang.Object overrides
     //
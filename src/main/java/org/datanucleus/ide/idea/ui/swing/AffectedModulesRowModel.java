@@ -40,6 +40,12 @@ public class AffectedModulesRowModel extends AbstractTableModel {
         return this.affectedModules;
     }
 
+    public void addAffectedModule(final AffectedModule affectedModule) {
+        this.affectedModules.add(affectedModule);
+        final int row = this.affectedModules.size() - 1;
+        this.fireTableRowsInserted(row, row);
+    }
+
     public int getRowCount() {
         return this.affectedModules.size();
     }
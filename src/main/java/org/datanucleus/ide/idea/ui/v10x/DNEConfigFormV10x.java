@@ -56,6 +56,7 @@ import org.datanucleus.ide.idea.integration.EnhancerSupport;
 import org.datanucleus.ide.idea.ui.AffectedModule;
 import org.datanucleus.ide.idea.ui.ConfigForm;
 import org.datanucleus.ide.idea.ui.GuiState;
+import org.datanucleus.ide.idea.ui.MetaDataOrClassFile;
 import org.datanucleus.ide.idea.ui.swing.AffectedModulesRowModel;
 import org.datanucleus.ide.idea.ui.swing.ColumnAdjuster;
 import org.datanucleus.ide.idea.ui.swing.JHintingTextField;
@@ -100,6 +101,14 @@ public class DNEConfigFormV10x implements ConfigForm {
 
     private JComboBox persistenceImplComboBox;
 
+    private JPanel daemonPanel;
+
+    private JCheckBox enhancerDaemonCheckBox;
+
+    private JTextField enhancerDaemonVmOptionsTextField;
+
+    private JTextField enhancerDaemonIdleMinutesTextField;
+
     //
     // Interface with DNEProjectComponent
     //
@@ -119,7 +128,7 @@ public class DNEConfigFormV10x implements ConfigForm {
         //
         // Basic panels
         this.indexNotReadyPanel.setVisible(!data.isIndexReady());
-        this.contentPanel.setVisible(data.isIndexReady());
+        this.contentPanel.setVisible(data.isIndexReady() || !data.getAffectedModules().isEmpty());
 
         //
         // Enable enhancer checkbox
@@ -191,24 +200,16 @@ public class DNEConfigFormV10x implements ConfigForm {
         //
         // Table displaying affected files/classes/.. if enhancer is initialized
 
-        final TableModel metadataOrClassFilesRowModel =
-                new MetadataOrClassFilesRowModel(data.getMetadataFiles(), data.getAnnotatedClassFiles());
-        // files affected by class enhancement
-        this.metadataAndClassesTable.setModel(metadataOrClassFilesRowModel);
-        // set column appearance
-        this.metadataAndClassesTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-
-        // adjust column sizes (after being rendered the first time - necessary for ColumnAdjuster to work)
-        final ColumnAdjuster columnAdjuster = new ColumnAdjuster(this.metadataAndClassesTable);
-        //columnAdjuster.setOnlyAdjustLarger(false);
-        columnAdjuster.setDynamicAdjustment(true);
-        columnAdjuster.adjustColumns();
-        setPreferredTableHeight(this.metadataAndClassesTable, this.metadataAndClassesTable.getRowCount());
+        this.setMetadataAndClassFilesTableData(data.getMetadataFiles(), data.getAnnotatedClassFiles());
 
         this.metadataAndClassesTable.setVisible(data.isEnhancerInitialized());
 
         // only display detected classes if initialized
         this.metaDataAndClassesScrollPane.setVisible(data.isEnhancerInitialized());
+
+        this.enhancerDaemonCheckBox.setSelected(data.isEnhancerDaemon());
+        this.enhancerDaemonVmOptionsTextField.setText(data.getEnhancerDaemonVmOptions());
+        this.enhancerDaemonIdleMinutesTextField.setText(String.valueOf(data.getEnhancerDaemonIdleMinutes()));
     }
 
     public void getData(@NotNull final GuiState data) {
@@ -231,7 +232,13 @@ public class DNEConfigFormV10x implements ConfigForm {
         final PersistenceApi supportedApi = apiSupported ? selectedApi : enhancerSupport.getDefaultPersistenceApi();
         data.setApi(supportedApi);
         data.setAffectedModules(((AffectedModulesRowModel) this.affectedModulesTable.getModel()).getAffectedModules());
+        data.setIndexReady(this.guiState.isIndexReady());
         data.setDependenciesManual(false);
+
+        data.setEnhancerDaemon(this.enhancerDaemonCheckBox.isSelected());
+        data.setEnhancerDaemonVmOptions(this.enhancerDaemonVmOptionsTextField.getText().trim());
+        data.setEnhancerDaemonIdleMinutes(
+                parseMinutes(this.enhancerDaemonIdleMinutesTextField.getText(), this.guiState.getEnhancerDaemonIdleMinutes()));
     }
 
     public boolean isModified() {
@@ -269,11 +276,57 @@ public class DNEConfigFormV10x implements ConfigForm {
             return true;
         }
 
+        if (data.isEnhancerDaemon() != this.enhancerDaemonCheckBox.isSelected()) {
+            return true;
+        }
+        if (!this.enhancerDaemonVmOptionsTextField.getText().trim().equals(data.getEnhancerDaemonVmOptions())) {
+            return true;
+        }
+        if (parseMinutes(this.enhancerDaemonIdleMinutesTextField.getText(), data.getEnhancerDaemonIdleMinutes())
+                != data.getEnhancerDaemonIdleMinutes()) {
+            return true;
+        }
+
         final AffectedModulesRowModel affectedModulesRowModel = (AffectedModulesRowModel) this.affectedModulesTable.getModel();
         final List<AffectedModule> affectedModules = affectedModulesRowModel.getAffectedModules();
         return affectedModules != null ? !affectedModules.equals(data.getAffectedModules()) : data.getAffectedModules() != null;
     }
 
+    public void addAffectedModule(@NotNull final AffectedModule affectedModule) {
+        this.guiState.addAffectedModule(new AffectedModule(affectedModule.isEnabled(), affectedModule.getName()));
+        ((AffectedModulesRowModel) this.affectedModulesTable.getModel()).addAffectedModule(affectedModule);
+        setPreferredTableHeight(this.affectedModulesTable, this.affectedModulesTable.getRowCount());
+        this.contentPanel.setVisible(true);
+    }
+
+    public void setIndexReady() {
+        this.guiState.setIndexReady(true);
+        this.indexNotReadyPanel.setVisible(false);
+        this.contentPanel.setVisible(true);
+    }
+
+    public void addMetadataAndClassFiles(@NotNull final List<MetaDataOrClassFile> metadataFiles,
+                                         @NotNull final List<MetaDataOrClassFile> annotatedClassFiles) {
+        this.guiState.addMetadataAndClassFiles(metadataFiles, annotatedClassFiles);
+        this.setMetadataAndClassFilesTableData(this.guiState.getMetadataFiles(), this.guiState.getAnnotatedClassFiles());
+    }
+
+    private void setMetadataAndClassFilesTableData(final List<MetaDataOrClassFile> metadataFiles,
+                                                   final List<MetaDataOrClassFile> annotatedClassFiles) {
+        final TableModel metadataOrClassFilesRowModel = new MetadataOrClassFilesRowModel(metadataFiles, annotatedClassFiles);
+        // files affected by class enhancement
+        this.metadataAndClassesTable.setModel(metadataOrClassFilesRowModel);
+        // set column appearance
+        this.metadataAndClassesTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+
+        // adjust column sizes (after being rendered the first time - necessary for ColumnAdjuster to work)
+        final ColumnAdjuster columnAdjuster = new ColumnAdjuster(this.metadataAndClassesTable);
+        //columnAdjuster.setOnlyAdjustLarger(false);
+        columnAdjuster.setDynamicAdjustment(true);
+        columnAdjuster.adjustColumns();
+        setPreferredTableHeight(this.metadataAndClassesTable, this.metadataAndClassesTable.getRowCount());
+    }
+
     private void createUIComponents() {
 
         //
@@ -360,6 +413,18 @@ public class DNEConfigFormV10x implements ConfigForm {
         return ret;
     }
 
+    /**
+     * @return the minutes entered or provided fallback if not a positive number
+     */
+    private static int parseMinutes(final String text, final int fallback) {
+        try {
+            final int minutes = Integer.parseInt(text.trim());
+            return minutes > 0 ? minutes : fallback;
+        } catch (NumberFormatException ignored) {
+            return fallback;
+        }
+    }
+
     private static boolean containsDisabledTokens(final String extensionsString) {
         boolean contains = false;
 
@@ -391,7 +456,7 @@ public class DNEConfigFormV10x implements ConfigForm {
     private void $$$setupUI$$$() {
         createUIComponents();
         configPanel = new JPanel();
-        configPanel.setLayout(new GridLayoutManager(5, 3, new Insets(0, 0, 0, 0), -1, -1));
+        configPanel.setLayout(new GridLayoutManager(6, 3, new Insets(0, 0, 0, 0), -1, -1));
         enableEnhancerCheckBox = new JCheckBox();
         enableEnhancerCheckBox.setText("Enable Enhancer");
         configPanel.add(enableEnhancerCheckBox, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE,
@@ -445,20 +510,52 @@ public class DNEConfigFormV10x implements ConfigForm {
                         new GridConstraints(2, 2, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE,
                                             GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
                                             GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        daemonPanel = new JPanel();
+        daemonPanel.setLayout(new GridLayoutManager(1, 5, new Insets(0, 0, 0, 0), -1, -1));
+        configPanel.add(daemonPanel, new GridConstraints(3, 0, 1, 3, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL,
+                                                         GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
+                                                         GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, null,
+                                                         null, null, 0, false));
+        enhancerDaemonCheckBox = new JCheckBox();
+        enhancerDaemonCheckBox.setText("Enhancer daemon");
+        daemonPanel.add(enhancerDaemonCheckBox, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE,
+                                                                    GridConstraints.SIZEPOLICY_CAN_SHRINK
+                                                                    | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED,
+                                                                    null, null, null, 0, false));
+        final JLabel label4 = new JLabel();
+        label4.setText(" VM options (heap, GC)");
+        daemonPanel.add(label4, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE,
+                                                    GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0,
+                                                    false));
+        enhancerDaemonVmOptionsTextField = new JTextField();
+        daemonPanel.add(enhancerDaemonVmOptionsTextField,
+                        new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL,
+                                            GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null,
+                                            new Dimension(150, -1), null, 0, false));
+        final JLabel label5 = new JLabel();
+        label5.setText(" Idle timeout (minutes)");
+        daemonPanel.add(label5, new GridConstraints(0, 3, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE,
+                                                    GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0,
+                                                    false));
+        enhancerDaemonIdleMinutesTextField = new JTextField();
+        daemonPanel.add(enhancerDaemonIdleMinutesTextField,
+                        new GridConstraints(0, 4, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL,
+                                            GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null,
+                                            new Dimension(50, -1), null, 0, false));
         indexNotReadyPanel = new JPanel();
         indexNotReadyPanel.setLayout(new GridLayoutManager(1, 1, new Insets(0, 0, 0, 0), -1, -1));
-        configPanel.add(indexNotReadyPanel, new GridConstraints(3, 0, 1, 3, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
+        configPanel.add(indexNotReadyPanel, new GridConstraints(4, 0, 1, 3, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
                                                                 GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
                                                                 GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
                                                                 null, null, null, 0, false));
         final JLabel label2 = new JLabel();
-        label2.setText("Please wait until indexing is finished");
+        label2.setText("Please wait until indexing and module detection are finished");
         indexNotReadyPanel.add(label2, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_NONE,
                                                            GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null,
                                                            null, 0, false));
         contentPanel = new JPanel();
         contentPanel.setLayout(new GridLayoutManager(2, 1, new Insets(0, 0, 0, 0), -1, -1));
-        configPanel.add(contentPanel, new GridConstraints(4, 0, 1, 3, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
+        configPanel.add(contentPanel, new GridConstraints(5, 0, 1, 3, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
                                                           GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
                                                           GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, null,
                                                           null, null, 0, false));
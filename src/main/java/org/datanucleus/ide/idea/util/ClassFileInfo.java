@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Minimal class file reader, extracting the class name, super class name, implemented interfaces,
+ * declared field names, runtime visible class annotations and referenced classes (class constants)
+ * from class file bytes without loading the class.<br/>
+ * <br/>
+ * All names are in internal form (e.g. 'java/lang/Object').
+ */
+public final class ClassFileInfo {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int ACC_ANNOTATION = 0x2000;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    /**
+     * Interfaces added to persistable classes by the DataNucleus (and older JDO reference) enhancer.
+     */
+    private static final Collection<String> ENHANCED_INTERFACES = Collections.unmodifiableCollection(new HashSet<String>(Arrays.asList(
+            "org/datanucleus/enhancement/Persistable",
+            "javax/jdo/spi/PersistenceCapable")));
+
+    /**
+     * Fields added to every enhanced persistable class (including subclasses that don't redeclare the interfaces).
+     */
+    private static final Collection<String> ENHANCED_FIELDS = Collections.unmodifiableCollection(new HashSet<String>(Arrays.asList(
+            "dnFieldNames",
+            "dnStateManager",
+            "jdoFieldNames",
+            "jdoStateManager")));
+
+    private final int accessFlags;
+
+    private final String className;
+
+    private final String superClassName;
+
+    private final List<String> interfaceNames;
+
+    private final List<String> fieldNames;
+
+    private final List<String> annotationNames;
+
+    private final List<String> referencedClassNames;
+
+    private ClassFileInfo(final int accessFlags,
+                          final String className,
+                          final String superClassName,
+                          final List<String> interfaceNames,
+                          final List<String> fieldNames,
+                          final List<String> annotationNames,
+                          final List<String> referencedClassNames) {
+        this.accessFlags = accessFlags;
+        this.className = className;
+        this.superClassName = superClassName;
+        this.interfaceNames = Collections.unmodifiableList(interfaceNames);
+        this.fieldNames = Collections.unmodifiableList(fieldNames);
+        this.annotationNames = Collections.unmodifiableList(annotationNames);
+        this.referencedClassNames = Collections.unmodifiableList(referencedClassNames);
+    }
+
+    //
+    // Factory methods
+    //
+
+    /**
+     * Read class file information from provided class file content.
+     *
+     * @param classBytes the class file content
+     * @return class file information
+     * @throws IOException if provided content is not a valid class file
+     */
+    public static ClassFileInfo read(final byte[] classBytes) throws IOException {
+        Validate.notNull(classBytes, "classBytes is null!");
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        // minor and major version
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        //
+        // constant pool (only utf8 and class entries are retained)
+
+        final int constantPoolCount = in.readUnsignedShort();
+        final String[] utf8 = new String[constantPoolCount];
+        final int[] classNameIndexes = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; ++i) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndexes[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(in, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(in, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(in, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(in, 8);
+                    // 8 byte constants take two constant pool entries
+                    ++i;
+                    break;
+                default:
+                    throw new IOException("invalid constant pool tag: " + tag);
+            }
+        }
+
+        final List<String> referencedClassNames = new ArrayList<String>();
+        for (int i = 1; i < constantPoolCount; ++i) {
+            if (classNameIndexes[i] != 0) {
+                referencedClassNames.add(utf8(utf8, classNameIndexes[i]));
+            }
+        }
+
+        //
+        // class, super class and interfaces
+
+        final int accessFlags = in.readUnsignedShort();
+        final String className = className(utf8, classNameIndexes, in.readUnsignedShort());
+        final String superClassName = className(utf8, classNameIndexes, in.readUnsignedShort());
+
+        final int interfacesCount = in.readUnsignedShort();
+        final List<String> interfaceNames = new ArrayList<String>(interfacesCount);
+        for (int i = 0; i < interfacesCount; ++i) {
+            interfaceNames.add(className(utf8, classNameIndexes, in.readUnsignedShort()));
+        }
+
+        //
+        // fields
+
+        final int fieldsCount = in.readUnsignedShort();
+        final List<String> fieldNames = new ArrayList<String>(fieldsCount);
+        for (int i = 0; i < fieldsCount; ++i) {
+            // access flags
+            in.readUnsignedShort();
+            fieldNames.add(utf8(utf8, in.readUnsignedShort()));
+            // descriptor
+            in.readUnsignedShort();
+            skipAttributes(in);
+        }
+
+        //
+        // methods
+
+        final int methodsCount = in.readUnsignedShort();
+        for (int i = 0; i < methodsCount; ++i) {
+            // access flags, name and descriptor
+            skip(in, 6);
+            skipAttributes(in);
+        }
+
+        //
+        // class attributes (only runtime visible annotations are retained)
+
+        final List<String> annotationNames = new ArrayList<String>(2);
+        final int attributesCount = in.readUnsignedShort();
+        for (int i = 0; i < attributesCount; ++i) {
+            final String attributeName = utf8(utf8, in.readUnsignedShort());
+            final long attributeLength = in.readInt() & 0xFFFFFFFFL;
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName)) {
+                final int annotationsCount = in.readUnsignedShort();
+                for (int j = 0; j < annotationsCount; ++j) {
+                    annotationNames.add(descriptorToClassName(utf8(utf8, in.readUnsignedShort())));
+                    skipElementValuePairs(in);
+                }
+            } else {
+                skip(in, attributeLength);
+            }
+        }
+
+        return new ClassFileInfo(accessFlags, className, superClassName, interfaceNames, fieldNames, annotationNames, referencedClassNames);
+    }
+
+    //
+    // Getters
+    //
+
+    public String getClassName() {
+        return this.className;
+    }
+
+    public String getSuperClassName() {
+        return this.superClassName;
+    }
+
+    public List<String> getInterfaceNames() {
+        return this.interfaceNames;
+    }
+
+    public List<String> getFieldNames() {
+        return this.fieldNames;
+    }
+
+    /**
+     * @return runtime visible annotations of the class (e.g. 'javax/persistence/Entity')
+     */
+    public List<String> getAnnotationNames() {
+        return this.annotationNames;
+    }
+
+    /**
+     * @return classes referenced by class constants, including the class itself (array classes as descriptors, e.g. '[Ljava/lang/String;')
+     */
+    public List<String> getReferencedClassNames() {
+        return this.referencedClassNames;
+    }
+
+    public boolean isAnnotationType() {
+        return (this.accessFlags & ACC_ANNOTATION) != 0;
+    }
+
+    /**
+     * Check if the class has already been processed by the enhancer (implements the
+     * enhancer interfaces or declares enhancer generated fields).
+     *
+     * @return true if the class is enhanced
+     */
+    public boolean isEnhanced() {
+        for (final String interfaceName : this.interfaceNames) {
+            if (ENHANCED_INTERFACES.contains(interfaceName)) {
+                return true;
+            }
+        }
+        for (final String fieldName : this.fieldNames) {
+            if (ENHANCED_FIELDS.contains(fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static String className(final String[] utf8, final int[] classNameIndexes, final int index) throws IOException {
+        // index 0 is valid for super class of java.lang.Object and module-info
+        if (index == 0) {
+            return null;
+        }
+        if (index >= classNameIndexes.length || classNameIndexes[index] == 0) {
+            throw new IOException("invalid class constant index: " + index);
+        }
+        return utf8(utf8, classNameIndexes[index]);
+    }
+
+    private static String utf8(final String[] utf8, final int index) throws IOException {
+        if (index <= 0 || index >= utf8.length || utf8[index] == null) {
+            throw new IOException("invalid utf8 constant index: " + index);
+        }
+        return utf8[index];
+    }
+
+    private static void skipAttributes(final DataInputStream in) throws IOException {
+        final int attributesCount = in.readUnsignedShort();
+        for (int i = 0; i < attributesCount; ++i) {
+            // name
+            in.readUnsignedShort();
+            skip(in, in.readInt() & 0xFFFFFFFFL);
+        }
+    }
+
+    private static void skipElementValuePairs(final DataInputStream in) throws IOException {
+        final int pairsCount = in.readUnsignedShort();
+        for (int i = 0; i < pairsCount; ++i) {
+            // element name
+            in.readUnsignedShort();
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(final DataInputStream in) throws IOException {
+        final int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+            case 'c':
+                skip(in, 2);
+                break;
+            case 'e':
+                skip(in, 4);
+                break;
+            case '@':
+                // nested annotation type
+                in.readUnsignedShort();
+                skipElementValuePairs(in);
+                break;
+            case '[':
+                final int valuesCount = in.readUnsignedShort();
+                for (int i = 0; i < valuesCount; ++i) {
+                    skipElementValue(in);
+                }
+                break;
+            default:
+                throw new IOException("invalid annotation element value tag: " + tag);
+        }
+    }
+
+    private static String descriptorToClassName(final String descriptor) throws IOException {
+        if (descriptor.length() < 3 || descriptor.charAt(0) != 'L' || descriptor.charAt(descriptor.length() - 1) != ';') {
+            throw new IOException("invalid annotation type descriptor: " + descriptor);
+        }
+        return descriptor.substring(1, descriptor.length() - 1);
+    }
+
+    private static void skip(final DataInputStream in, final long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassFileInfo{" +
+                "className='" + this.className + '\'' +
+                ", superClassName='" + this.superClassName + '\'' +
+                ", interfaceNames=" + this.interfaceNames +
+                ", fieldNames=" + this.fieldNames +
+                ", annotationNames=" + this.annotationNames +
+                '}';
+    }
+
+}
@@ -20,6 +20,12 @@
 package org.datanucleus.ide.idea.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.Validate;
@@ -154,4 +160,45 @@ public abstract class DNEFileUtils {
                 .replaceAll(SEPARATOR_GENERIC);
     }
 
+    /**
+     * Calculates a fast (non cryptographic) hash of file content (CRC32).
+     *
+     * @param content the file content
+     * @return content hash
+     */
+    public static long contentHash(final byte[] content) {
+        Validate.notNull(content, "content is null!");
+
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Replaces the content of a file in a single write: the content is written to a temporary file
+     * in the same directory, which is then moved over the target file (atomically if supported by
+     * the file system).
+     *
+     * @param file    the file to write
+     * @param content the new file content
+     * @throws IOException if writing or moving the temporary file fails
+     */
+    public static void writeAtomically(final File file, final byte[] content) throws IOException {
+        Validate.notNull(file, "file is null!");
+        Validate.notNull(content, "content is null!");
+
+        final Path target = file.toPath();
+        final Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), file.getName(), ".tmp");
+        try {
+            Files.write(tmp, content);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ignored) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
 }
@@ -17,3 +17,6 @@ call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=ja
 call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=jar -Dfile="%IDEA_HOME%\lib\util.jar" -DartifactId=util -Dversion=%IDEA_VERSION%
 call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=jar -Dfile="%IDEA_HOME%\redist\forms_rt.jar" -DartifactId=forms_rt -Dversion=%IDEA_VERSION%
 call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=jar -Dfile="%IDEA_HOME%\redist\javac2.jar" -DartifactId=javac2 -Dversion=%IDEA_VERSION%
+call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=jar -Dfile="%IDEA_HOME%\lib\jps-builders.jar" -DartifactId=jps-builders -Dversion=%IDEA_VERSION%
+call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=jar -Dfile="%IDEA_HOME%\lib\jps-model.jar" -DartifactId=jps-model -Dversion=%IDEA_VERSION%
+call mvn install:install-file -e -B -ff -DgroupId=%IDEA_GROUP_ID% -Dpackaging=jar -Dfile="%IDEA_HOME%\lib\jdom.jar" -DartifactId=jdom -Dversion=%IDEA_VERSION%
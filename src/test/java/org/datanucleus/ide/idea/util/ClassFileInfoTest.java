@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Gerold Klinger and sourceheads Information Technology GmbH.
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     ...
+ ******************************************************************************/
+
+package org.datanucleus.ide.idea.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClassFileInfo}, reading compiled classes as well as class files assembled
+ * with constant pool entries the compiler does not emit for Java 1.7 sources.
+ */
+public class ClassFileInfoTest {
+
+    private static final String PLAIN_CLASS_NAME = "org/datanucleus/ide/idea/util/ClassFileInfoTest$Plain";
+
+    //
+    // Compiled classes
+    //
+
+    @Test
+    public void testCompiledPlainClass() throws IOException {
+        final ClassFileInfo info = ClassFileInfo.read(loadClassBytes(Plain.class));
+
+        assertEquals(PLAIN_CLASS_NAME, info.getClassName());
+        assertEquals("java/lang/Object", info.getSuperClassName());
+        assertEquals(Arrays.asList("java/io/Serializable"), info.getInterfaceNames());
+        assertEquals(Arrays.asList("serialVersionUID", "count", "ratio", "name"), info.getFieldNames());
+        assertTrue(info.getAnnotationNames().isEmpty());
+        assertTrue(info.getReferencedClassNames().contains(PLAIN_CLASS_NAME));
+        assertFalse(info.isAnnotationType());
+        assertFalse(info.isEnhanced());
+    }
+
+    @Test
+    public void testCompiledAnnotationType() throws IOException {
+        final ClassFileInfo info = ClassFileInfo.read(loadClassBytes(Marker.class));
+
+        assertTrue(info.isAnnotationType());
+        assertEquals(Arrays.asList("java/lang/annotation/Retention"), info.getAnnotationNames());
+        assertFalse(info.isEnhanced());
+    }
+
+    //
+    // Enhanced classes
+    //
+
+    @Test
+    public void testEnhancedByDataNucleusInterface() throws IOException {
+        final byte[] classBytes = new ClassBytes("test/Person", "java/lang/Object")
+                .addInterface("org/datanucleus/enhancement/Persistable")
+                .addField("name", "Ljava/lang/String;")
+                .toBytes();
+
+        assertTrue(ClassFileInfo.read(classBytes).isEnhanced());
+    }
+
+    @Test
+    public void testEnhancedByJdoInterface() throws IOException {
+        final byte[] classBytes = new ClassBytes("test/Person", "java/lang/Object")
+                .addInterface("javax/jdo/spi/PersistenceCapable")
+                .toBytes();
+
+        assertTrue(ClassFileInfo.read(classBytes).isEnhanced());
+    }
+
+    @Test
+    public void testEnhancedSubclassByField() throws IOException {
+        // enhanced subclasses inherit the interface, but get the generated fields
+        final byte[] classBytes = new ClassBytes("test/Employee", "test/Person")
+                .addField("salary", "J")
+                .addField("dnFieldNames", "[Ljava/lang/String;")
+                .toBytes();
+
+        final ClassFileInfo info = ClassFileInfo.read(classBytes);
+        assertEquals("test/Person", info.getSuperClassName());
+        assertTrue(info.isEnhanced());
+    }
+
+    @Test
+    public void testPersistentClassNotEnhanced() throws IOException {
+        final byte[] classBytes = new ClassBytes("test/Person", "java/lang/Object")
+                .addInterface("java/io/Serializable")
+                .addField("name", "Ljava/lang/String;")
+                .addAnnotation("Ljavax/jdo/annotations/PersistenceCapable;")
+                .toBytes();
+
+        final ClassFileInfo info = ClassFileInfo.read(classBytes);
+        assertEquals(Arrays.asList("javax/jdo/annotations/PersistenceCapable"), info.getAnnotationNames());
+        assertFalse(info.isEnhanced());
+    }
+
+    //
+    // Constant pool
+    //
+
+    @Test
+    public void testLongAndDoubleConstantsTakeTwoSlots() throws IOException {
+        final ClassBytes classBytes = new ClassBytes();
+        classBytes.addLong(Long.MAX_VALUE);
+        classBytes.addClass("test/AfterLong");
+        classBytes.addDouble(Double.MIN_VALUE);
+        classBytes.addDouble(1.5d);
+        classBytes.addClass("test/AfterDouble");
+        classBytes.setClass("test/Constants", "java/lang/Object");
+        classBytes.addField("jdoStateManager", "Ljavax/jdo/spi/StateManager;");
+
+        final ClassFileInfo info = ClassFileInfo.read(classBytes.toBytes());
+        assertEquals("test/Constants", info.getClassName());
+        assertEquals("java/lang/Object", info.getSuperClassName());
+        assertEquals(Arrays.asList("test/AfterLong", "test/AfterDouble", "test/Constants", "java/lang/Object"),
+                     info.getReferencedClassNames());
+        assertTrue(info.isEnhanced());
+    }
+
+    @Test
+    public void testMethodHandleAndInvokeDynamicConstants() throws IOException {
+        // constants of a Java 7 invokedynamic call site (e.g. a lambda compiled for Java 8)
+        final ClassBytes classBytes = new ClassBytes();
+        final int factoryClass = classBytes.addClass("java/lang/invoke/LambdaMetafactory");
+        final int factory = classBytes.addMethodRef(factoryClass, "metafactory",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                + "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)"
+                + "Ljava/lang/invoke/CallSite;");
+        classBytes.addMethodHandle(6, factory);
+        classBytes.addMethodType("()V");
+        classBytes.addInvokeDynamic(0, "run", "()Ljava/lang/Runnable;");
+        classBytes.setClass("test/Lambdas", "java/lang/Object");
+        classBytes.addInterface("java/lang/Runnable");
+
+        final ClassFileInfo info = ClassFileInfo.read(classBytes.toBytes());
+        assertEquals("test/Lambdas", info.getClassName());
+        assertEquals(Arrays.asList("java/lang/Runnable"), info.getInterfaceNames());
+        assertEquals(Arrays.asList("java/lang/invoke/LambdaMetafactory", "test/Lambdas", "java/lang/Object", "java/lang/Runnable"),
+                     info.getReferencedClassNames());
+        assertFalse(info.isEnhanced());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAClassFile() throws IOException {
+        ClassFileInfo.read(new byte[] {0x50, 0x4B, 0x03, 0x04, 0, 0, 0, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedClassFile() throws IOException {
+        final byte[] classBytes = new ClassBytes("test/Person", "java/lang/Object").toBytes();
+        ClassFileInfo.read(Arrays.copyOf(classBytes, classBytes.length - 4));
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static byte[] loadClassBytes(final Class<?> clazz) throws IOException {
+        final String resourceName = clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class";
+        final InputStream in = clazz.getResourceAsStream(resourceName);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    //
+    // Helper classes
+    //
+
+    /**
+     * Compiled class with long and double constants in its constant pool.
+     */
+    @SuppressWarnings("unused")
+    private static final class Plain implements java.io.Serializable {
+
+        private static final long serialVersionUID = 4242424242424242L;
+
+        private long count = 1234567890123L;
+
+        private double ratio = 0.75d;
+
+        private String name = "plain";
+
+    }
+
+    @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)
+    private @interface Marker {
+    }
+
+    /**
+     * Assembles a class file (without methods) from constant pool entries, class, interfaces, fields
+     * and runtime visible class annotations.
+     */
+    private static final class ClassBytes {
+
+        private static final int ACC_PUBLIC_SUPER = 0x0021;
+
+        private static final int ACC_PRIVATE = 0x0002;
+
+        private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+
+        private final DataOutputStream pool = new DataOutputStream(this.constantPool);
+
+        private int constantPoolCount = 1;
+
+        private int classIndex = 0;
+
+        private int superClassIndex = 0;
+
+        private final List<Integer> interfaceIndexes = new ArrayList<Integer>();
+
+        private final List<int[]> fieldIndexes = new ArrayList<int[]>();
+
+        private final List<Integer> annotationIndexes = new ArrayList<Integer>();
+
+        private ClassBytes() {
+        }
+
+        private ClassBytes(final String className, final String superClassName) throws IOException {
+            this.setClass(className, superClassName);
+        }
+
+        private void setClass(final String className, final String superClassName) throws IOException {
+            this.classIndex = this.addClass(className);
+            this.superClassIndex = this.addClass(superClassName);
+        }
+
+        private ClassBytes addInterface(final String interfaceName) throws IOException {
+            this.interfaceIndexes.add(this.addClass(interfaceName));
+            return this;
+        }
+
+        private ClassBytes addField(final String name, final String descriptor) throws IOException {
+            this.fieldIndexes.add(new int[] {this.addUtf8(name), this.addUtf8(descriptor)});
+            return this;
+        }
+
+        private ClassBytes addAnnotation(final String descriptor) throws IOException {
+            this.annotationIndexes.add(this.addUtf8(descriptor));
+            return this;
+        }
+
+        //
+        // Constant pool entries
+        //
+
+        private int addUtf8(final String value) throws IOException {
+            this.pool.writeByte(1);
+            this.pool.writeUTF(value);
+            return this.constantPoolCount++;
+        }
+
+        private int addClass(final String className) throws IOException {
+            final int nameIndex = this.addUtf8(className);
+            this.pool.writeByte(7);
+            this.pool.writeShort(nameIndex);
+            return this.constantPoolCount++;
+        }
+
+        private int addLong(final long value) throws IOException {
+            this.pool.writeByte(5);
+            this.pool.writeLong(value);
+            final int index = this.constantPoolCount;
+            this.constantPoolCount += 2;
+            return index;
+        }
+
+        private int addDouble(final double value) throws IOException {
+            this.pool.writeByte(6);
+            this.pool.writeDouble(value);
+            final int index = this.constantPoolCount;
+            this.constantPoolCount += 2;
+            return index;
+        }
+
+        private int addNameAndType(final String name, final String descriptor) throws IOException {
+            final int nameIndex = this.addUtf8(name);
+            final int descriptorIndex = this.addUtf8(descriptor);
+            this.pool.writeByte(12);
+            this.pool.writeShort(nameIndex);
+            this.pool.writeShort(descriptorIndex);
+            return this.constantPoolCount++;
+        }
+
+        private int addMethodRef(final int classIndex, final String name, final String descriptor) throws IOException {
+            final int nameAndTypeIndex = this.addNameAndType(name, descriptor);
+            this.pool.writeByte(10);
+            this.pool.writeShort(classIndex);
+            this.pool.writeShort(nameAndTypeIndex);
+            return this.constantPoolCount++;
+        }
+
+        private int addMethodHandle(final int referenceKind, final int referenceIndex) throws IOException {
+            this.pool.writeByte(15);
+            this.pool.writeByte(referenceKind);
+            this.pool.writeShort(referenceIndex);
+            return this.constantPoolCount++;
+        }
+
+        private int addMethodType(final String descriptor) throws IOException {
+            final int descriptorIndex = this.addUtf8(descriptor);
+            this.pool.writeByte(16);
+            this.pool.writeShort(descriptorIndex);
+            return this.constantPoolCount++;
+        }
+
+        private int addInvokeDynamic(final int bootstrapMethodIndex, final String name, final String descriptor) throws IOException {
+            final int nameAndTypeIndex = this.addNameAndType(name, descriptor);
+            this.pool.writeByte(18);
+            this.pool.writeShort(bootstrapMethodIndex);
+            this.pool.writeShort(nameAndTypeIndex);
+            return this.constantPoolCount++;
+        }
+
+        //
+        // Class file
+        //
+
+        private byte[] toBytes() throws IOException {
+            final int annotationsAttributeIndex = this.annotationIndexes.isEmpty() ? 0 : this.addUtf8("RuntimeVisibleAnnotations");
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            // minor and major version (Java 7)
+            out.writeShort(0);
+            out.writeShort(51);
+            out.writeShort(this.constantPoolCount);
+            out.write(this.constantPool.toByteArray());
+
+            out.writeShort(ACC_PUBLIC_SUPER);
+            out.writeShort(this.classIndex);
+            out.writeShort(this.superClassIndex);
+            out.writeShort(this.interfaceIndexes.size());
+            for (final int interfaceIndex : this.interfaceIndexes) {
+                out.writeShort(interfaceIndex);
+            }
+
+            out.writeShort(this.fieldIndexes.size());
+            for (final int[] field : this.fieldIndexes) {
+                out.writeShort(ACC_PRIVATE);
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                // attributes
+                out.writeShort(0);
+            }
+
+            // methods
+            out.writeShort(0);
+
+            if (annotationsAttributeIndex == 0) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(annotationsAttributeIndex);
+                out.writeInt(2 + 4 * this.annotationIndexes.size());
+                out.writeShort(this.annotationIndexes.size());
+                for (final int annotationIndex : this.annotationIndexes) {
+                    out.writeShort(annotationIndex);
+                    // element value pairs
+                    out.writeShort(0);
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+    }
+
+}